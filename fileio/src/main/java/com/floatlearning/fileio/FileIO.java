@@ -30,7 +30,7 @@ public class FileIO {
     /**
      * The quality to use when saving to JPEG.
      */
-    private static final int JPEG_QUALITY = 90;
+    static final int JPEG_QUALITY = 90;
     /**
      * Extension for JPEG files.
      */
@@ -73,7 +73,17 @@ public class FileIO {
      * @return  True if the save was successful, false otherwise.
      */
     public static boolean saveImageFromBitmapWithTimestamp(final Bitmap bitmap, final String folder, final String prefix, final boolean png) {
-        return saveImageFromBitmap(bitmap, folder, prefix + new Date().toString().replace(" ", "_"), png);
+        return saveImageFromBitmap(bitmap, folder, getTimestampedName(prefix), png);
+    }
+
+    /**
+     * Returns a file name with the current time and date appended, as saveImageFromBitmapWithTimestamp() uses.
+     *
+     * @param prefix    The prefix portion of the file name.
+     * @return  The prefix followed by the current time and date, without spaces.
+     */
+    public static String getTimestampedName(final String prefix) {
+        return prefix + new Date().toString().replace(" ", "_");
     }
 
     /**
@@ -118,17 +128,13 @@ public class FileIO {
      * @return  True if the save was successful, false otherwise.
      */
     public static boolean saveImageFromBitmap(final Bitmap bitmap, final String folder, final String filename, final boolean png) {
-        String folderPath = STORAGE_PATH + PATH_SEPARATOR + folder;
-        File targetDirectory = new File(folderPath);
+        File file = getFile(folder, filename, png ? EXT_PNG : EXT_JPEG);
 
-        if (!targetDirectory.exists()) {
-            if (!targetDirectory.mkdirs()) {
-                // unable to continue; cannot create requested folder
-                return false;
-            }
+        if (!createFolder(file)) {
+            // unable to continue; cannot create requested folder
+            return false;
         }
 
-        File file = new File(folderPath + PATH_SEPARATOR + filename + "." + (png ? EXT_PNG : EXT_JPEG));
         FileOutputStream output;
 
         try {
@@ -138,7 +144,7 @@ public class FileIO {
             return false;
         }
 
-        bitmap.compress(png ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG, JPEG_QUALITY, output);
+        bitmap.compress(getCompressFormat(png), JPEG_QUALITY, output);
 
         try {
             output.close();
@@ -165,17 +171,13 @@ public class FileIO {
             return false;
         }
 
-        String folderPath = STORAGE_PATH + PATH_SEPARATOR + folder;
-        File targetDirectory = new File(folderPath);
+        File file = getFile(folder, filename, extension);
 
-        if (!targetDirectory.exists()) {
-            if (!targetDirectory.mkdirs()) {
-                // unable to continue; cannot create requested folder
-                return false;
-            }
+        if (!createFolder(file)) {
+            // unable to continue; cannot create requested folder
+            return false;
         }
 
-        File file = new File(folderPath + PATH_SEPARATOR + filename + "." + extension);
         FileOutputStream output;
 
         try {
@@ -196,6 +198,37 @@ public class FileIO {
         return true;
     }
 
+    /**
+     * Returns the file a folder, filename and extension refer to in external storage, without creating anything.
+     *
+     * @param folder      The folder the file is in.
+     * @param filename    The name of the file.
+     * @param extension   The extension of the file.
+     */
+    static File getFile(final String folder, final String filename, final String extension) {
+        return new File(STORAGE_PATH + PATH_SEPARATOR + folder + PATH_SEPARATOR + filename + "." + extension);
+    }
+
+    /**
+     * Creates the folder a file will be saved in, if it doesn't exist yet.
+     *
+     * @param file    The file to be saved.
+     * @return  True if the folder exists, false if it couldn't be created.
+     */
+    static boolean createFolder(final File file) {
+        File targetDirectory = file.getParentFile();
+        return targetDirectory.exists() || targetDirectory.mkdirs();
+    }
+
+    /**
+     * Returns the format bitmaps are compressed to.
+     *
+     * @param png    Whether or not to use PNG (the alternative is JPEG).
+     */
+    static Bitmap.CompressFormat getCompressFormat(final boolean png) {
+        return png ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+    }
+
     private static String pad(final int number) {
         if (number < 10) {
             return "000" + number;
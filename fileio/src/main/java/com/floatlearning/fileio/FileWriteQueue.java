@@ -0,0 +1,427 @@
+package com.floatlearning.fileio;
+
+import android.graphics.Bitmap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Saves files on worker threads, so that compressing images and writing to disk never stall the thread asking for them,
+ * such as a render thread capturing a frame.
+ *
+ * Each write is queued with an Encoder which produces the file's bytes, and runs on a worker in two steps: the encoder
+ * writes into a buffer kept by that worker, then the buffer is written to disk. The queue holds a limited number of
+ * writes which haven't started; when it is full, the overflow policy decides whether the caller waits, or which write is
+ * dropped. Every write returns a Future of whether it succeeded, which is cancelled if the write was dropped, and can
+ * notify a listener when it finishes. As with FileIO, failing to save a file is reported as false rather than thrown.
+ */
+public class FileWriteQueue {
+    /**
+     * Writes which are waiting for a worker, oldest first.
+     */
+    private final ArrayDeque<Write> pending = new ArrayDeque<Write>();
+    /**
+     * Runs the writes.
+     */
+    private final ExecutorService workers;
+    /**
+     * The most writes which may wait for a worker at once.
+     */
+    private final int capacity;
+    /**
+     * What to do when a write is queued and the queue is full.
+     */
+    private final OverflowPolicy overflowPolicy;
+    /**
+     * Each worker's encoding buffer, which keeps its size between writes.
+     */
+    private final ThreadLocal<ByteArrayOutputStream> buffers = new ThreadLocal<ByteArrayOutputStream>() {
+        @Override
+        protected ByteArrayOutputStream initialValue() {
+            return new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        }
+    };
+    /**
+     * Statistics for tuning the capacity and number of workers.
+     */
+    private final AtomicInteger activeCount = new AtomicInteger(0);
+    private final AtomicInteger writtenCount = new AtomicInteger(0);
+    private final AtomicInteger failedCount = new AtomicInteger(0);
+    private final AtomicInteger droppedCount = new AtomicInteger(0);
+    private final AtomicLong encodeNanos = new AtomicLong(0);
+    private final AtomicLong writeNanos = new AtomicLong(0);
+    /**
+     * Whether or not this queue has been shut down.
+     */
+    private boolean quit = false;
+
+    /**
+     * Construct a new FileWriteQueue with one worker, which drops new writes when DEFAULT_CAPACITY are already waiting.
+     */
+    public FileWriteQueue() {
+        this(1, DEFAULT_CAPACITY, OverflowPolicy.DROP_NEWEST);
+    }
+
+    /**
+     * Construct a new FileWriteQueue.
+     *
+     * @param workerCount       The number of threads encoding and writing files.
+     * @param capacity          The most writes which may wait for a worker at once, not counting those being written.
+     * @param overflowPolicy    What to do when a write is queued and the queue is full.
+     */
+    public FileWriteQueue(final int workerCount, final int capacity, final OverflowPolicy overflowPolicy) {
+        if (workerCount < 1 || capacity < 1) {
+            throw new RuntimeException("Tried to create a write queue with " + workerCount + " workers and room for "
+                    + capacity + " writes.");
+        }
+
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+
+        workers = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, TAG + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queue a file to be saved to external storage.
+     *
+     * @param encoder     Produces the bytes of the file on a worker thread.
+     * @param folder      The folder to save to.
+     * @param filename    The name of the file.
+     * @param extension   The extension of the file.
+     * @param listener    The object to notify when the write finishes, or null.
+     * @return  Whether the file was saved, once it has been; cancelled if the write was dropped.
+     */
+    public Future<Boolean> write(final Encoder encoder, final String folder, final String filename,
+                                 final String extension, final WriteListener listener) {
+        final File file = FileIO.getFile(folder, filename, extension);
+
+        return submit(new Write(file, listener, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                try {
+                    return save(encoder, file);
+                } catch (IOException e) {
+                    // unable to continue; could not encode or write the file
+                    return false;
+                }
+            }
+        }));
+    }
+
+    /**
+     * Queue a bitmap to be compressed and saved to external storage. The bitmap must not be changed or recycled until the
+     * write finishes.
+     *
+     * @param bitmap      The bitmap to save to file.
+     * @param folder      The folder to save to.
+     * @param filename    The name of the file.
+     * @param png         Whether or not to use PNG (the alternative is JPEG).
+     * @param listener    The object to notify when the write finishes, or null.
+     * @return  Whether the file was saved, once it has been; cancelled if the write was dropped.
+     */
+    public Future<Boolean> saveImageFromBitmap(final Bitmap bitmap, final String folder, final String filename,
+                                               final boolean png, final WriteListener listener) {
+        return write(new Encoder() {
+            @Override
+            public void encode(final OutputStream output) throws IOException {
+                if (!bitmap.compress(FileIO.getCompressFormat(png), FileIO.JPEG_QUALITY, output)) {
+                    throw new IOException("Unable to compress a " + bitmap.getWidth() + "x" + bitmap.getHeight() + " bitmap");
+                }
+            }
+        }, folder, filename, png ? FileIO.EXT_PNG : FileIO.EXT_JPEG, listener);
+    }
+
+    /**
+     * Queue a byte array to be saved to external storage. The array must not be changed until the write finishes.
+     *
+     * @param bytes       The data to save to disk.
+     * @param folder      The folder to save to.
+     * @param filename    The name of the file.
+     * @param extension   The extension of the file.
+     * @param listener    The object to notify when the write finishes, or null.
+     * @return  Whether the file was saved, once it has been; cancelled if the write was dropped.
+     */
+    public Future<Boolean> saveBytes(final byte[] bytes, final String folder, final String filename,
+                                     final String extension, final WriteListener listener) {
+        return write(new Encoder() {
+            @Override
+            public void encode(final OutputStream output) throws IOException {
+                output.write(bytes);
+            }
+        }, folder, filename, extension, listener);
+    }
+
+    /**
+     * Returns the number of writes waiting for a worker.
+     */
+    public synchronized int getQueueDepth() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the number of writes being encoded or written.
+     */
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    /**
+     * Returns the number of files saved.
+     */
+    public int getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    /**
+     * Returns the number of writes which were attempted but failed.
+     */
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Returns the number of writes dropped because the queue was full or shut down.
+     */
+    public int getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Returns the total time spent encoding files, in nanoseconds.
+     */
+    public long getEncodeTime() {
+        return encodeNanos.get();
+    }
+
+    /**
+     * Returns the total time spent writing encoded files to disk, in nanoseconds.
+     */
+    public long getWriteTime() {
+        return writeNanos.get();
+    }
+
+    /**
+     * Stop accepting writes. Writes already queued are still saved, and the workers exit afterwards.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            quit = true;
+            workers.shutdown();
+
+            // wake any callers waiting for room, so they can give up
+            notifyAll();
+        }
+    }
+
+    /**
+     * Internal method to queue a write, applying the overflow policy if the queue is full.
+     */
+    private Future<Boolean> submit(final Write write) {
+        Write dropped = null;
+
+        synchronized (this) {
+            if (overflowPolicy == OverflowPolicy.BLOCK) {
+                try {
+                    while (!quit && pending.size() >= capacity) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else if (overflowPolicy == OverflowPolicy.DROP_OLDEST && !quit && pending.size() >= capacity) {
+                dropped = pending.poll();
+            }
+
+            if (quit || pending.size() >= capacity) {
+                dropped = write;
+            } else {
+                pending.add(write);
+                workers.execute(drain);
+            }
+        }
+
+        // cancelled outside the lock, since cancelling notifies the write's listener
+        if (dropped != null) {
+            droppedCount.incrementAndGet();
+            dropped.cancel(false);
+        }
+
+        return write;
+    }
+
+    /**
+     * Internal method to encode a file and write it to disk, measuring each step.
+     */
+    private boolean save(final Encoder encoder, final File file) throws IOException {
+        if (!FileIO.createFolder(file)) {
+            // unable to continue; cannot create requested folder
+            return false;
+        }
+
+        final ByteArrayOutputStream buffer = buffers.get();
+        buffer.reset();
+
+        final long start = System.nanoTime();
+        encoder.encode(buffer);
+        final long encoded = System.nanoTime();
+
+        final FileOutputStream output = new FileOutputStream(file);
+
+        try {
+            buffer.writeTo(output);
+        } finally {
+            output.close();
+        }
+
+        encodeNanos.addAndGet(encoded - start);
+        writeNanos.addAndGet(System.nanoTime() - encoded);
+
+        // a worker which once saved a huge file shouldn't hold on to a buffer that size
+        if (buffer.size() > MAX_RETAINED_BUFFER_SIZE) {
+            buffers.remove();
+        }
+
+        return true;
+    }
+
+    /**
+     * Runs the oldest pending write, if it hasn't been dropped. Executed once per write queued.
+     */
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            final Write write;
+
+            synchronized (FileWriteQueue.this) {
+                write = pending.poll();
+
+                // a blocked caller can now queue its write
+                FileWriteQueue.this.notifyAll();
+            }
+
+            if (write == null) {
+                return;
+            }
+
+            activeCount.incrementAndGet();
+
+            try {
+                write.run();
+            } finally {
+                activeCount.decrementAndGet();
+            }
+        }
+    };
+
+    /**
+     * A queued write, which notifies its listener when it finishes, is dropped, or fails.
+     */
+    private class Write extends FutureTask<Boolean> {
+        /**
+         * The file being saved.
+         */
+        private final File file;
+        /**
+         * The object to notify when the write finishes, or null.
+         */
+        private final WriteListener listener;
+
+        private Write(final File file, final WriteListener listener, final Callable<Boolean> save) {
+            super(save);
+            this.file = file;
+            this.listener = listener;
+        }
+
+        @Override
+        protected void done() {
+            boolean success = false;
+
+            if (!isCancelled()) {
+                try {
+                    success = get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // the encoder threw an unchecked exception; reported as an unsuccessful write
+                }
+
+                if (success) {
+                    writtenCount.incrementAndGet();
+                } else {
+                    failedCount.incrementAndGet();
+                }
+            }
+
+            if (listener != null) {
+                listener.onWriteComplete(file, success);
+            }
+        }
+    }
+
+    /**
+     * What to do when a write is queued and the queue is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for room in the queue; never use on a thread which must not stall, such as a render thread.
+         */
+        BLOCK,
+        /**
+         * Drop the oldest write which hasn't started, so the latest writes are always saved.
+         */
+        DROP_OLDEST,
+        /**
+         * Drop the new write, so every write which was queued gets saved.
+         */
+        DROP_NEWEST
+    }
+
+    public interface Encoder {
+        /**
+         * Called on a worker thread to produce the contents of a file.
+         *
+         * @param output    The stream to write the file's bytes to.
+         */
+        void encode(final OutputStream output) throws IOException;
+    }
+
+    public interface WriteListener {
+        /**
+         * Called once per write: on a worker thread when it finishes, or on the thread which dropped it.
+         *
+         * @param file      The file being saved.
+         * @param success   True if the file was saved, false if the write failed or was dropped.
+         */
+        void onWriteComplete(final File file, final boolean success);
+    }
+
+    // enough for a burst of captures while one is being written
+    private static final int DEFAULT_CAPACITY = 4;
+    // a compressed preview-sized image
+    private static final int INITIAL_BUFFER_SIZE = 256 * 1024;
+    // larger than a compressed full-screen capture; buffers past this are let go after use
+    private static final int MAX_RETAINED_BUFFER_SIZE = 16 * 1024 * 1024;
+    private static final String TAG = FileWriteQueue.class.getSimpleName();
+}
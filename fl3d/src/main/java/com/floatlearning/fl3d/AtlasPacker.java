@@ -0,0 +1,274 @@
+package com.floatlearning.fl3d;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Packs rectangles into one or more fixed-size pages, using the skyline bottom-left algorithm.
+ * Pure Java with no OpenGL or Android dependencies, so it can be run and measured on any JVM.
+ * Used by TextureAtlas; not thread-safe.
+ */
+public class AtlasPacker {
+    /**
+     * The size of each page.
+     */
+    public final int pageWidth;
+    public final int pageHeight;
+    /**
+     * Empty space kept around each rectangle, on every side, so texture filtering doesn't sample neighbors.
+     */
+    public final int padding;
+    /**
+     * The skyline of each page: the top edge of the packed area, as horizontal segments from left to right.
+     */
+    private final ArrayList<Skyline> pages = new ArrayList<Skyline>();
+
+    /**
+     * Create a new packer with no pages.
+     *
+     * @param pageWidth     The width of each page; no rectangle can be wider than this, less padding.
+     * @param pageHeight    The height of each page; no rectangle can be taller than this, less padding.
+     * @param padding       Empty space to keep around each rectangle, on every side.
+     */
+    public AtlasPacker(final int pageWidth, final int pageHeight, final int padding) {
+        if (pageWidth < 1 || pageHeight < 1 || padding < 0) {
+            throw new RuntimeException("Invalid atlas page size " + pageWidth + "x" + pageHeight + " with padding " + padding);
+        }
+
+        this.pageWidth = pageWidth;
+        this.pageHeight = pageHeight;
+        this.padding = padding;
+    }
+
+    /**
+     * Place a rectangle in the first page with room for it, adding a page if none has room.
+     *
+     * @param width     The width of the rectangle, not including padding.
+     * @param height    The height of the rectangle, not including padding.
+     * @return  Where the rectangle was placed.
+     */
+    public Placement pack(final int width, final int height) {
+        final int w = width + 2 * padding;
+        final int h = height + 2 * padding;
+
+        if (width < 1 || height < 1 || w > pageWidth || h > pageHeight) {
+            throw new RuntimeException("Can't pack a " + width + "x" + height + " rectangle into " + pageWidth + "x" + pageHeight + " pages with padding " + padding);
+        }
+
+        for (int i = 0; i < pages.size(); i++) {
+            final Placement placement = pages.get(i).insert(i, w, h, padding);
+
+            if (placement != null) {
+                return placement;
+            }
+        }
+
+        final Skyline page = new Skyline(pageWidth, pageHeight);
+        pages.add(page);
+
+        return page.insert(pages.size() - 1, w, h, padding);
+    }
+
+    /**
+     * Place many rectangles at once. They are packed tallest first, which usually wastes less space than
+     * packing in the given order; the results are still returned in the given order.
+     *
+     * @param widths     The width of each rectangle.
+     * @param heights    The height of each rectangle.
+     * @return  Where each rectangle was placed, in the same order as the input.
+     */
+    public Placement[] packAll(final int[] widths, final int[] heights) {
+        final int count = widths.length;
+        final Integer[] order = new Integer[count];
+
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer a, final Integer b) {
+                if (heights[a] != heights[b]) {
+                    return heights[b] - heights[a];
+                }
+
+                return widths[b] - widths[a];
+            }
+        });
+
+        final Placement[] results = new Placement[count];
+
+        for (Integer i : order) {
+            results[i] = pack(widths[i], heights[i]);
+        }
+
+        return results;
+    }
+
+    /**
+     * Returns the number of pages used so far.
+     */
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * Returns the fraction of a page's area covered by packed rectangles, including their padding.
+     *
+     * @param page    The index of the page.
+     */
+    public float getOccupancy(final int page) {
+        return pages.get(page).usedArea / (float) (pageWidth * pageHeight);
+    }
+
+    /**
+     * The location of a packed rectangle. Immutable.
+     */
+    public static class Placement {
+        /**
+         * The index of the page the rectangle was placed on.
+         */
+        public final int page;
+        /**
+         * The position of the rectangle's top left corner, not including padding.
+         */
+        public final int x;
+        public final int y;
+        /**
+         * The size of the rectangle, not including padding.
+         */
+        public final int width;
+        public final int height;
+
+        Placement(final int page, final int x, final int y, final int width, final int height) {
+            this.page = page;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    /**
+     * The packed area of one page, stored as segments of its top edge. Each segment is (x, y, width), with y
+     * increasing downward from the top of the page.
+     */
+    private static class Skyline {
+        private final int width;
+        private final int height;
+        private final ArrayList<int[]> segments = new ArrayList<int[]>();
+        private long usedArea = 0;
+
+        Skyline(final int width, final int height) {
+            this.width = width;
+            this.height = height;
+            segments.add(new int[] { 0, 0, width });
+        }
+
+        /**
+         * Place a padded rectangle where its bottom edge would be lowest, or return null if it doesn't fit.
+         */
+        Placement insert(final int page, final int w, final int h, final int padding) {
+            int bestIndex = -1;
+            int bestBottom = Integer.MAX_VALUE;
+            int bestWidth = Integer.MAX_VALUE;
+            int bestY = 0;
+
+            for (int i = 0; i < segments.size(); i++) {
+                final int y = fit(i, w, h);
+
+                if (y < 0) {
+                    continue;
+                }
+
+                final int bottom = y + h;
+                final int segmentWidth = segments.get(i)[2];
+
+                if (bottom < bestBottom || (bottom == bestBottom && segmentWidth < bestWidth)) {
+                    bestIndex = i;
+                    bestBottom = bottom;
+                    bestWidth = segmentWidth;
+                    bestY = y;
+                }
+            }
+
+            if (bestIndex < 0) {
+                return null;
+            }
+
+            final int x = segments.get(bestIndex)[0];
+            addLevel(bestIndex, x, bestY + h, w);
+            usedArea += (long) w * h;
+
+            return new Placement(page, x + padding, bestY + padding, w - 2 * padding, h - 2 * padding);
+        }
+
+        /**
+         * Returns the y position at which a rectangle starting at the given segment would rest, or -1 if it doesn't fit.
+         */
+        private int fit(final int index, final int w, final int h) {
+            final int x = segments.get(index)[0];
+
+            if (x + w > width) {
+                return -1;
+            }
+
+            int remaining = w;
+            int y = 0;
+
+            for (int i = index; remaining > 0; i++) {
+                final int[] segment = segments.get(i);
+                y = Math.max(y, segment[1]);
+
+                if (y + h > height) {
+                    return -1;
+                }
+
+                remaining -= segment[2];
+            }
+
+            return y;
+        }
+
+        /**
+         * Raise the skyline over [x, x + w) to the given y, trimming the segments it covers.
+         */
+        private void addLevel(final int index, final int x, final int y, final int w) {
+            segments.add(index, new int[] { x, y, w });
+
+            // shrink or remove the segments now underneath the new one
+            for (int i = index + 1; i < segments.size(); ) {
+                final int[] segment = segments.get(i);
+                final int end = x + w;
+
+                if (segment[0] >= end) {
+                    break;
+                }
+
+                final int shrink = end - segment[0];
+
+                if (shrink >= segment[2]) {
+                    segments.remove(i);
+                } else {
+                    segment[0] += shrink;
+                    segment[2] -= shrink;
+                    break;
+                }
+            }
+
+            // merge neighbors at the same height
+            for (int i = 0; i < segments.size() - 1; ) {
+                final int[] a = segments.get(i);
+                final int[] b = segments.get(i + 1);
+
+                if (a[1] == b[1]) {
+                    a[2] += b[2];
+                    segments.remove(i + 1);
+                } else {
+                    i++;
+                }
+            }
+        }
+    }
+}
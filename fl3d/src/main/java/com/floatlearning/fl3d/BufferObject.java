@@ -0,0 +1,141 @@
+package com.floatlearning.fl3d;
+
+import android.opengl.GLES20;
+
+import com.floatlearning.fl3d.interfaces.Bindable;
+
+import java.nio.Buffer;
+
+/**
+ * A buffer object stores vertex or index data in the GPU, so it doesn't have to be copied from the CPU on every draw.
+ */
+public class BufferObject implements Bindable {
+    /**
+     * A reference to this object in the GPU.
+     */
+    public final int handle;
+    /**
+     * The buffer target, either GLES20.GL_ARRAY_BUFFER or GLES20.GL_ELEMENT_ARRAY_BUFFER.
+     */
+    public final int target;
+    /**
+     * How often the contents of this buffer are expected to change.
+     */
+    public final Usage usage;
+    /**
+     * The size of this buffer's contents, in bytes.
+     */
+    private int byteCount;
+
+    /**
+     * Create a new buffer object and upload the given data into it.
+     *
+     * @param target             Either GLES20.GL_ARRAY_BUFFER for vertex data, or GLES20.GL_ELEMENT_ARRAY_BUFFER for indices.
+     * @param data               The data to upload, from position zero to its limit.
+     * @param bytesPerElement    The size of one element of the data buffer, e.g. 4 for a FloatBuffer.
+     * @param usage              How often the contents of this buffer are expected to change.
+     */
+    public BufferObject(final int target, final Buffer data, final int bytesPerElement, final Usage usage) {
+        this.target = target;
+        this.usage = usage;
+
+        final int[] buffers = new int[1];
+        GLES20.glGenBuffers(1, buffers, 0);
+
+        if (buffers[0] == 0) {
+            throw new RuntimeException("Could not generate buffer handle");
+        }
+
+        handle = buffers[0];
+        setData(data, bytesPerElement);
+    }
+
+    /**
+     * Replace the entire contents of this buffer, which may change its size.
+     *
+     * @param data               The data to upload, from position zero to its limit.
+     * @param bytesPerElement    The size of one element of the data buffer, e.g. 4 for a FloatBuffer.
+     */
+    public void setData(final Buffer data, final int bytesPerElement) {
+        data.position(0);
+        byteCount = data.limit() * bytesPerElement;
+
+        bind();
+        GLES20.glBufferData(target, byteCount, data, usage.glValue);
+        Core.assertStatus("Unable to upload buffer data");
+    }
+
+    /**
+     * Overwrite part of the contents of this buffer, without changing its size.
+     *
+     * @param byteOffset         The offset into this buffer to start writing at, in bytes.
+     * @param data               The data to upload, from position zero to its limit.
+     * @param bytesPerElement    The size of one element of the data buffer, e.g. 4 for a FloatBuffer.
+     */
+    public void updateData(final int byteOffset, final Buffer data, final int bytesPerElement) {
+        data.position(0);
+        final int size = data.limit() * bytesPerElement;
+
+        if (byteOffset + size > byteCount) {
+            throw new RuntimeException("Tried to write " + size + " bytes at offset " + byteOffset + " into a buffer of " + byteCount + " bytes.");
+        }
+
+        bind();
+        GLES20.glBufferSubData(target, byteOffset, size, data);
+    }
+
+    /**
+     * Returns the size of this buffer's contents, in bytes.
+     */
+    public int getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Bind this buffer to its target, so that vertex pointers or element draws read from it.
+     */
+    @Override
+    public void bind() {
+        GLState.bindBuffer(target, handle);
+    }
+
+    /**
+     * Unbind this buffer, so that vertex pointers and element draws read from client memory again.
+     */
+    @Override
+    public void unbind() {
+        if (GLState.getBuffer(target) == handle) {
+            GLState.bindBuffer(target, 0);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        GLES20.glDeleteBuffers(1, new int[]{handle}, 0);
+        GLState.forgetBuffer(handle);
+    }
+
+    /**
+     * The usage hint given to OpenGL, which affects where the driver stores the buffer.
+     */
+    public enum Usage {
+        /**
+         * Contents are set once and drawn many times, e.g. model geometry.
+         */
+        STATIC(GLES20.GL_STATIC_DRAW),
+        /**
+         * Contents are changed repeatedly and drawn many times.
+         */
+        DYNAMIC(GLES20.GL_DYNAMIC_DRAW),
+        /**
+         * Contents are set once and drawn only a few times, e.g. per-frame geometry.
+         */
+        STREAM(GLES20.GL_STREAM_DRAW);
+
+        public final int glValue;
+
+        Usage(final int glValue) {
+            this.glValue = glValue;
+        }
+    }
+}
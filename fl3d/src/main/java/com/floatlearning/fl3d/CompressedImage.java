@@ -0,0 +1,236 @@
+package com.floatlearning.fl3d;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Compressed texture data, read from a PKM or KTX file, ready to be uploaded with glCompressedTexImage2D.
+ * See the Texture constructor which takes a CompressedImage. Pure Java, so files can also be written on a desktop JVM.
+ * Immutable.
+ */
+public class CompressedImage {
+    /**
+     * The size of the image, in pixels.
+     */
+    public final int width;
+    public final int height;
+    /**
+     * The compressed format, e.g. GL_ETC1_RGB8_OES.
+     */
+    public final int internalFormat;
+    /**
+     * The data of each mipmap level, from the full size image down; direct buffers in native order.
+     */
+    private final ByteBuffer[] levels;
+
+    /**
+     * Create a compressed image from data which is already in memory.
+     *
+     * @param width             The width of the image, in pixels.
+     * @param height            The height of the image, in pixels.
+     * @param internalFormat    The compressed format, e.g. GL_ETC1_RGB8_OES.
+     * @param levels            The data of each mipmap level, from the full size image down.
+     */
+    public CompressedImage(final int width, final int height, final int internalFormat, final byte[]... levels) {
+        this.width = width;
+        this.height = height;
+        this.internalFormat = internalFormat;
+        this.levels = new ByteBuffer[levels.length];
+
+        for (int i = 0; i < levels.length; i++) {
+            final ByteBuffer level = ByteBuffer.allocateDirect(levels[i].length).order(ByteOrder.nativeOrder());
+            level.put(levels[i]);
+            level.position(0);
+            this.levels[i] = level;
+        }
+    }
+
+    /**
+     * Read a PKM (ETC1) or KTX file, detected by its header. The stream is read to the end but not closed.
+     *
+     * @param inputStream    The file contents, e.g. from Resources.openRawResource().
+     * @return  The image.
+     */
+    public static CompressedImage read(final InputStream inputStream) {
+        final byte[] bytes;
+
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] chunk = new byte[16384];
+            int read;
+
+            while ((read = inputStream.read(chunk)) != -1) {
+                out.write(chunk, 0, read);
+            }
+
+            bytes = out.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read compressed image: " + e.toString());
+        }
+
+        if (startsWith(bytes, PKM_MAGIC)) {
+            return readPKM(bytes);
+        } else if (startsWith(bytes, KTX_MAGIC)) {
+            return readKTX(bytes);
+        }
+
+        throw new RuntimeException("Compressed image is neither PKM nor KTX");
+    }
+
+    /**
+     * Write ETC1 data as a PKM file, which read() can load.
+     *
+     * @param outputStream    Where to write the file; not closed.
+     * @param etc1            The ETC1 blocks, as from ETC1Encoder.encode().
+     * @param width           The width of the image, in pixels.
+     * @param height          The height of the image, in pixels.
+     */
+    public static void writePKM(final OutputStream outputStream, final byte[] etc1, final int width, final int height) {
+        final ByteBuffer header = ByteBuffer.allocate(PKM_HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+
+        header.put(PKM_MAGIC);
+        header.putShort((short) PKM_ETC1_RGB_NO_MIPMAPS);
+        header.putShort((short) ((width + 3) & ~3));
+        header.putShort((short) ((height + 3) & ~3));
+        header.putShort((short) width);
+        header.putShort((short) height);
+
+        try {
+            outputStream.write(header.array());
+            outputStream.write(etc1);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write PKM file: " + e.toString());
+        }
+    }
+
+    /**
+     * Returns the number of mipmap levels, which is one if the image has no mipmaps.
+     */
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    /**
+     * Returns the data of one mipmap level, with its position at zero.
+     *
+     * @param level    The level, where zero is the full size image.
+     */
+    public ByteBuffer getLevel(final int level) {
+        levels[level].position(0);
+        return levels[level];
+    }
+
+    /**
+     * Returns the total size of the compressed data, in bytes, which is about how much GPU memory it uses.
+     */
+    public int getByteCount() {
+        int total = 0;
+
+        for (ByteBuffer level : levels) {
+            total += level.capacity();
+        }
+
+        return total;
+    }
+
+    /**
+     * Internal method to parse a PKM file: a 16 byte big-endian header followed by one level of ETC1 blocks.
+     */
+    private static CompressedImage readPKM(final byte[] bytes) {
+        final ByteBuffer in = ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN);
+        in.position(PKM_MAGIC.length);
+
+        final int type = in.getShort() & 0xFFFF;
+        final int paddedWidth = in.getShort() & 0xFFFF;
+        final int paddedHeight = in.getShort() & 0xFFFF;
+        final int width = in.getShort() & 0xFFFF;
+        final int height = in.getShort() & 0xFFFF;
+        final int size = ETC1Encoder.getEncodedSize(paddedWidth, paddedHeight);
+
+        if (type != PKM_ETC1_RGB_NO_MIPMAPS || bytes.length < PKM_HEADER_SIZE + size) {
+            throw new RuntimeException("Unsupported or truncated PKM file");
+        }
+
+        final byte[] level = new byte[size];
+        in.get(level);
+
+        return new CompressedImage(width, height, GL_ETC1_RGB8_OES, level);
+    }
+
+    /**
+     * Internal method to parse a KTX 1.1 file containing a single 2D texture, with any number of mipmap levels.
+     */
+    private static CompressedImage readKTX(final byte[] bytes) {
+        final ByteBuffer in = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        in.position(KTX_MAGIC.length);
+
+        // the writer's byte order is recorded so that it can be detected
+        if (in.getInt() != KTX_ENDIANNESS) {
+            in.order(ByteOrder.BIG_ENDIAN);
+        }
+
+        final int glType = in.getInt();
+        in.getInt(); // glTypeSize
+        in.getInt(); // glFormat
+        final int internalFormat = in.getInt();
+        in.getInt(); // glBaseInternalFormat
+        final int width = in.getInt();
+        final int height = in.getInt();
+        final int depth = in.getInt();
+        final int arrayElements = in.getInt();
+        final int faces = in.getInt();
+        final int levelCount = Math.max(1, in.getInt());
+        final int keyValueBytes = in.getInt();
+
+        if (glType != 0 || depth > 1 || arrayElements > 0 || faces != 1) {
+            throw new RuntimeException("Only compressed 2D KTX textures are supported");
+        }
+
+        in.position(in.position() + keyValueBytes);
+
+        final byte[][] levels = new byte[levelCount][];
+
+        for (int i = 0; i < levelCount; i++) {
+            final int size = in.getInt();
+            levels[i] = new byte[size];
+            in.get(levels[i]);
+
+            // each level is padded to four bytes
+            in.position((in.position() + 3) & ~3);
+        }
+
+        return new CompressedImage(width, height, internalFormat, levels);
+    }
+
+    private static boolean startsWith(final byte[] bytes, final byte[] prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // The OpenGL format of ETC1 data, from the OES_compressed_ETC1_RGB8_texture extension.
+    public static final int GL_ETC1_RGB8_OES = 0x8D64;
+
+    // "PKM 10", the PKM version 1.0 identifier.
+    private static final byte[] PKM_MAGIC = { 'P', 'K', 'M', ' ', '1', '0' };
+    private static final int PKM_HEADER_SIZE = 16;
+    private static final int PKM_ETC1_RGB_NO_MIPMAPS = 0;
+
+    // "\xABKTX 11\xBB\r\n\x1A\n", the KTX 1.1 identifier.
+    private static final byte[] KTX_MAGIC = {
+            (byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'
+    };
+    private static final int KTX_ENDIANNESS = 0x04030201;
+}
@@ -3,10 +3,12 @@ package com.floatlearning.fl3d;
 import android.graphics.Bitmap;
 import android.opengl.GLES20;
 
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 
 /**
  * Storage for general-use, utility methods.
@@ -28,6 +30,15 @@ public class Core {
         return maxTexSize[0];
     }
 
+    /**
+     * Returns the number of vec4 uniforms a fragment shader can use on this device; at least 16 in OpenGL ES 2.0.
+     */
+    public static int getMaxFragmentUniformVectors() {
+        int[] maxVectors = new int[1];
+        GLES20.glGetIntegerv(GLES20.GL_MAX_FRAGMENT_UNIFORM_VECTORS, maxVectors, 0);
+        return maxVectors[0];
+    }
+
     /**
      * Returns the currently displayed pixels in a given region, as a Bitmap.
      *
@@ -38,37 +49,50 @@ public class Core {
      * @return  A new Bitmap generated from the current OpenGL rendered view.
      */
     public static Bitmap getRenderedBitmap(final int x, final int y, final int width, final int height) {
-        return Bitmap.createBitmap(getRenderedPixels(x, y, width, height), width, height, Bitmap.Config.ARGB_8888);
-    }
-
-    // wrapper for `glReadPixels`, used by FrameProvider
-    static void readRenderedPixels(final int x, final int y, final int width, final int height, final IntBuffer intBuffer) {
-        GLES20.glReadPixels(x, y, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, intBuffer);
+        final int[] pixels = PixelConverter.obtain(width * height);
+
+        try {
+            getRenderedPixels(x, y, width, height, pixels);
+            return Bitmap.createBitmap(pixels, 0, width, width, height, Bitmap.Config.ARGB_8888);
+        } finally {
+            // the bitmap has its own copy
+            PixelConverter.recycle(pixels);
+        }
     }
 
-    // reads pixels but performs some post-processing to fix issues
-    private static int[] getRenderedPixels(final int x, final int y, final int width, final int height) {
-        int[] result = new int[width * height];
-        final IntBuffer intBuffer = IntBuffer.wrap(result);
-        readRenderedPixels(x, y, width, height, intBuffer);
-
-        intBuffer.clear();
+    /**
+     * Reads the currently displayed pixels in a given region as ARGB colors, top row first, as Bitmap expects.
+     *
+     * @param x         The x coordinate of the region to read, in screen pixels.
+     * @param y         The y coordinate of the region to read, in screen pixels.
+     * @param width     The width of the region to read, in screen pixels.
+     * @param height    The height of the region to read, in screen pixels.
+     * @param argb      Receives the pixels; must hold at least width * height.
+     */
+    public static void getRenderedPixels(final int x, final int y, final int width, final int height, final int[] argb) {
+        readRenderedPixels(x, y, width, height, IntBuffer.wrap(argb));
 
-        // Red and blue channels need to be swapped
-        // TODO: is there a more efficient way to do this?
-        for(int i = 0; i < result.length; i++) {
-            result[i] = (result[i] & (0xFF00FF00)) | ((result[i] >> 16) & 0x000000FF) | ((result[i] << 16) & 0x00FF0000);
-        }
+        // OpenGL returns RGBA with the bottom row first
+        PixelConverter.rgbaToArgbInPlace(argb, width, height, true);
+    }
 
-        // images tend to be upside down; fix that
-        // TODO: why is this?
-        for(int i = 0; i < result.length / 2; i++) {
-            int temp = result[i];
-            result[i] = result[result.length - i - 1];
-            result[result.length - i - 1] = temp;
-        }
+    /**
+     * Reads the currently displayed pixels in a given region without converting them, so that the conversion can be done
+     * later on another thread with PixelConverter.rgbaToArgbInPlace(rgba, width, height, true).
+     *
+     * @param x         The x coordinate of the region to read, in screen pixels.
+     * @param y         The y coordinate of the region to read, in screen pixels.
+     * @param width     The width of the region to read, in screen pixels.
+     * @param height    The height of the region to read, in screen pixels.
+     * @param rgba      Receives the pixels as OpenGL returns them, 0xAABBGGRR with the bottom row first.
+     */
+    public static void readRenderedPixels(final int x, final int y, final int width, final int height, final int[] rgba) {
+        readRenderedPixels(x, y, width, height, IntBuffer.wrap(rgba));
+    }
 
-        return result;
+    // wrapper for `glReadPixels`, used by FrameProvider
+    static void readRenderedPixels(final int x, final int y, final int width, final int height, final Buffer buffer) {
+        GLES20.glReadPixels(x, y, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, buffer);
     }
 
     /**
@@ -88,6 +112,38 @@ public class Core {
         return output;
     }
 
+    /**
+     * Create a short buffer from the given short array, such as mesh indices.
+     *
+     * @param input    The short values that will define the contents of the short buffer.
+     * @return  A new ShortBuffer object.
+     */
+    public static ShortBuffer arrayAsBuffer(final short... input) {
+        ByteBuffer bb = ByteBuffer.allocateDirect(input.length * 2);
+        bb.order(ByteOrder.nativeOrder());
+
+        ShortBuffer output = bb.asShortBuffer();
+        output.put(input);
+        output.position(0);
+
+        return output;
+    }
+
+    /**
+     * Create a byte buffer from the given byte array, such as mesh indices.
+     *
+     * @param input    The byte values that will define the contents of the byte buffer.
+     * @return  A new ByteBuffer object.
+     */
+    public static ByteBuffer arrayAsBuffer(final byte... input) {
+        ByteBuffer output = ByteBuffer.allocateDirect(input.length);
+        output.order(ByteOrder.nativeOrder());
+        output.put(input);
+        output.position(0);
+
+        return output;
+    }
+
     /**
      * Returns documentation on the current OpenGL error, from the OpenGL docs.
      * Returns null if no error exists.
@@ -0,0 +1,323 @@
+package com.floatlearning.fl3d;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Compresses images to ETC1, which every OpenGL ES 2.0 device on Android can sample directly at 4 bits per pixel.
+ * Pure Java with no OpenGL or Android dependencies, so it can also run on a desktop JVM as an asset build step;
+ * see CompressedImage.writePKM() to save the result, and ETC1Tool to compress files from the command line.
+ *
+ * Each 4x4 block is encoded independently: both sub-block orientations and both base color modes are tried, with every
+ * modifier table, and the combination with the least squared error is kept. ETC1 has no alpha, so alpha is ignored.
+ */
+public class ETC1Encoder {
+    /**
+     * Returns the size of the ETC1 data for an image, in bytes. Partial blocks at the edges are rounded up.
+     *
+     * @param width     The width of the image, in pixels.
+     * @param height    The height of the image, in pixels.
+     */
+    public static int getEncodedSize(final int width, final int height) {
+        return blocks(width) * blocks(height) * BYTES_PER_BLOCK;
+    }
+
+    /**
+     * Compress an image on the calling thread.
+     *
+     * @param pixels    The image as ARGB pixels, row by row from the top, as from Bitmap.getPixels().
+     * @param width     The width of the image, in pixels.
+     * @param height    The height of the image, in pixels.
+     * @return  The ETC1 blocks, row by row from the top; see getEncodedSize().
+     */
+    public static byte[] encode(final int[] pixels, final int width, final int height) {
+        final byte[] out = new byte[getEncodedSize(width, height)];
+        encodeRows(pixels, width, height, out, 0, blocks(height));
+        return out;
+    }
+
+    /**
+     * Compress an image, splitting the rows of blocks into bands which are encoded in parallel. Blocks don't depend
+     * on each other, so the result is identical to encoding on one thread.
+     *
+     * @param pixels      The image as ARGB pixels, row by row from the top, as from Bitmap.getPixels().
+     * @param width       The width of the image, in pixels.
+     * @param height      The height of the image, in pixels.
+     * @param executor    The threads to encode with; this call waits until every band is done.
+     * @param bands       The number of pieces to split the work into, usually the number of threads.
+     * @return  The ETC1 blocks, row by row from the top; see getEncodedSize().
+     */
+    public static byte[] encode(final int[] pixels, final int width, final int height, final ExecutorService executor, final int bands) {
+        final byte[] out = new byte[getEncodedSize(width, height)];
+        final int blockRows = blocks(height);
+        final int count = Math.max(1, Math.min(bands, blockRows));
+        final ArrayList<Future<Void>> results = new ArrayList<Future<Void>>(count);
+
+        for (int i = 0; i < count; i++) {
+            final int first = blockRows * i / count;
+            final int last = blockRows * (i + 1) / count;
+
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    encodeRows(pixels, width, height, out, first, last);
+                    return null;
+                }
+            }));
+        }
+
+        try {
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while encoding ETC1 image");
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to encode ETC1 image: " + e.getCause());
+        }
+
+        return out;
+    }
+
+    /**
+     * Compress one 4x4 block.
+     *
+     * @param block     16 ARGB pixels, row by row from the top left.
+     * @param out       The array to write the 8 byte block into.
+     * @param offset    The index in the output array to start writing at.
+     */
+    public static void encodeBlock(final int[] block, final byte[] out, final int offset) {
+        encodeBlock(block, out, offset, new long[2]);
+    }
+
+    /**
+     * Compress one 4x4 block, using the given scratch space instead of allocating.
+     */
+    private static void encodeBlock(final int[] block, final byte[] out, final int offset, final long[] result) {
+        long best = 0;
+        long bestError = Long.MAX_VALUE;
+
+        for (int flip = 0; flip < 2; flip++) {
+            // sums of each color channel in each sub-block
+            int r0 = 0, g0 = 0, b0 = 0, r1 = 0, g1 = 0, b1 = 0;
+
+            for (int i = 0; i < 16; i++) {
+                final int c = block[i];
+
+                if (isSecondSubBlock(i, flip)) {
+                    r1 += (c >> 16) & 0xFF;
+                    g1 += (c >> 8) & 0xFF;
+                    b1 += c & 0xFF;
+                } else {
+                    r0 += (c >> 16) & 0xFF;
+                    g0 += (c >> 8) & 0xFF;
+                    b0 += c & 0xFF;
+                }
+            }
+
+            // differential mode: 5-bit base colors, with the second stored as an offset of -4 to 3 from the first
+            final int dr1 = quantize(r0, 31);
+            final int dg1 = quantize(g0, 31);
+            final int db1 = quantize(b0, 31);
+            final int dr = quantize(r1, 31) - dr1;
+            final int dg = quantize(g1, 31) - dg1;
+            final int db = quantize(b1, 31) - db1;
+
+            if (dr >= -4 && dr <= 3 && dg >= -4 && dg <= 3 && db >= -4 && db <= 3) {
+                final long header = ((long) dr1 << 59) | ((long) (dr & 7) << 56) | ((long) dg1 << 51) | ((long) (dg & 7) << 48)
+                        | ((long) db1 << 43) | ((long) (db & 7) << 40) | DIFF_BIT | ((long) flip << 32);
+                encodeSubBlocks(block, flip, header, result,
+                        expand5(dr1), expand5(dg1), expand5(db1), expand5(dr1 + dr), expand5(dg1 + dg), expand5(db1 + db));
+
+                if (result[1] < bestError) {
+                    best = result[0];
+                    bestError = result[1];
+                }
+            }
+
+            // individual mode: two independent 4-bit base colors
+            final int ir1 = quantize(r0, 15);
+            final int ig1 = quantize(g0, 15);
+            final int ib1 = quantize(b0, 15);
+            final int ir2 = quantize(r1, 15);
+            final int ig2 = quantize(g1, 15);
+            final int ib2 = quantize(b1, 15);
+            final long header = ((long) ir1 << 60) | ((long) ir2 << 56) | ((long) ig1 << 52) | ((long) ig2 << 48)
+                    | ((long) ib1 << 44) | ((long) ib2 << 40) | ((long) flip << 32);
+            encodeSubBlocks(block, flip, header, result,
+                    expand4(ir1), expand4(ig1), expand4(ib1), expand4(ir2), expand4(ig2), expand4(ib2));
+
+            if (result[1] < bestError) {
+                best = result[0];
+                bestError = result[1];
+            }
+        }
+
+        for (int i = 0; i < BYTES_PER_BLOCK; i++) {
+            out[offset + i] = (byte) (best >>> (56 - 8 * i));
+        }
+    }
+
+    /**
+     * Internal method to encode the blocks in the given rows of blocks, clamping partial blocks to the image edges.
+     */
+    private static void encodeRows(final int[] pixels, final int width, final int height, final byte[] out,
+                                   final int firstBlockRow, final int lastBlockRow) {
+        final int blocksWide = blocks(width);
+        final int[] block = new int[16];
+        final long[] result = new long[2];
+
+        for (int by = firstBlockRow; by < lastBlockRow; by++) {
+            for (int bx = 0; bx < blocksWide; bx++) {
+                for (int y = 0; y < 4; y++) {
+                    final int row = Math.min(by * 4 + y, height - 1) * width;
+
+                    for (int x = 0; x < 4; x++) {
+                        block[y * 4 + x] = pixels[row + Math.min(bx * 4 + x, width - 1)];
+                    }
+                }
+
+                encodeBlock(block, out, (by * blocksWide + bx) * BYTES_PER_BLOCK, result);
+            }
+        }
+    }
+
+    /**
+     * Internal method to choose the best modifier table for each sub-block and fill in the pixel indices.
+     *
+     * The encoded block and its total squared error are written to result[0] and result[1].
+     */
+    private static void encodeSubBlocks(final int[] block, final int flip, final long header, final long[] result,
+                                          final int r0, final int g0, final int b0, final int r1, final int g1, final int b1) {
+        final int table0 = bestTable(block, flip, false, r0, g0, b0);
+        final int table1 = bestTable(block, flip, true, r1, g1, b1);
+        long bits = header | ((long) table0 << 37) | ((long) table1 << 34);
+        long error = 0;
+
+        for (int i = 0; i < 16; i++) {
+            final boolean second = isSecondSubBlock(i, flip);
+            final int[] modifiers = MODIFIERS[second ? table1 : table0];
+            final int r = second ? r1 : r0;
+            final int g = second ? g1 : g0;
+            final int b = second ? b1 : b0;
+
+            int bestIndex = 0;
+            int bestPixelError = Integer.MAX_VALUE;
+
+            for (int m = 0; m < 4; m++) {
+                final int e = pixelError(block[i], r + modifiers[m], g + modifiers[m], b + modifiers[m]);
+
+                if (e < bestPixelError) {
+                    bestIndex = m;
+                    bestPixelError = e;
+                }
+            }
+
+            // pixel indices are stored column by column, as two bit planes
+            final int bit = (i & 3) * 4 + (i >> 2);
+            bits |= (long) (bestIndex >> 1) << (bit + 16);
+            bits |= (long) (bestIndex & 1) << bit;
+            error += bestPixelError;
+        }
+
+        result[0] = bits;
+        result[1] = error;
+    }
+
+    /**
+     * Internal method to find the modifier table with the least error for one sub-block and base color.
+     */
+    private static int bestTable(final int[] block, final int flip, final boolean second, final int r, final int g, final int b) {
+        int bestTable = 0;
+        int bestError = Integer.MAX_VALUE;
+
+        for (int t = 0; t < MODIFIERS.length; t++) {
+            final int[] modifiers = MODIFIERS[t];
+            int error = 0;
+
+            for (int i = 0; i < 16; i++) {
+                if (isSecondSubBlock(i, flip) != second) {
+                    continue;
+                }
+
+                int pixelBest = Integer.MAX_VALUE;
+
+                for (int m = 0; m < 4; m++) {
+                    pixelBest = Math.min(pixelBest, pixelError(block[i], r + modifiers[m], g + modifiers[m], b + modifiers[m]));
+                }
+
+                error += pixelBest;
+            }
+
+            if (error < bestError) {
+                bestTable = t;
+                bestError = error;
+            }
+        }
+
+        return bestTable;
+    }
+
+    /**
+     * Returns the squared error between a pixel and a color, after clamping the color as the decoder does.
+     */
+    private static int pixelError(final int pixel, final int r, final int g, final int b) {
+        final int dr = ((pixel >> 16) & 0xFF) - clamp(r);
+        final int dg = ((pixel >> 8) & 0xFF) - clamp(g);
+        final int db = (pixel & 0xFF) - clamp(b);
+        return dr * dr + dg * dg + db * db;
+    }
+
+    /**
+     * Returns whether a pixel, by its index row by row, is in the second sub-block: the right half, or the bottom
+     * half when flipped.
+     */
+    private static boolean isSecondSubBlock(final int i, final int flip) {
+        return flip == 0 ? (i & 3) >= 2 : i >= 8;
+    }
+
+    /**
+     * Returns the average of 8 channel values, quantized to the given maximum.
+     */
+    private static int quantize(final int sum, final int max) {
+        return (sum * max + 255 * 4) / (255 * 8);
+    }
+
+    private static int expand4(final int value) {
+        return (value << 4) | value;
+    }
+
+    private static int expand5(final int value) {
+        return (value << 3) | (value >> 2);
+    }
+
+    private static int clamp(final int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    private static int blocks(final int pixels) {
+        return (pixels + 3) / 4;
+    }
+
+    // The size of one compressed 4x4 block.
+    public static final int BYTES_PER_BLOCK = 8;
+
+    // Set when the second base color is stored as an offset from the first.
+    private static final long DIFF_BIT = 1L << 33;
+
+    // The intensity modifiers of each table, in the order of the 2-bit pixel index values.
+    private static final int[][] MODIFIERS = {
+            { 2, 8, -2, -8 },
+            { 5, 17, -5, -17 },
+            { 9, 29, -9, -29 },
+            { 13, 42, -13, -42 },
+            { 18, 60, -18, -60 },
+            { 24, 80, -24, -80 },
+            { 33, 106, -33, -106 },
+            { 47, 183, -47, -183 }
+    };
+}
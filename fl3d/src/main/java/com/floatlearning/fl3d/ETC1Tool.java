@@ -0,0 +1,172 @@
+package com.floatlearning.fl3d;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Command line entry point which compresses an image to a PKM file with ETC1Encoder, for running on a desktop JVM as an
+ * asset build step:
+ *
+ *     java -cp fl3d/build/intermediates/classes/release com.floatlearning.fl3d.ETC1Tool input.ppm output.pkm [threads]
+ *
+ * The input is a binary PPM (P6), which most image tools can write, e.g. "convert texture.png texture.ppm" with
+ * ImageMagick. Formats such as PNG would need javax.imageio, which isn't available on Android, where this class is built.
+ */
+public class ETC1Tool {
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            throw new RuntimeException("Usage: ETC1Tool input.ppm output.pkm [threads]");
+        }
+
+        final int threads = args.length == 3 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        final InputStream in = new BufferedInputStream(new FileInputStream(args[0]));
+
+        try {
+            final OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]));
+
+            try {
+                compress(in, out, threads);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Compress a PPM image to a PKM file. Neither stream is closed.
+     *
+     * @param in         The PPM file.
+     * @param out        Where to write the PKM file.
+     * @param threads    The number of threads to encode with.
+     */
+    public static void compress(final InputStream in, final OutputStream out, final int threads) throws IOException {
+        final Image image = readPPM(in);
+        final byte[] etc1;
+
+        if (threads > 1) {
+            final ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+            try {
+                etc1 = ETC1Encoder.encode(image.pixels, image.width, image.height, executor, threads);
+            } finally {
+                executor.shutdown();
+            }
+        } else {
+            etc1 = ETC1Encoder.encode(image.pixels, image.width, image.height);
+        }
+
+        CompressedImage.writePKM(out, etc1, image.width, image.height);
+    }
+
+    /**
+     * Read a binary PPM (P6) image, with any maximum channel value up to 255.
+     *
+     * @param in    The PPM file; read up to the end of the pixels.
+     * @return  The image as opaque ARGB pixels, row by row from the top.
+     */
+    public static Image readPPM(final InputStream in) throws IOException {
+        if (in.read() != 'P' || in.read() != '6') {
+            throw new IOException("Not a binary PPM (P6) file");
+        }
+
+        final int width = readHeaderValue(in);
+        final int height = readHeaderValue(in);
+        final int maxValue = readHeaderValue(in);
+
+        if (width <= 0 || height <= 0 || maxValue <= 0 || maxValue > 255) {
+            throw new IOException("Unsupported PPM: " + width + "x" + height + " with a maximum value of " + maxValue);
+        }
+
+        final int[] pixels = new int[width * height];
+        final byte[] row = new byte[width * 3];
+
+        for (int y = 0; y < height; y++) {
+            readFully(in, row);
+
+            for (int x = 0; x < width; x++) {
+                final int r = scale(row[x * 3] & 0xFF, maxValue);
+                final int g = scale(row[x * 3 + 1] & 0xFF, maxValue);
+                final int b = scale(row[x * 3 + 2] & 0xFF, maxValue);
+                pixels[y * width + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+
+        return new Image(width, height, pixels);
+    }
+
+    /**
+     * Internal method to read a number from a PPM header, skipping whitespace and comments before it and the single
+     * whitespace character after it.
+     */
+    private static int readHeaderValue(final InputStream in) throws IOException {
+        int c = in.read();
+
+        while (c == '#' || Character.isWhitespace(c)) {
+            if (c == '#') {
+                while (c != '\n' && c != -1) {
+                    c = in.read();
+                }
+            }
+
+            c = in.read();
+        }
+
+        if (c < '0' || c > '9') {
+            throw new IOException("Malformed PPM header");
+        }
+
+        int value = 0;
+
+        while (c >= '0' && c <= '9') {
+            value = value * 10 + (c - '0');
+            c = in.read();
+        }
+
+        return value;
+    }
+
+    private static void readFully(final InputStream in, final byte[] buffer) throws IOException {
+        int offset = 0;
+
+        while (offset < buffer.length) {
+            final int read = in.read(buffer, offset, buffer.length - offset);
+
+            if (read == -1) {
+                throw new IOException("Truncated PPM file");
+            }
+
+            offset += read;
+        }
+    }
+
+    private static int scale(final int value, final int maxValue) {
+        return maxValue == 255 ? value : (value * 255 + maxValue / 2) / maxValue;
+    }
+
+    /**
+     * An uncompressed image read by readPPM().
+     */
+    public static class Image {
+        public final int width;
+        public final int height;
+        /**
+         * Opaque ARGB pixels, row by row from the top, as ETC1Encoder.encode() expects.
+         */
+        public final int[] pixels;
+
+        Image(final int width, final int height, final int[] pixels) {
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+        }
+    }
+}
@@ -47,12 +47,18 @@ public class ExternalTexture extends Texture {
         surface.updateTexImage();
 
         // find the handle for the texture coordinates in the given program
-        final int texCoordHandle = GLES20.glGetAttribLocation(program.handle, A_TEX_COORD);
+        final int texCoordHandle = program.getAttribLocation(A_TEX_COORD);
 
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GL_TEXTURE_EXTERNAL_OES, handle);
-        GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false, 8, texBuffer);
-        GLES20.glEnableVertexAttribArray(texCoordHandle);
+        GLState.bindTexture(0, GL_TEXTURE_EXTERNAL_OES, handle);
+        setTexCoords(program, texCoordHandle);
+    }
+
+    /**
+     * External textures are bound to GL_TEXTURE_EXTERNAL_OES rather than GLES20.GL_TEXTURE_2D.
+     */
+    @Override
+    public int getTarget() {
+        return GL_TEXTURE_EXTERNAL_OES;
     }
 
     /**
@@ -60,7 +66,7 @@ public class ExternalTexture extends Texture {
      */
     @Override
     public void cleanup(final Program program) {
-        GLES20.glBindTexture(GL_TEXTURE_EXTERNAL_OES, 0);
+        GLState.bindTexture(GL_TEXTURE_EXTERNAL_OES, 0);
     }
 
     @Override
@@ -82,18 +88,18 @@ public class ExternalTexture extends Texture {
             throw new RuntimeException("Could not generate texture handle");
         }
 
-        GLES20.glBindTexture(GL_TEXTURE_EXTERNAL_OES, texture[0]);
+        GLState.bindTexture(GL_TEXTURE_EXTERNAL_OES, texture[0]);
 
         GLES20.glTexParameteri(GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
         GLES20.glTexParameteri(GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
         GLES20.glTexParameterf(GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
         GLES20.glTexParameterf(GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
 
-        GLES20.glBindTexture(GL_TEXTURE_EXTERNAL_OES, 0);
+        GLState.bindTexture(GL_TEXTURE_EXTERNAL_OES, 0);
 
         return texture[0];
     }
 
     // This is equivalent to GLES11Ext.GL_TEXTURE_EXTERNAL_OES, but that call requires a higher API level.
-    private static final int GL_TEXTURE_EXTERNAL_OES = 0x8D65;
+    static final int GL_TEXTURE_EXTERNAL_OES = 0x8D65;
 }
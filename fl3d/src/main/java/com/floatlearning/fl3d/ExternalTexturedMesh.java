@@ -38,6 +38,15 @@ public class ExternalTexturedMesh extends Mesh {
         texture.setOnFrameAvailableListener(listener);
     }
 
+    /**
+     * Upload this mesh's vertices and its texture's coordinates into GPU buffer objects.
+     */
+    @Override
+    public void upload(final BufferObject.Usage usage) {
+        super.upload(usage);
+        texture.upload(usage);
+    }
+
     /**
      * Prepare the texture for drawing, then draw this mesh.
      */
@@ -1,13 +1,15 @@
 package com.floatlearning.fl3d;
 
 import android.content.Context;
-import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.util.Log;
 
 import com.floatlearning.fl3d.interfaces.Drawable;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -21,17 +23,28 @@ public abstract class FL3DSurfaceView extends GLSurfaceView implements GLSurface
      */
     public Program program;
     /**
-     * Storage for drawable objects.
+     * Storage for drawable objects. The array is never modified once published; add() and remove() replace it,
+     * so the GL thread can draw from it without ever waiting on the UI thread.
      */
-    public final ArrayList<Drawable> drawables = new ArrayList<Drawable>();
+    private final AtomicReference<Drawable[]> drawables = new AtomicReference<Drawable[]>(NO_DRAWABLES);
     /**
-     * Prevent errors when trying to draw after calling dispose() in another thread.
+     * The drawables taken at the start of the current frame, so that draw() and cleanup() see the same objects.
+     * Only used on the GL thread.
      */
-    private boolean disposing = false;
+    private Drawable[] frameDrawables = NO_DRAWABLES;
     /**
-     * Used to lock the drawable list when accessing.
+     * Draws submitted for the current frame, which are sorted to minimize state changes and drawn by endFrame(), after
+     * the drawables. Must only be used on the GL thread, e.g. from create() or an onDrawFrame() override.
      */
-    private final Object memberLock = new Object();
+    public final RenderQueue renderQueue = new RenderQueue();
+    /**
+     * Uploads textures loaded in the background at the start of each frame, if set.
+     */
+    private volatile TextureLoader textureLoader;
+    /**
+     * Stops drawing once dispose() has been called in another thread, until the GL thread deletes everything.
+     */
+    private volatile boolean disposing = false;
     /**
      * Width of this view, as set in onSurfaceChanged.
      */
@@ -66,9 +79,14 @@ public abstract class FL3DSurfaceView extends GLSurfaceView implements GLSurface
      * @return  This surface view.
      */
     public final FL3DSurfaceView add(final Drawable drawable) {
-        synchronized (memberLock) {
-            drawables.add(drawable);
-        }
+        Drawable[] current;
+        Drawable[] next;
+
+        do {
+            current = drawables.get();
+            next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = drawable;
+        } while (!drawables.compareAndSet(current, next));
 
         return this;
     }
@@ -80,13 +98,32 @@ public abstract class FL3DSurfaceView extends GLSurfaceView implements GLSurface
      * @return  This surface view.
      */
     public final FL3DSurfaceView remove(final Drawable drawable) {
-        synchronized (memberLock) {
-            drawables.remove(drawable);
-        }
+        Drawable[] current;
+        Drawable[] next;
+
+        do {
+            current = drawables.get();
+            final int index = Arrays.asList(current).indexOf(drawable);
+
+            if (index < 0) {
+                return this;
+            }
+
+            next = new Drawable[current.length - 1];
+            System.arraycopy(current, 0, next, 0, index);
+            System.arraycopy(current, index + 1, next, index, next.length - index);
+        } while (!drawables.compareAndSet(current, next));
 
         return this;
     }
 
+    /**
+     * Returns the objects currently drawn by this view, in drawing order. The list can't be modified.
+     */
+    public final List<Drawable> getDrawables() {
+        return Collections.unmodifiableList(Arrays.asList(drawables.get()));
+    }
+
     /**
      * Override to define Meshes and Textures to be created and rendered later.
      */
@@ -94,33 +131,59 @@ public abstract class FL3DSurfaceView extends GLSurfaceView implements GLSurface
 
     @Override
     public void draw(final Program program) {
-        synchronized (memberLock) {
-            for (Drawable d : drawables) {
-                d.draw(program);
-            }
+        // take the latest published drawables; changes made after this point apply from the next frame
+        frameDrawables = drawables.get();
+
+        for (Drawable d : frameDrawables) {
+            d.draw(program);
         }
     }
 
     @Override
     public void cleanup(final Program program) {
-        synchronized (memberLock) {
-            for (Drawable d : drawables) {
-                d.cleanup(program);
-            }
+        for (Drawable d : frameDrawables) {
+            d.cleanup(program);
         }
     }
 
+    /**
+     * Stop drawing, and delete this view's OpenGL objects on the GL thread before the next frame. They can't be deleted
+     * here, since the GL thread may be drawing with them; if the GL thread has already stopped, its context is gone
+     * and the objects with it.
+     */
     @Override
     public void dispose() {
         disposing = true;
 
-        program.dispose();
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                disposeGL();
+            }
+        });
+    }
+
+    /**
+     * Delete this view's OpenGL objects. Called on the GL thread between frames, once dispose() has been called;
+     * overrides must call this method too.
+     */
+    protected void disposeGL() {
+        program = Disposer.dispose(program);
+        frameDrawables = NO_DRAWABLES;
+        renderQueue.clear();
 
-        for (Drawable d : drawables) {
+        for (Drawable d : drawables.getAndSet(NO_DRAWABLES)) {
             d.dispose();
         }
+    }
 
-        drawables.clear();
+    /**
+     * Set a texture loader whose uploads are processed at the start of every frame. May be called from any thread.
+     *
+     * @param textureLoader    The loader to process, or null to stop processing.
+     */
+    public void setTextureLoader(final TextureLoader textureLoader) {
+        this.textureLoader = textureLoader;
     }
 
     /**
@@ -132,11 +195,15 @@ public abstract class FL3DSurfaceView extends GLSurfaceView implements GLSurface
             Log.i(TAG, "Initializing FL3DSurfaceView with " + Core.getGLSLVersion() + ", Max texture size " + Core.getMaxTextureSize());
         }
 
+        // this is a new context, so nothing set before now is still valid
+        GLState.reset();
+        ShaderRegistry.reset();
+
         // set clear color to black
-        GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+        GLState.clearColor(0.0f, 0.0f, 0.0f, 1.0f);
 
         // create a very simple program for the "base" rendering
-        program = new Program(getResources(), R.raw.fragment, R.raw.vertex);
+        program = ShaderRegistry.acquireProgram(getResources(), R.raw.fragment, R.raw.vertex);
 
         // call the create method
         create();
@@ -150,24 +217,59 @@ public abstract class FL3DSurfaceView extends GLSurfaceView implements GLSurface
      */
     @Override
     public void onSurfaceChanged(GL10 ignored, int width, int height) {
-        GLES20.glViewport(0, 0, width, height);
+        GLState.viewport(0, 0, width, height);
 
         this.width = width;
         this.height = height;
     }
 
+    /**
+     * Draws the drawables, then the render queue. Overrides which draw differently must call beginFrame() before
+     * drawing and endFrame() after, or the render queue is never drawn and keeps growing.
+     */
     @Override
     public void onDrawFrame(GL10 ignored) {
         if (isDisposing()) {
             return;
         }
 
+        beginFrame();
+
+        // frame buffers set the viewport to their own size when bound, so it's set back for the screen every frame
+        GLState.viewport(0, 0, width, height);
+
         // render all drawables to the screen
         program.bind();
         program.setTexels(width, height);
         draw(program);
         cleanup(program);
         program.unbind();
+
+        endFrame();
+    }
+
+    /**
+     * Prepares for a frame, uploading textures from the texture loader if there is one. Called at the start of
+     * onDrawFrame(), on the GL thread.
+     */
+    protected void beginFrame() {
+        // measure state changes per frame; see GLState.getIssuedCalls() and getSkippedCalls()
+        GLState.resetCounters();
+
+        // upload some of the textures loaded in the background, within the loader's per-frame budget
+        final TextureLoader loader = textureLoader;
+
+        if (loader != null) {
+            loader.processUploads();
+        }
+    }
+
+    /**
+     * Draws everything submitted to the render queue for this frame, in sorted order, and empties it. Leaves the
+     * display bound with the viewport covering it. Called at the end of onDrawFrame(), on the GL thread.
+     */
+    protected void endFrame() {
+        renderQueue.execute(width, height);
     }
 
     /**
@@ -180,4 +282,5 @@ public abstract class FL3DSurfaceView extends GLSurfaceView implements GLSurface
     }
 
     private static final String TAG = FL3DSurfaceView.class.getSimpleName();
+    private static final Drawable[] NO_DRAWABLES = new Drawable[0];
 }
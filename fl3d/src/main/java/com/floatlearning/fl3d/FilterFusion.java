@@ -0,0 +1,174 @@
+package com.floatlearning.fl3d;
+
+import android.content.res.Resources;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Combines a chain of FilterStages into as few passes as possible, each a generated fragment shader that computes every
+ * stage of its group without writing the intermediate results to memory.
+ *
+ * Point stages always fuse. A kernel stage reads the previous stages once per tap, so fusing it multiplies the number of
+ * texture reads of the group by its taps; when that would exceed the limit, a new pass is started instead. On GPUs where
+ * bandwidth rather than arithmetic is the limit, trading a few repeated reads for a whole pass is almost always a win.
+ * If a fused shader fails to compile, such as by exceeding a driver's limits, its stages fall back to separate passes.
+ */
+public class FilterFusion {
+    /**
+     * Build the filters for a chain of stages, to be run in order with TextureFilter.applyChain() or FilterGraph.addChain().
+     *
+     * @param resources     A reference to this application's resources.
+     * @param maxTaps       The most texture reads per pixel a fused pass may make, such as DEFAULT_MAX_TAPS.
+     * @param stages        The stages to apply, in order.
+     * @return  One filter per pass, without targets of their own.
+     */
+    public static TextureFilter[] build(final Resources resources, final int maxTaps, final FilterStage... stages) {
+        final ArrayList<TextureFilter> filters = new ArrayList<TextureFilter>();
+        int start = 0;
+
+        for (int size : plan(maxTaps, stages)) {
+            final FilterStage[] group = new FilterStage[size];
+            System.arraycopy(stages, start, group, 0, size);
+            start += size;
+
+            try {
+                filters.add(create(resources, group));
+            } catch (RuntimeException e) {
+                if (size == 1) {
+                    throw e;
+                }
+
+                Log.w(TAG, "Unable to fuse " + describe(resources, group) + ", using separate passes: " + e.getMessage());
+
+                for (FilterStage stage : group) {
+                    filters.add(create(resources, stage));
+                }
+            }
+        }
+
+        return filters.toArray(new TextureFilter[filters.size()]);
+    }
+
+    /**
+     * Returns the generated fragment shader source for a group of stages run as one pass.
+     *
+     * @param resources     A reference to this application's resources.
+     * @param stages        The stages to apply, in order.
+     */
+    public static String generate(final Resources resources, final FilterStage... stages) {
+        final StringBuilder out = new StringBuilder();
+
+        out.append("// generated by FilterFusion: ").append(describe(resources, stages)).append('\n');
+        out.append(ShaderPreprocessor.process(resources, R.raw.filter_header, null));
+        out.append("\nvec4 fused_at0(vec2 coord) {\n    return texture2D(u_Texture, coord);\n}\n");
+
+        for (int i = 1; i <= stages.length; i++) {
+            final FilterStage stage = stages[i - 1];
+
+            out.append("\n// ").append(resources.getResourceEntryName(stage.resourceId)).append('\n');
+            out.append("#define SAMPLE(coord) fused_at").append(i - 1).append("(coord)\n");
+            out.append("#define apply fused_stage").append(i).append('\n');
+            appendDefines(out, stage.defines, true);
+            out.append(ShaderPreprocessor.process(resources, stage.resourceId, null));
+            appendDefines(out, stage.defines, false);
+            out.append("#undef apply\n#undef SAMPLE\n");
+
+            out.append("vec4 fused_at").append(i).append("(vec2 coord) {\n    return fused_stage").append(i);
+
+            if (stage.kind == FilterStage.Kind.POINT) {
+                out.append("(fused_at").append(i - 1).append("(coord));\n}\n");
+            } else {
+                out.append("(coord);\n}\n");
+            }
+        }
+
+        out.append("\nvoid main() {\n    gl_FragColor = fused_at").append(stages.length).append("(v_TexCoord);\n}\n");
+        return out.toString();
+    }
+
+    /**
+     * Returns how many consecutive stages go into each pass, keeping the texture reads of each pass within the limit.
+     *
+     * @param maxTaps   The most texture reads per pixel a fused pass may make.
+     * @param stages    The stages to apply, in order.
+     */
+    static int[] plan(final int maxTaps, final FilterStage... stages) {
+        final ArrayList<Integer> sizes = new ArrayList<Integer>();
+        int size = 0;
+        int taps = 1;
+
+        for (FilterStage stage : stages) {
+            if (size > 0 && stage.kind == FilterStage.Kind.KERNEL && taps * stage.taps > maxTaps) {
+                sizes.add(size);
+                size = 0;
+                taps = 1;
+            }
+
+            size++;
+            taps *= stage.taps;
+        }
+
+        if (size > 0) {
+            sizes.add(size);
+        }
+
+        final int[] result = new int[sizes.size()];
+
+        for (int i = 0; i < result.length; i++) {
+            result[i] = sizes.get(i);
+        }
+
+        return result;
+    }
+
+    /**
+     * Internal method to create the filter for one pass.
+     */
+    private static TextureFilter create(final Resources resources, final FilterStage... stages) {
+        final Program program = ShaderRegistry.acquireProgram(resources, describe(resources, stages),
+                generate(resources, stages), R.raw.vertex_filter);
+        return new TextureFilter(null, program);
+    }
+
+    /**
+     * Internal method to name a group of stages, such as "stage_grayscale+stage_sobel".
+     */
+    private static String describe(final Resources resources, final FilterStage... stages) {
+        final StringBuilder result = new StringBuilder();
+
+        for (FilterStage stage : stages) {
+            if (result.length() > 0) {
+                result.append('+');
+            }
+
+            result.append(resources.getResourceEntryName(stage.resourceId));
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Internal method to append #define lines for a stage's macros, or the matching #undef lines.
+     */
+    private static void appendDefines(final StringBuilder out, final Map<String, String> defines, final boolean define) {
+        if (defines == null) {
+            return;
+        }
+
+        for (Map.Entry<String, String> entry : defines.entrySet()) {
+            out.append(define ? "#define " : "#undef ").append(entry.getKey());
+
+            if (define && entry.getValue() != null) {
+                out.append(' ').append(entry.getValue());
+            }
+
+            out.append('\n');
+        }
+    }
+
+    // a 3x3 kernel after another 3x3 kernel is 81 reads, so by default only one kernel of that size fuses with point stages
+    public static final int DEFAULT_MAX_TAPS = 16;
+    private static final String TAG = FilterFusion.class.getSimpleName();
+}
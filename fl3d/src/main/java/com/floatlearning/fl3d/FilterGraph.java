@@ -0,0 +1,464 @@
+package com.floatlearning.fl3d;
+
+import android.content.res.Resources;
+
+import com.floatlearning.fl3d.interfaces.Disposable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+/**
+ * A pipeline of texture filters, declared as named nodes and the nodes they read from, instead of wired by hand.
+ *
+ * Sources are textures supplied each frame, such as the camera image; passes are TextureFilters reading from sources or
+ * other passes. When executed, the graph runs its passes in dependency order, skips every pass which no output depends on,
+ * and renders into frame buffers borrowed from a RenderTargetPool. Each intermediate frame buffer is returned as soon as
+ * its last reader has run, so passes whose lifetimes don't overlap share the same memory.
+ *
+ * Each pass renders at its filter's scale of the graph's size (see TextureFilter.setScale()), so analysis passes can
+ * run at half or quarter resolution. Sources are assumed to be the graph's full size. Inputs more than twice the size of
+ * the pass reading them are first halved in steps, so every texel of the input contributes; smaller inputs are
+ * upsampled by linear filtering as they're read.
+ *
+ * Changing the graph or its outputs is cheap: the order is recomputed at the next execute(), so pipelines can be switched
+ * at runtime. The graph owns the filters added to it. Must only be used on the GL thread.
+ */
+public class FilterGraph implements Disposable {
+    /**
+     * Every node, by name, in the order they were added.
+     */
+    private final LinkedHashMap<String, Node> nodes = new LinkedHashMap<String, Node>();
+    /**
+     * The names of the nodes whose results are wanted.
+     */
+    private final ArrayList<String> outputs = new ArrayList<String>();
+    /**
+     * Lends the frame buffers passes render to.
+     */
+    private final RenderTargetPool pool;
+    /**
+     * Halves inputs which are much larger than the pass reading them, or null to sample them directly.
+     */
+    private final TextureFilter downsampler;
+    /**
+     * Frame buffers holding downsampled inputs for the current pass.
+     */
+    private final ArrayList<FrameBuffer> temporaries = new ArrayList<FrameBuffer>();
+    /**
+     * The full size of the graph; passes render at their filter's scale of it.
+     */
+    private int width;
+    private int height;
+    /**
+     * The passes to run, in order, and for each, the nodes whose targets can be released after it runs.
+     * Rebuilt by compile() whenever the graph changes.
+     */
+    private final ArrayList<Node> schedule = new ArrayList<Node>();
+    private final ArrayList<ArrayList<Node>> releases = new ArrayList<ArrayList<Node>>();
+    private boolean dirty = true;
+    /**
+     * The most frame buffers the schedule holds at once, including outputs but not downsampling steps.
+     */
+    private int peakTargetCount = 0;
+
+    /**
+     * Create an empty graph which samples scaled-down inputs directly, which skips texels when a pass is less than half
+     * the size of its input.
+     *
+     * @param pool      The pool to borrow frame buffers from. Not disposed with the graph.
+     * @param width     The full width of the graph.
+     * @param height    The full height of the graph.
+     */
+    public FilterGraph(final RenderTargetPool pool, final int width, final int height) {
+        this(pool, null, width, height);
+    }
+
+    /**
+     * Create an empty graph which downsamples inputs in steps for passes at less than half their size.
+     *
+     * @param pool          The pool to borrow frame buffers from. Not disposed with the graph.
+     * @param resources     A reference to this application's resources, to load the downsampling shader.
+     * @param width         The full width of the graph.
+     * @param height        The full height of the graph.
+     */
+    public FilterGraph(final RenderTargetPool pool, final Resources resources, final int width, final int height) {
+        this.pool = pool;
+        this.downsampler = resources != null ? TextureFilter.createDownsampler(resources) : null;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Declare a texture which is supplied from outside the graph each frame, with setSource().
+     *
+     * @param name  The name passes use to read this texture.
+     */
+    public void addSource(final String name) {
+        add(new Node(name, null, new String[0]));
+    }
+
+    /**
+     * Declare a pass, which applies a filter to the results of other nodes.
+     * The first input is sampled as "u_Texture", and any others as "u_Texture1", "u_Texture2" and so on.
+     *
+     * @param name      The name of this pass, used by passes which read from it and by setOutputs().
+     * @param filter    The filter to apply. It doesn't need a target of its own. Disposed with the graph.
+     * @param inputs    The names of the nodes to read from. They may be declared after this pass.
+     */
+    public void addPass(final String name, final TextureFilter filter, final String... inputs) {
+        if (inputs.length == 0) {
+            throw new RuntimeException("Pass " + name + " has no inputs.");
+        }
+
+        add(new Node(name, filter, inputs.clone()));
+    }
+
+    /**
+     * Declare a chain of passes, each reading the one before, such as the filters from FilterFusion.build(). The last pass
+     * is given the name; earlier ones are named "name#1", "name#2" and so on. Every filter keeps its own scale.
+     *
+     * @param name      The name of the last pass of the chain.
+     * @param filters   The filters to apply, in order. Disposed with the graph.
+     * @param inputs    The names of the nodes the first pass reads from.
+     */
+    public void addChain(final String name, final TextureFilter[] filters, final String... inputs) {
+        String[] previous = inputs;
+
+        for (int i = 0; i < filters.length; i++) {
+            final String passName = i == filters.length - 1 ? name : name + "#" + (i + 1);
+            addPass(passName, filters[i], previous);
+            previous = new String[] { passName };
+        }
+    }
+
+    /**
+     * Remove a node and dispose its filter. Passes which read from it must be removed or replaced before the next execute().
+     *
+     * @param name  The name of the node to remove.
+     */
+    public void remove(final String name) {
+        final Node node = nodes.remove(name);
+
+        if (node != null) {
+            releaseTarget(node);
+            Disposer.dispose(node.filter);
+            outputs.remove(name);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Choose which nodes' results are wanted. Only these and the passes they depend on will run.
+     *
+     * @param names     The names of the output nodes.
+     */
+    public void setOutputs(final String... names) {
+        outputs.clear();
+
+        for (String name : names) {
+            outputs.add(name);
+        }
+
+        dirty = true;
+    }
+
+    /**
+     * Supply the texture for a source node. The texture must remain valid until execute() has returned.
+     *
+     * @param name      The name given to addSource().
+     * @param texture   The texture to read.
+     */
+    public void setSource(final String name, final Texture texture) {
+        final Node node = nodes.get(name);
+
+        if (node == null || node.filter != null) {
+            throw new RuntimeException("No source named " + name + " in this graph.");
+        }
+
+        node.source = texture;
+    }
+
+    /**
+     * Change the full size of the graph, such as when the view is resized.
+     */
+    public void setSize(final int width, final int height) {
+        releaseOutputs();
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Run every pass needed by the outputs. The outputs' results are then available from getOutput() until the next
+     * execute() or releaseOutputs().
+     */
+    public void execute() {
+        if (dirty) {
+            compile();
+        }
+
+        releaseOutputs();
+
+        for (int i = 0; i < schedule.size(); i++) {
+            final Node pass = schedule.get(i);
+            final int passWidth = pass.filter.scaledSize(width);
+            final int passHeight = pass.filter.scaledSize(height);
+
+            for (int j = 0; j < pass.inputs.length; j++) {
+                pass.inputTextures[j] = resample(nodes.get(pass.inputs[j]), passWidth, passHeight,
+                        pass.filter.needsInputAtOutputSize());
+            }
+
+            pass.target = pool.obtain(passWidth, passHeight);
+            pass.filter.process(pass.inputTextures, pass.target);
+
+            for (FrameBuffer temporary : temporaries) {
+                pool.release(temporary);
+            }
+
+            temporaries.clear();
+
+            for (Node finished : releases.get(i)) {
+                releaseTarget(finished);
+            }
+        }
+    }
+
+    /**
+     * Returns the result of an output node from the last execute(), or null if it hasn't been run.
+     * Sources have no frame buffer, so this returns null for them.
+     *
+     * @param name  The name of an output node.
+     */
+    public FrameBuffer getOutput(final String name) {
+        final Node node = nodes.get(name);
+        return node != null ? node.target : null;
+    }
+
+    /**
+     * Return the outputs' frame buffers to the pool. Called automatically by the next execute().
+     */
+    public void releaseOutputs() {
+        for (Node node : nodes.values()) {
+            releaseTarget(node);
+        }
+    }
+
+    /**
+     * Returns whether or not a node will run at the next execute(), which is false for passes no output depends on.
+     */
+    public boolean isScheduled(final String name) {
+        if (dirty) {
+            compile();
+        }
+
+        return schedule.contains(nodes.get(name));
+    }
+
+    /**
+     * Returns the number of passes which will run at the next execute().
+     */
+    public int getScheduledPassCount() {
+        if (dirty) {
+            compile();
+        }
+
+        return schedule.size();
+    }
+
+    /**
+     * Returns the most frame buffers the graph will hold at once while executing, including its outputs.
+     */
+    public int getPeakTargetCount() {
+        if (dirty) {
+            compile();
+        }
+
+        return peakTargetCount;
+    }
+
+    /**
+     * Return any frame buffers to the pool and dispose every filter in the graph.
+     */
+    @Override
+    public void dispose() {
+        releaseOutputs();
+
+        for (Node node : nodes.values()) {
+            Disposer.dispose(node.filter);
+        }
+
+        Disposer.dispose(downsampler);
+        nodes.clear();
+        outputs.clear();
+        schedule.clear();
+        releases.clear();
+    }
+
+    /**
+     * Internal method to add a node, replacing none.
+     */
+    private void add(final Node node) {
+        if (nodes.containsKey(node.name)) {
+            throw new RuntimeException("The graph already has a node named " + node.name + ".");
+        }
+
+        nodes.put(node.name, node);
+        dirty = true;
+    }
+
+    /**
+     * Internal method to order the passes needed by the outputs, and work out when each target can be released.
+     */
+    private void compile() {
+        schedule.clear();
+        releases.clear();
+
+        // a depth-first walk back from the outputs visits only the passes they need, each after its inputs
+        final HashSet<Node> visited = new HashSet<Node>();
+        final HashSet<Node> visiting = new HashSet<Node>();
+
+        for (String name : outputs) {
+            visit(find(name, "output"), visited, visiting);
+        }
+
+        // the last pass to read each node; outputs are never released by the schedule
+        final HashMap<Node, Integer> lastUse = new HashMap<Node, Integer>();
+
+        for (int i = 0; i < schedule.size(); i++) {
+            for (String input : schedule.get(i).inputs) {
+                lastUse.put(nodes.get(input), i);
+            }
+
+            releases.add(new ArrayList<Node>());
+        }
+
+        for (String name : outputs) {
+            lastUse.remove(nodes.get(name));
+        }
+
+        for (Node node : lastUse.keySet()) {
+            if (node.filter != null) {
+                releases.get(lastUse.get(node)).add(node);
+            }
+        }
+
+        // count the targets alive after each pass is drawn, before its finished inputs are released
+        int alive = 0;
+        peakTargetCount = 0;
+
+        for (int i = 0; i < schedule.size(); i++) {
+            alive++;
+            peakTargetCount = Math.max(peakTargetCount, alive);
+            alive -= releases.get(i).size();
+        }
+
+        dirty = false;
+    }
+
+    /**
+     * Internal method to add a node's inputs to the schedule, then the node itself.
+     */
+    private void visit(final Node node, final HashSet<Node> visited, final HashSet<Node> visiting) {
+        if (visited.contains(node)) {
+            return;
+        }
+
+        if (!visiting.add(node)) {
+            throw new RuntimeException("The filter graph has a cycle through " + node.name + ".");
+        }
+
+        for (String input : node.inputs) {
+            visit(find(input, node.name + "'s input"), visited, visiting);
+        }
+
+        visiting.remove(node);
+        visited.add(node);
+
+        if (node.filter != null) {
+            schedule.add(node);
+        }
+    }
+
+    /**
+     * Internal method to look up a node which must exist.
+     */
+    private Node find(final String name, final String role) {
+        final Node node = nodes.get(name);
+
+        if (node == null) {
+            throw new RuntimeException("Unknown node " + name + " used as " + role + ".");
+        }
+
+        return node;
+    }
+
+    /**
+     * Internal method to get a node's texture for a pass of the given size, downsampled as TextureFilter.resample()
+     * describes.
+     */
+    private Texture resample(final Node node, final int passWidth, final int passHeight, final boolean exact) {
+        final int w = node.target != null ? node.target.width : width;
+        final int h = node.target != null ? node.target.height : height;
+
+        return TextureFilter.resample(pool, downsampler, getTexture(node), w, h, passWidth, passHeight, exact,
+                node.name, temporaries);
+    }
+
+    /**
+     * Internal method to get the texture a node provides to its readers.
+     */
+    private static Texture getTexture(final Node node) {
+        if (node.filter == null) {
+            if (node.source == null) {
+                throw new RuntimeException("No texture was given for source " + node.name + ".");
+            }
+
+            return node.source;
+        }
+
+        return node.target.texture;
+    }
+
+    /**
+     * Internal method to return a pass's target to the pool, if it has one.
+     */
+    private void releaseTarget(final Node node) {
+        if (node.target != null) {
+            pool.release(node.target);
+            node.target = null;
+        }
+    }
+
+    /**
+     * A source or pass in the graph.
+     */
+    private static class Node {
+        final String name;
+        /**
+         * The filter to apply, or null for a source.
+         */
+        final TextureFilter filter;
+        final String[] inputs;
+        /**
+         * Scratch space for the input textures, filled in each time the pass runs.
+         */
+        final Texture[] inputTextures;
+        /**
+         * The texture supplied for a source.
+         */
+        Texture source;
+        /**
+         * The frame buffer holding a pass's result, while it's needed.
+         */
+        FrameBuffer target;
+
+        Node(final String name, final TextureFilter filter, final String[] inputs) {
+            this.name = name;
+            this.filter = filter;
+            this.inputs = inputs;
+            this.inputTextures = new Texture[inputs.length];
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.floatlearning.fl3d;
+
+import java.util.Map;
+
+/**
+ * One step of image processing, written as a GLSL function rather than a whole shader, so that FilterFusion can
+ * combine several steps into a single pass. A stage's resource defines one function named apply:
+ *
+ *     POINT stages     vec4 apply(vec4 color)   transform one input color, such as grayscale conversion.
+ *     KERNEL stages    vec4 apply(vec2 coord)   read the input around a coordinate with SAMPLE(coord), such as sobel.
+ *
+ * Stages must not include filter_header or declare main(); the generated shader provides both. Any helper functions or
+ * macros should have names unique to the stage, since fused stages share one shader.
+ */
+public class FilterStage {
+    /**
+     * Whether this stage transforms single colors or reads a neighbourhood.
+     */
+    public final Kind kind;
+    /**
+     * The resource ID of the stage's GLSL function.
+     */
+    public final int resourceId;
+    /**
+     * The number of times apply() calls SAMPLE(), or 1 for a point stage.
+     */
+    public final int taps;
+    /**
+     * Macro names and values to define for this stage, or null for none.
+     */
+    public final Map<String, String> defines;
+
+    /**
+     * Describe a stage without any defines.
+     *
+     * @param kind          Whether the stage is a POINT or KERNEL stage.
+     * @param resourceId    The resource ID of the stage's GLSL function, e.g. "R.raw.stage_grayscale"
+     * @param taps          The number of times apply() calls SAMPLE(); must be 1 for a point stage.
+     */
+    public FilterStage(final Kind kind, final int resourceId, final int taps) {
+        this(kind, resourceId, taps, null);
+    }
+
+    /**
+     * Describe a stage whose function is compiled with the given macros defined.
+     *
+     * @param kind          Whether the stage is a POINT or KERNEL stage.
+     * @param resourceId    The resource ID of the stage's GLSL function, e.g. "R.raw.stage_grayscale"
+     * @param taps          The number of times apply() calls SAMPLE(); must be 1 for a point stage.
+     * @param defines       Macro names and values to define, or null for none.
+     */
+    public FilterStage(final Kind kind, final int resourceId, final int taps, final Map<String, String> defines) {
+        if (taps < 1 || (kind == Kind.POINT && taps != 1)) {
+            throw new RuntimeException("A " + kind + " stage can't take " + taps + " taps.");
+        }
+
+        this.kind = kind;
+        this.resourceId = resourceId;
+        this.taps = taps;
+        this.defines = defines;
+    }
+
+    public enum Kind {
+        POINT,
+        KERNEL
+    }
+}
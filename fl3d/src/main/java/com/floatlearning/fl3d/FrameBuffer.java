@@ -18,7 +18,7 @@ public class FrameBuffer implements Bindable {
      */
     public final Texture texture;
     /**
-     * A reference to the depth render buffer.
+     * A reference to the depth render buffer, or zero if this frame buffer has no depth attachment.
      */
     private final int depthRenderBuffer;
     /**
@@ -27,9 +27,9 @@ public class FrameBuffer implements Bindable {
     public final int width;
     public final int height;
     /**
-     * Whether or not this is the active frame buffer; set with bind(), clear with unbind().
+     * The format of the color texture, either GLES20.GL_RGBA or GLES20.GL_RGB.
      */
-    private boolean bound = false;
+    public final int format;
 
     /**
      * Generate a new frame buffer that can be rendered to.
@@ -39,19 +39,36 @@ public class FrameBuffer implements Bindable {
      * @param height    The height of the current frame, used to generate the internal texture.
      */
     public FrameBuffer(final int width, final int height) {
+        this(width, height, GLES20.GL_RGBA, true);
+    }
+
+    /**
+     * Generate a new frame buffer with the given color format, and optionally no depth buffer.
+     * 2D image processing never tests depth, so leaving it out saves two bytes per pixel.
+     *
+     * @param width     The width of the frame buffer's texture.
+     * @param height    The height of the frame buffer's texture.
+     * @param format    The format of the color texture, either GLES20.GL_RGBA or GLES20.GL_RGB.
+     * @param depth     Whether or not to attach a 16-bit depth buffer.
+     */
+    public FrameBuffer(final int width, final int height, final int format, final boolean depth) {
         this.width = width;
         this.height = height;
+        this.format = format;
 
         handle = generateFrameBuffer();
-        depthRenderBuffer = generateDepthRenderBuffer();
+        depthRenderBuffer = depth ? generateDepthRenderBuffer() : 0;
 
         bind();
 
-        texture = new Texture(width, height);
+        texture = new Texture(width, height, format);
+        texture.upload(BufferObject.Usage.STATIC);
 
-        GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, depthRenderBuffer);
-        GLES20.glRenderbufferStorage(GLES20.GL_RENDERBUFFER, GLES20.GL_DEPTH_COMPONENT16, width, height);
-        GLES20.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER, GLES20.GL_DEPTH_ATTACHMENT, GLES20.GL_RENDERBUFFER, depthRenderBuffer);
+        if (depth) {
+            GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, depthRenderBuffer);
+            GLES20.glRenderbufferStorage(GLES20.GL_RENDERBUFFER, GLES20.GL_DEPTH_COMPONENT16, width, height);
+            GLES20.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER, GLES20.GL_DEPTH_ATTACHMENT, GLES20.GL_RENDERBUFFER, depthRenderBuffer);
+        }
 
         assertStatus();
 
@@ -59,35 +76,46 @@ public class FrameBuffer implements Bindable {
     }
 
     /**
-     * Set this frame buffer to be the active receiver of GPU rendering.
+     * Whether or not this frame buffer has a depth attachment.
+     */
+    public boolean hasDepth() {
+        return depthRenderBuffer != 0;
+    }
+
+    /**
+     * Set this frame buffer to be the active receiver of GPU rendering, with the viewport covering all of it.
      */
     @Override
     public void bind() {
-        if (!bound) {
-            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, handle);
-            bound = true;
-        }
+        GLState.bindFramebuffer(handle);
+        GLState.viewport(0, 0, width, height);
     }
 
     /**
-     * Set the active frame buffer to be the device display.
+     * Set the active frame buffer to be the device display. The viewport is left at this frame buffer's size, so callers
+     * drawing to the display afterwards must set it to the display's size.
      */
     @Override
     public void unbind() {
-        if (bound) {
-            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-            bound = false;
+        if (isBound()) {
+            GLState.bindFramebuffer(0);
         }
     }
 
+    /**
+     * Whether or not this is the active frame buffer.
+     */
+    public boolean isBound() {
+        return GLState.getFramebuffer() == handle;
+    }
+
     /**
      * Clears this buffer to black (0, 0, 0, 1), provided that it's bound.
      */
     public void clear() {
-        if (bound) {
-            GLES20.glViewport(0 ,0, width, height);
+        if (isBound()) {
             GLColor.BLACK.clearTo();
-            GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
+            GLES20.glClear(hasDepth() ? GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT : GLES20.GL_COLOR_BUFFER_BIT);
         }
     }
 
@@ -112,12 +140,17 @@ public class FrameBuffer implements Bindable {
 
     @Override
     public void dispose() {
-        if (bound) {
+        if (isBound()) {
             unbind();
         }
 
         GLES20.glDeleteFramebuffers(1, new int[]{handle}, 0);
-        GLES20.glDeleteRenderbuffers(1, new int[]{depthRenderBuffer}, 0);
+        GLState.forgetFramebuffer(handle);
+
+        if (hasDepth()) {
+            GLES20.glDeleteRenderbuffers(1, new int[]{depthRenderBuffer}, 0);
+        }
+
         texture.dispose();
     }
 
@@ -0,0 +1,127 @@
+package com.floatlearning.fl3d;
+
+import android.content.res.Resources;
+import android.opengl.GLES20;
+
+import com.floatlearning.fl3d.interfaces.Disposable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Shrinks a region of a frame buffer into a small frame buffer on the GPU, so that reading it back with FrameProvider
+ * moves a fraction of the bytes. Reading 320x240 instead of 1920x1080 is 27 times less data through glReadPixels,
+ * which stalls the GL thread until the GPU has finished the frame.
+ *
+ * The result keeps the orientation of the source, so reading it gives rows in the same order as reading the source.
+ * Must only be used on the GL thread.
+ */
+public class FrameDownscaler implements Disposable {
+    /**
+     * The frame buffer the downscaled image is drawn to.
+     */
+    public final FrameBuffer target;
+    /**
+     * Applies a small box filter while drawing.
+     */
+    private final Program program;
+    /**
+     * A quad covering the whole target.
+     */
+    private final Mesh mesh;
+    /**
+     * The texture coordinates of the source region, rewritten for each call.
+     */
+    private final float[] texCoords = new float[8];
+    private final FloatBuffer texCoordBuffer;
+    private final float[] sampleOffset = new float[2];
+
+    /**
+     * Create a downscaler with a target of the given size.
+     *
+     * @param resources     A reference to this application's resources.
+     * @param width         The width of the downscaled image.
+     * @param height        The height of the downscaled image.
+     */
+    public FrameDownscaler(final Resources resources, final int width, final int height) {
+        target = new FrameBuffer(width, height, GLES20.GL_RGBA, false);
+        program = ShaderRegistry.acquireProgram(resources, R.raw.fragment_downsample, R.raw.vertex_filter);
+        mesh = new Mesh();
+        mesh.upload(BufferObject.Usage.STATIC);
+        texCoordBuffer = ByteBuffer.allocateDirect(texCoords.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /**
+     * Draw the whole of a frame buffer into the target.
+     *
+     * @param source    The frame buffer to shrink.
+     * @return  The target, holding the downscaled image.
+     */
+    public FrameBuffer downscale(final FrameBuffer source) {
+        return downscale(source, 0, 0, source.width, source.height);
+    }
+
+    /**
+     * Draw a region of a frame buffer into the target, stretching it to fill the target.
+     * Regions are in frame buffer pixels with the origin at the bottom left, as glReadPixels uses.
+     *
+     * @param source    The frame buffer to read from.
+     * @param x         The left edge of the region.
+     * @param y         The bottom edge of the region.
+     * @param width     The width of the region.
+     * @param height    The height of the region.
+     * @return  The target, holding the downscaled image.
+     */
+    public FrameBuffer downscale(final FrameBuffer source, final int x, final int y, final int width, final int height) {
+        if (x < 0 || y < 0 || width <= 0 || height <= 0 || x + width > source.width || y + height > source.height) {
+            throw new RuntimeException("Region " + width + "x" + height + " at " + x + ", " + y + " is outside the "
+                    + source.width + "x" + source.height + " frame buffer.");
+        }
+
+        final float u0 = x / (float) source.width;
+        final float u1 = (x + width) / (float) source.width;
+        final float t0 = y / (float) source.height;
+        final float t1 = (y + height) / (float) source.height;
+
+        // the quad's vertices run top-left, top-right, bottom-right, bottom-left; the bottom row of the target, which
+        // glReadPixels returns first, comes from the bottom of the region
+        texCoords[0] = u0;
+        texCoords[1] = t1;
+        texCoords[2] = u1;
+        texCoords[3] = t1;
+        texCoords[4] = u1;
+        texCoords[5] = t0;
+        texCoords[6] = u0;
+        texCoords[7] = t0;
+        texCoordBuffer.clear();
+        texCoordBuffer.put(texCoords);
+        texCoordBuffer.position(0);
+
+        sampleOffset[0] = (u1 - u0) / target.width * 0.25f;
+        sampleOffset[1] = (t1 - t0) / target.height * 0.25f;
+
+        program.bind();
+        program.setValue(U_SAMPLE_OFFSET, sampleOffset);
+        target.bind();
+        target.clear();
+
+        source.texture.bindTo(0);
+        program.setAttribute(program.getAttribLocation(Texture.A_TEX_COORD), 2, texCoordBuffer);
+        mesh.draw(program);
+
+        program.unbind();
+        target.unbind();
+
+        return target;
+    }
+
+    @Override
+    public void dispose() {
+        target.dispose();
+        program.dispose();
+        mesh.dispose();
+    }
+
+    private static final String U_SAMPLE_OFFSET = "u_SampleOffset";
+}
@@ -2,28 +2,44 @@ package com.floatlearning.fl3d;
 
 import com.floatlearning.fl3d.interfaces.Disposable;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * A dedicated thread to provide OpenGL frames to a listener, on request.
+ * Reads rendered frames back from OpenGL and provides them to a listener on worker threads.
+ *
+ * request() reads the bound frame buffer on the GL thread, which is the only thread that can read it, into one of a fixed
+ * ring of direct buffers. Each read is numbered, and handed to a worker as a Frame. Frames are reference counted: the
+ * provider holds one reference while the listener runs, and a listener which keeps a frame afterwards must retain() it
+ * and release() it when done. Only released frames are read into again, so steady use allocates nothing.
+ *
+ * When every buffer is in use, the drop policy decides whether the new frame or the oldest undelivered frame is lost.
+ *
+ * Frames may be smaller than the view: read a region of it, or shrink it first with a FrameDownscaler and read that.
  */
-public class FrameProvider extends Thread implements Disposable {
+public class FrameProvider implements Disposable {
     /**
-     * Whether or not this thread should stop running.
+     * Frames which are free to be read into.
      */
-    private boolean quit = false;
+    private final ArrayDeque<Frame> free = new ArrayDeque<Frame>();
     /**
-     * A listener to be notified when a new frame is available.
+     * Frames which have been read and are waiting for a worker, oldest first.
      */
-    private FrameListener listener;
+    private final ArrayDeque<Frame> pending = new ArrayDeque<Frame>();
     /**
-     * A buffer used to store frame pixels.
+     * Runs the listener for each frame.
      */
-    private final IntBuffer pixelBuffer;
+    private final ExecutorService workers;
     /**
-     * Receives the content of pixelBuffer, and is used to provide frame data to the listener.
+     * What to do when a frame is requested and every buffer is in use.
      */
-    private final int[] pixels;
+    private final DropPolicy dropPolicy;
     /**
      * The width of the frames to provide.
      */
@@ -32,62 +48,355 @@ public class FrameProvider extends Thread implements Disposable {
      * The height of the frames to provide.
      */
     private final int height;
+    /**
+     * The sequence number of the next frame requested; only used on the GL thread.
+     */
+    private long nextSequence = 0;
+    /**
+     * Statistics for tuning the number of buffers and workers.
+     */
+    private final AtomicInteger deliveredCount = new AtomicInteger(0);
+    private final AtomicInteger droppedCount = new AtomicInteger(0);
+    /**
+     * Whether or not this provider has been disposed.
+     */
+    private volatile boolean quit = false;
 
     /**
-     * Construct a new FrameProvider; will automatically start and wait for request() to be called.
+     * Construct a new FrameProvider with three buffers and one worker, which drops the oldest frame when it falls behind.
      *
      * @param width     The width of frames to provide.
      * @param height    The height of frames to provide.
      */
     public FrameProvider(final int width, final int height) {
+        this(width, height, DEFAULT_BUFFER_COUNT, 1, DropPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Construct a new FrameProvider. The buffers are allocated up front.
+     *
+     * @param width         The width of frames to provide.
+     * @param height        The height of frames to provide.
+     * @param bufferCount   The number of frames which can be waiting or in use at once.
+     * @param workerCount   The number of threads running the listener; frames may be delivered out of order if more than one.
+     * @param dropPolicy    What to do when a frame is requested and every buffer is in use.
+     */
+    public FrameProvider(final int width, final int height, final int bufferCount, final int workerCount,
+                         final DropPolicy dropPolicy) {
+        if (width <= 0 || height <= 0) {
+            throw new RuntimeException("Tried to read " + width + "x" + height + " frames.");
+        }
+
         this.width = width;
         this.height = height;
-        pixels = new int[width * height];
-        pixelBuffer = IntBuffer.wrap(pixels);
-        setDaemon(true);
-        start();
-    }
+        this.dropPolicy = dropPolicy;
 
-    @Override
-    public void run() {
-        super.run();
-
-        while (!quit) {
-            // waits until notify() is called
-            synchronized (this) {
-                try {
-                    wait();
-                } catch (InterruptedException ignored) {}
+        for (int i = 0; i < bufferCount; i++) {
+            free.add(new Frame(this, width, height));
+        }
+
+        workers = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, TAG + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
             }
+        });
+    }
+
+    /**
+     * Read the bound frame buffer, and provide it to the listener on a worker thread. Must be called on the GL thread,
+     * after drawing the frame.
+     *
+     * @param listener      The object to notify when the frame is available.
+     * @return  True if the frame was read, or false if it was dropped because every buffer is in use.
+     */
+    public boolean request(final FrameListener listener) {
+        return request(listener, 0, 0);
+    }
+
+    /**
+     * Read a region of the bound frame buffer the size of this provider's frames, such as the part of the view an
+     * analysis needs. Must be called on the GL thread, after drawing the frame.
+     *
+     * @param listener      The object to notify when the frame is available.
+     * @param x             The left edge of the region, in pixels.
+     * @param y             The bottom edge of the region, in pixels, as glReadPixels measures it.
+     * @return  True if the frame was read, or false if it was dropped because every buffer is in use.
+     */
+    public boolean request(final FrameListener listener, final int x, final int y) {
+        if (quit) {
+            return false;
+        }
 
-            if (!quit) {
-                // reads pixels from OpenGL and provides to the listener
-                Core.readRenderedPixels(0, 0, width, height, pixelBuffer);
-                listener.postProcessFrame(pixels);
+        final Frame frame = obtain();
+
+        if (frame == null) {
+            // still counted, so gaps in the sequence always show where frames were lost
+            nextSequence++;
+            droppedCount.incrementAndGet();
+            return false;
+        }
+
+        frame.pixels.clear();
+        Core.readRenderedPixels(x, y, width, height, frame.pixels);
+        frame.sequence = nextSequence++;
+        frame.timestamp = System.nanoTime();
+        frame.listener = listener;
+
+        synchronized (this) {
+            // dispose() may have run on another thread while the frame was read; it shuts the workers down under this lock
+            if (quit) {
+                frame.listener = null;
+                return false;
             }
+
+            pending.add(frame);
+            workers.execute(deliver);
         }
+
+        return true;
     }
 
     /**
-     * Request that a frame be provided.
+     * Read a region of a frame buffer the size of this provider's frames, such as the target of a FrameDownscaler.
+     * The frame buffer which was bound before is bound again afterwards. Must be called on the GL thread.
      *
-     * @param listener      The object to notify when a frame is available.
+     * @param listener      The object to notify when the frame is available.
+     * @param source        The frame buffer to read from.
+     * @param x             The left edge of the region, in pixels.
+     * @param y             The bottom edge of the region, in pixels, as glReadPixels measures it.
+     * @return  True if the frame was read, or false if it was dropped because every buffer is in use.
      */
-    public void request(final FrameListener listener) {
-        this.listener = listener;
+    public boolean request(final FrameListener listener, final FrameBuffer source, final int x, final int y) {
+        if (x < 0 || y < 0 || x + width > source.width || y + height > source.height) {
+            throw new RuntimeException("A " + width + "x" + height + " frame at " + x + ", " + y + " is outside the "
+                    + source.width + "x" + source.height + " frame buffer.");
+        }
 
-        synchronized (this) {
-            notify();
+        final int previous = GLState.getFramebuffer();
+        source.bind();
+
+        try {
+            return request(listener, x, y);
+        } finally {
+            GLState.bindFramebuffer(previous);
         }
     }
 
+    /**
+     * Returns the number of frames delivered to the listener.
+     */
+    public int getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    /**
+     * Returns the number of frames dropped because the listener fell behind.
+     */
+    public int getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Returns the number of frames read and waiting for a worker.
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Stop delivering frames. Frames waiting for a worker are dropped; frames being used are still valid until released.
+     */
     @Override
     public void dispose() {
-        quit = true;
-        pixelBuffer.clear();
+        synchronized (this) {
+            quit = true;
+            workers.shutdownNow();
+            pending.clear();
+            free.clear();
+        }
+    }
+
+    /**
+     * Internal method to get a frame to read into, applying the drop policy if none are free.
+     *
+     * @return  A frame, or null if the new frame should be dropped.
+     */
+    private synchronized Frame obtain() {
+        Frame frame = free.poll();
+
+        if (frame == null && dropPolicy == DropPolicy.DROP_OLDEST) {
+            // the oldest undelivered frame hasn't been seen by anyone, so its buffer can be taken back
+            frame = pending.poll();
+
+            if (frame != null) {
+                droppedCount.incrementAndGet();
+            }
+        }
+
+        if (frame != null) {
+            frame.references.set(1);
+        }
+
+        return frame;
+    }
+
+    /**
+     * Internal method to return a released frame to the pool.
+     */
+    private synchronized void recycle(final Frame frame) {
+        frame.listener = null;
+
+        if (!quit) {
+            free.add(frame);
+        }
+    }
+
+    /**
+     * Delivers the oldest pending frame, if it hasn't been dropped. Executed once per frame read.
+     */
+    private final Runnable deliver = new Runnable() {
+        @Override
+        public void run() {
+            final Frame frame;
+
+            synchronized (FrameProvider.this) {
+                frame = pending.poll();
+            }
+
+            if (frame == null) {
+                return;
+            }
+
+            try {
+                frame.listener.postProcessFrame(frame);
+                deliveredCount.incrementAndGet();
+            } finally {
+                frame.release();
+            }
+        }
+    };
+
+    /**
+     * A frame read from OpenGL, valid until its last reference is released.
+     */
+    public static class Frame {
+        /**
+         * The frame's pixels, as RGBA bytes. Rows are bottom to top, as OpenGL reads them.
+         */
+        public final ByteBuffer pixels;
+        /**
+         * The same pixels as native-order ints, 0xAABBGGRR.
+         */
+        private final IntBuffer ints;
+        /**
+         * The size of the frame.
+         */
+        public final int width;
+        public final int height;
+        /**
+         * The number of frames requested before this one, including dropped frames.
+         */
+        long sequence;
+        /**
+         * When the frame was read, from System.nanoTime().
+         */
+        long timestamp;
+        /**
+         * The listener this frame is for.
+         */
+        FrameListener listener;
+        /**
+         * The number of users of this frame.
+         */
+        final AtomicInteger references = new AtomicInteger(0);
+        /**
+         * The provider this frame returns to.
+         */
+        private final FrameProvider provider;
+
+        private Frame(final FrameProvider provider, final int width, final int height) {
+            this.provider = provider;
+            this.width = width;
+            this.height = height;
+            pixels = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder());
+            ints = pixels.asIntBuffer();
+        }
+
+        /**
+         * Returns the number of frames requested before this one, including dropped frames.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Returns when the frame was read, from System.nanoTime().
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Convert this frame to ARGB colors, top row first, as Bitmap expects.
+         *
+         * @param argb  Receives the pixels; must hold at least width * height.
+         */
+        public void toArgb(final int[] argb) {
+            PixelConverter.rgbaToArgb(ints.duplicate(), argb, width, height, true);
+        }
+
+        /**
+         * Keep this frame after the listener returns. Must be matched by a call to release().
+         */
+        public void retain() {
+            if (references.getAndIncrement() <= 0) {
+                throw new RuntimeException("Tried to retain frame " + sequence + " after it was released.");
+            }
+        }
+
+        /**
+         * Give up a reference to this frame. When the last reference is released, its buffer may be read into again.
+         */
+        public void release() {
+            final int remaining = references.decrementAndGet();
+
+            if (remaining == 0) {
+                provider.recycle(this);
+            } else if (remaining < 0) {
+                throw new RuntimeException("Frame " + sequence + " was released more times than it was retained.");
+            }
+        }
+    }
+
+    /**
+     * What to do when a frame is requested and every buffer is in use.
+     */
+    public enum DropPolicy {
+        /**
+         * Reuse the oldest frame which hasn't been delivered yet, so the listener always gets the latest frames.
+         */
+        DROP_OLDEST,
+        /**
+         * Skip the new frame, so every frame which was read gets delivered.
+         */
+        DROP_NEWEST
     }
 
     public interface FrameListener {
-        void postProcessFrame(final int[] pixels);
+        /**
+         * Called on a worker thread with each frame read. The frame is only valid until this returns, unless retained.
+         *
+         * @param frame     The frame which was read.
+         */
+        void postProcessFrame(final Frame frame);
     }
+
+    // enough for one frame being processed, one waiting, and one being read
+    private static final int DEFAULT_BUFFER_COUNT = 3;
+    private static final String TAG = FrameProvider.class.getSimpleName();
 }
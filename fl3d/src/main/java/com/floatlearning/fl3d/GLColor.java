@@ -1,7 +1,5 @@
 package com.floatlearning.fl3d;
 
-import android.opengl.GLES20;
-
 import com.floatlearning.fl3d.interfaces.Drawable;
 
 /**
@@ -38,7 +36,7 @@ public class GLColor implements Drawable {
     public void cleanup(Program program) {}
 
     public void clearTo() {
-        GLES20.glClearColor(red, green, blue, alpha);
+        GLState.clearColor(red, green, blue, alpha);
     }
 
     @Override
@@ -0,0 +1,424 @@
+package com.floatlearning.fl3d;
+
+import android.opengl.GLES20;
+
+import java.util.Arrays;
+
+/**
+ * Tracks the OpenGL state set by FL3D, so that calls which would not change anything are skipped.
+ * All FL3D classes route their binds through here; any code that changes the same state directly must call reset().
+ * There is one OpenGL context per GL thread in FL3D, so the state is tracked separately for each thread, and every
+ * method applies to the calling thread's context. Only call these from a GL thread.
+ */
+public class GLState {
+    /**
+     * The number of texture units tracked; OpenGL stores each texture in an index from 0 - 31.
+     */
+    public static final int MAX_TEXTURE_UNITS = 32;
+    /**
+     * The number of vertex attribute arrays tracked. Attributes beyond this are passed straight through.
+     */
+    public static final int MAX_VERTEX_ATTRIBS = 16;
+    /**
+     * Value used for state which is not yet known, such as right after the context has been created.
+     */
+    private static final int UNKNOWN = -1;
+    /**
+     * The texture targets tracked per unit; other targets are passed straight through.
+     */
+    private static final int[] TEXTURE_TARGETS = { GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_CUBE_MAP, ExternalTexture.GL_TEXTURE_EXTERNAL_OES };
+
+    /**
+     * The state of each GL thread's context, created the first time that thread uses this class.
+     */
+    private static final ThreadLocal<GLState> contexts = new ThreadLocal<GLState>() {
+        @Override
+        protected GLState initialValue() {
+            return new GLState();
+        }
+    };
+
+    private int program = UNKNOWN;
+    private int frameBuffer = UNKNOWN;
+    private int activeUnit = UNKNOWN;
+    private int arrayBuffer = UNKNOWN;
+    private int elementArrayBuffer = UNKNOWN;
+    private final int[][] textures = new int[TEXTURE_TARGETS.length][MAX_TEXTURE_UNITS];
+    private final int[] vertexAttribs = new int[MAX_VERTEX_ATTRIBS];
+    private final int[] viewport = new int[4];
+    private final float[] clearColor = new float[4];
+    private boolean viewportKnown = false;
+    private boolean clearColorKnown = false;
+
+    /**
+     * The number of calls sent to OpenGL, and skipped because OpenGL already had that state, since resetCounters().
+     */
+    private int issuedCalls = 0;
+    private int skippedCalls = 0;
+
+    /**
+     * Internal constructor; each thread's state is created by the contexts ThreadLocal.
+     */
+    private GLState() {
+        forget();
+    }
+
+    /**
+     * Forget all tracked state. Call when a new context is created, or after changing state without this class.
+     */
+    public static void reset() {
+        contexts.get().forget();
+    }
+
+    /**
+     * Internal method to forget all tracked state of this context.
+     */
+    private void forget() {
+        program = UNKNOWN;
+        frameBuffer = UNKNOWN;
+        activeUnit = UNKNOWN;
+        arrayBuffer = UNKNOWN;
+        elementArrayBuffer = UNKNOWN;
+
+        for (int[] unitTextures : textures) {
+            Arrays.fill(unitTextures, UNKNOWN);
+        }
+
+        Arrays.fill(vertexAttribs, UNKNOWN);
+        viewportKnown = false;
+        clearColorKnown = false;
+    }
+
+    /**
+     * Equivalent to glUseProgram.
+     *
+     * @param handle    The program to use, or 0 for none.
+     */
+    public static void useProgram(final int handle) {
+        final GLState state = contexts.get();
+
+        if (state.program == handle) {
+            state.skippedCalls++;
+            return;
+        }
+
+        GLES20.glUseProgram(handle);
+        state.program = handle;
+        state.issuedCalls++;
+    }
+
+    /**
+     * Returns the program currently in use, or -1 if unknown.
+     */
+    public static int getProgram() {
+        return contexts.get().program;
+    }
+
+    /**
+     * Equivalent to glBindFramebuffer with GL_FRAMEBUFFER.
+     *
+     * @param handle    The frame buffer to bind, or 0 for the display.
+     */
+    public static void bindFramebuffer(final int handle) {
+        final GLState state = contexts.get();
+
+        if (state.frameBuffer == handle) {
+            state.skippedCalls++;
+            return;
+        }
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, handle);
+        state.frameBuffer = handle;
+        state.issuedCalls++;
+    }
+
+    /**
+     * Returns the frame buffer currently bound, or -1 if unknown.
+     */
+    public static int getFramebuffer() {
+        return contexts.get().frameBuffer;
+    }
+
+    /**
+     * Equivalent to glBindBuffer.
+     *
+     * @param target    Either GLES20.GL_ARRAY_BUFFER or GLES20.GL_ELEMENT_ARRAY_BUFFER.
+     * @param handle    The buffer object to bind, or 0 to read from client memory.
+     */
+    public static void bindBuffer(final int target, final int handle) {
+        final GLState state = contexts.get();
+
+        if (getBuffer(target) == handle) {
+            state.skippedCalls++;
+            return;
+        }
+
+        GLES20.glBindBuffer(target, handle);
+
+        if (target == GLES20.GL_ARRAY_BUFFER) {
+            state.arrayBuffer = handle;
+        } else if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+            state.elementArrayBuffer = handle;
+        }
+
+        state.issuedCalls++;
+    }
+
+    /**
+     * Returns the buffer object currently bound to a target, or -1 if unknown.
+     *
+     * @param target    Either GLES20.GL_ARRAY_BUFFER or GLES20.GL_ELEMENT_ARRAY_BUFFER.
+     */
+    public static int getBuffer(final int target) {
+        final GLState state = contexts.get();
+
+        if (target == GLES20.GL_ARRAY_BUFFER) {
+            return state.arrayBuffer;
+        } else if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+            return state.elementArrayBuffer;
+        }
+
+        return UNKNOWN;
+    }
+
+    /**
+     * Must be called when a buffer object is deleted, since OpenGL may reuse its handle.
+     *
+     * @param handle    The deleted buffer object.
+     */
+    public static void forgetBuffer(final int handle) {
+        final GLState state = contexts.get();
+
+        // deleting a bound buffer reverts the binding to zero
+        if (state.arrayBuffer == handle) {
+            state.arrayBuffer = 0;
+        }
+
+        if (state.elementArrayBuffer == handle) {
+            state.elementArrayBuffer = 0;
+        }
+    }
+
+    /**
+     * Equivalent to glActiveTexture.
+     *
+     * @param unit    The index of the texture unit to activate, from 0 - 31 (not GL_TEXTURE0 + index).
+     */
+    public static void activeTexture(final int unit) {
+        final GLState state = contexts.get();
+
+        if (state.activeUnit == unit) {
+            state.skippedCalls++;
+            return;
+        }
+
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+        state.activeUnit = unit;
+        state.issuedCalls++;
+    }
+
+    /**
+     * Equivalent to glBindTexture on the active texture unit.
+     *
+     * @param target    The texture target, e.g. GLES20.GL_TEXTURE_2D.
+     * @param handle    The texture to bind, or 0 for none.
+     */
+    public static void bindTexture(final int target, final int handle) {
+        final GLState state = contexts.get();
+        final int index = targetIndex(target);
+
+        if (index < 0 || state.activeUnit < 0 || state.activeUnit >= MAX_TEXTURE_UNITS) {
+            GLES20.glBindTexture(target, handle);
+            state.issuedCalls++;
+            return;
+        }
+
+        if (state.textures[index][state.activeUnit] == handle) {
+            state.skippedCalls++;
+            return;
+        }
+
+        GLES20.glBindTexture(target, handle);
+        state.textures[index][state.activeUnit] = handle;
+        state.issuedCalls++;
+    }
+
+    /**
+     * Activates a texture unit, then binds a texture to it.
+     *
+     * @param unit      The index of the texture unit, from 0 - 31.
+     * @param target    The texture target, e.g. GLES20.GL_TEXTURE_2D.
+     * @param handle    The texture to bind, or 0 for none.
+     */
+    public static void bindTexture(final int unit, final int target, final int handle) {
+        activeTexture(unit);
+        bindTexture(target, handle);
+    }
+
+    /**
+     * Must be called when a texture is deleted, since OpenGL may reuse its handle.
+     *
+     * @param handle    The deleted texture.
+     */
+    public static void forgetTexture(final int handle) {
+        final GLState state = contexts.get();
+
+        for (int[] unitTextures : state.textures) {
+            for (int i = 0; i < unitTextures.length; i++) {
+                if (unitTextures[i] == handle) {
+                    // deleting a bound texture reverts the binding to zero
+                    unitTextures[i] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Must be called when a program is deleted, since OpenGL may reuse its handle.
+     *
+     * @param handle    The deleted program.
+     */
+    public static void forgetProgram(final int handle) {
+        final GLState state = contexts.get();
+
+        if (state.program == handle) {
+            // a deleted program stays in use until another one replaces it
+            state.program = UNKNOWN;
+        }
+    }
+
+    /**
+     * Must be called when a frame buffer is deleted, since OpenGL may reuse its handle.
+     *
+     * @param handle    The deleted frame buffer.
+     */
+    public static void forgetFramebuffer(final int handle) {
+        final GLState state = contexts.get();
+
+        if (state.frameBuffer == handle) {
+            // deleting the bound frame buffer reverts the binding to the display
+            state.frameBuffer = 0;
+        }
+    }
+
+    /**
+     * Equivalent to glEnableVertexAttribArray.
+     *
+     * @param index    The location of the attribute.
+     */
+    public static void enableVertexAttribArray(final int index) {
+        setVertexAttribArray(index, true);
+    }
+
+    /**
+     * Equivalent to glDisableVertexAttribArray.
+     *
+     * @param index    The location of the attribute.
+     */
+    public static void disableVertexAttribArray(final int index) {
+        setVertexAttribArray(index, false);
+    }
+
+    /**
+     * Equivalent to glViewport.
+     */
+    public static void viewport(final int x, final int y, final int width, final int height) {
+        final GLState state = contexts.get();
+
+        if (state.viewportKnown && state.viewport[0] == x && state.viewport[1] == y && state.viewport[2] == width && state.viewport[3] == height) {
+            state.skippedCalls++;
+            return;
+        }
+
+        GLES20.glViewport(x, y, width, height);
+        state.viewport[0] = x;
+        state.viewport[1] = y;
+        state.viewport[2] = width;
+        state.viewport[3] = height;
+        state.viewportKnown = true;
+        state.issuedCalls++;
+    }
+
+    /**
+     * Equivalent to glClearColor.
+     */
+    public static void clearColor(final float red, final float green, final float blue, final float alpha) {
+        final GLState state = contexts.get();
+
+        if (state.clearColorKnown && state.clearColor[0] == red && state.clearColor[1] == green && state.clearColor[2] == blue && state.clearColor[3] == alpha) {
+            state.skippedCalls++;
+            return;
+        }
+
+        GLES20.glClearColor(red, green, blue, alpha);
+        state.clearColor[0] = red;
+        state.clearColor[1] = green;
+        state.clearColor[2] = blue;
+        state.clearColor[3] = alpha;
+        state.clearColorKnown = true;
+        state.issuedCalls++;
+    }
+
+    /**
+     * Returns the number of state changes sent to OpenGL since the last call to resetCounters().
+     */
+    public static int getIssuedCalls() {
+        return contexts.get().issuedCalls;
+    }
+
+    /**
+     * Returns the number of state changes skipped since the last call to resetCounters().
+     */
+    public static int getSkippedCalls() {
+        return contexts.get().skippedCalls;
+    }
+
+    /**
+     * Set the issued and skipped counters to zero; call at the start of a frame to measure that frame.
+     */
+    public static void resetCounters() {
+        final GLState state = contexts.get();
+
+        state.issuedCalls = 0;
+        state.skippedCalls = 0;
+    }
+
+    /**
+     * Internal method to enable or disable a vertex attribute array, if it isn't already.
+     */
+    private static void setVertexAttribArray(final int index, final boolean enabled) {
+        final GLState state = contexts.get();
+
+        final int value = enabled ? 1 : 0;
+
+        if (index >= 0 && index < MAX_VERTEX_ATTRIBS && state.vertexAttribs[index] == value) {
+            state.skippedCalls++;
+            return;
+        }
+
+        if (enabled) {
+            GLES20.glEnableVertexAttribArray(index);
+        } else {
+            GLES20.glDisableVertexAttribArray(index);
+        }
+
+        if (index >= 0 && index < MAX_VERTEX_ATTRIBS) {
+            state.vertexAttribs[index] = value;
+        }
+
+        state.issuedCalls++;
+    }
+
+    /**
+     * Returns the index of a tracked texture target, or -1 if the target is not tracked.
+     */
+    private static int targetIndex(final int target) {
+        for (int i = 0; i < TEXTURE_TARGETS.length; i++) {
+            if (TEXTURE_TARGETS[i] == target) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,260 @@
+package com.floatlearning.fl3d;
+
+import android.content.res.Resources;
+import android.opengl.GLES20;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A gaussian blur, applied as a horizontal pass into an intermediate frame buffer and then a vertical pass into the
+ * output. Separating the passes costs 2 * (2r + 1) samples per pixel instead of (2r + 1)^2, and each pass fetches
+ * neighbouring pairs of texels with a single linear-filtered sample between them, roughly halving that again.
+ *
+ * The input texture must use linear filtering for the paired samples to blend correctly; frame buffer textures do. It
+ * must also be the size of the output, since the offsets are in output texels; a larger input would be sampled between
+ * the wrong texels. FilterGraph resamples inputs to the pass size for this filter.
+ *
+ * Each tap takes one uniform vector, and OpenGL ES 2.0 only guarantees 16 for a fragment shader. When a sigma needs more
+ * taps than this device allows, the blur is split into a cascade of smaller blurs whose variances add up to the
+ * requested one, each of which fits.
+ */
+public class GaussianBlurFilter extends TextureFilter {
+    /**
+     * The standard deviation of the blur, in texels.
+     */
+    public final float sigma;
+    /**
+     * The number of blurs applied in turn, each with the taps below; one unless the taps would exceed the uniform limit.
+     */
+    private final int passes;
+    /**
+     * The weight of each tap followed by its distance from the center in texels, as the shader's vec2 array. Tap 0 is
+     * the center.
+     */
+    private final float[] taps;
+    /**
+     * Holds the result of each horizontal pass; created at the size of the first output.
+     */
+    private FrameBuffer intermediate;
+    /**
+     * Holds the result of each blur but the last when there is more than one; otherwise null.
+     */
+    private FrameBuffer cascade;
+
+    /**
+     * Create a gaussian blur with its own output frame buffer.
+     *
+     * @param width         The width of the output texture.
+     * @param height        The height of the output texture.
+     * @param resources     A reference to this application's resources.
+     * @param sigma         The standard deviation of the blur, in texels. Larger is blurrier.
+     */
+    public GaussianBlurFilter(final int width, final int height, final Resources resources, final float sigma) {
+        this(new FrameBuffer(width, height, GLES20.GL_RGBA, false), resources, sigma, passCount(sigma, getMaxTaps()));
+    }
+
+    /**
+     * Create a gaussian blur without a frame buffer of its own, for use with process() or in a FilterGraph.
+     *
+     * @param resources     A reference to this application's resources.
+     * @param sigma         The standard deviation of the blur, in texels. Larger is blurrier.
+     */
+    public GaussianBlurFilter(final Resources resources, final float sigma) {
+        this(null, resources, sigma, passCount(sigma, getMaxTaps()));
+    }
+
+    /**
+     * Internal constructor, once the number of blurs is known; the shader is compiled for the taps of each.
+     */
+    private GaussianBlurFilter(final FrameBuffer target, final Resources resources, final float sigma, final int passes) {
+        super(target, resources, defines(linearTaps(passSigma(sigma, passes)).length / 2), R.raw.fragment_gaussian,
+                R.raw.vertex_filter);
+        this.sigma = sigma;
+        this.passes = passes;
+        this.taps = linearTaps(passSigma(sigma, passes));
+    }
+
+    /**
+     * Returns the number of texture samples each pass takes per pixel.
+     */
+    public int getSampleCount() {
+        return taps.length - 1;
+    }
+
+    /**
+     * Returns the number of blurs applied in turn, each a horizontal and a vertical pass; one unless sigma is too large
+     * for the uniforms of this device.
+     */
+    public int getPassCount() {
+        return passes;
+    }
+
+    /**
+     * Blur a texture into the given frame buffer.
+     *
+     * @param inTexture     The input texture to blur, the same size as the output.
+     * @param output        The frame buffer to render to. Must not be the one holding the input texture.
+     */
+    @Override
+    public void process(final Texture inTexture, final FrameBuffer output) {
+        if (intermediate == null || intermediate.width != output.width || intermediate.height != output.height) {
+            Disposer.dispose(intermediate);
+            intermediate = new FrameBuffer(output.width, output.height, GLES20.GL_RGBA, false);
+        }
+
+        if (passes > 1 && (cascade == null || cascade.width != output.width || cascade.height != output.height)) {
+            Disposer.dispose(cascade);
+            cascade = new FrameBuffer(output.width, output.height, GLES20.GL_RGBA, false);
+        }
+
+        program.bind();
+        program.setTexels(output.width, output.height);
+        program.setValue(U_TAPS, taps);
+
+        Texture source = inTexture;
+
+        for (int i = 0; i < passes; i++) {
+            final FrameBuffer result = i == passes - 1 ? output : cascade;
+
+            pass(source, intermediate, HORIZONTAL);
+            pass(intermediate.texture, result, VERTICAL);
+            source = result.texture;
+        }
+
+        program.unbind();
+        output.unbind();
+    }
+
+    @Override
+    public boolean needsInputAtOutputSize() {
+        return true;
+    }
+
+    @Override
+    public void dispose() {
+        super.dispose();
+        intermediate = Disposer.dispose(intermediate);
+        cascade = Disposer.dispose(cascade);
+    }
+
+    /**
+     * Internal method to draw one direction of the blur, with the program already bound.
+     */
+    private void pass(final Texture inTexture, final FrameBuffer output, final float[] direction) {
+        program.setValue(U_DIRECTION, direction);
+        output.bind();
+        output.clear();
+
+        inTexture.draw(program);
+        mesh.draw(program);
+    }
+
+    /**
+     * Returns normalized weights of a discrete gaussian, from the center (index 0) out to three standard deviations.
+     *
+     * @param sigma     The standard deviation, in texels.
+     */
+    static float[] gaussianWeights(final float sigma) {
+        if (!(sigma > 0)) {
+            throw new RuntimeException("A gaussian blur needs a positive sigma, not " + sigma + ".");
+        }
+
+        final int radius = Math.max(1, (int) Math.ceil(3 * sigma));
+        final float[] result = new float[radius + 1];
+        float total = 0;
+
+        for (int i = 0; i <= radius; i++) {
+            result[i] = (float) Math.exp(-(i * i) / (2.0 * sigma * sigma));
+            total += i == 0 ? result[i] : 2 * result[i];
+        }
+
+        for (int i = 0; i <= radius; i++) {
+            result[i] /= total;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the weights and offsets of the taps for a gaussian, merging each pair of texels after the center into one
+     * sample placed between them in proportion to their weights. Sampling there with linear filtering returns exactly
+     * the weighted sum of the pair.
+     *
+     * @param sigma     The standard deviation, in texels.
+     * @return  The weight and then the offset in texels of each tap, packed as the shader's vec2 array.
+     */
+    static float[] linearTaps(final float sigma) {
+        final float[] discrete = gaussianWeights(sigma);
+        final int radius = discrete.length - 1;
+        final int count = 1 + (radius + 1) / 2;
+        final float[] result = new float[2 * count];
+
+        result[0] = discrete[0];
+
+        for (int tap = 1, i = 1; tap < count; tap++, i += 2) {
+            final float first = discrete[i];
+            final float second = i + 1 <= radius ? discrete[i + 1] : 0;
+
+            result[2 * tap] = first + second;
+            result[2 * tap + 1] = (i * first + (i + 1) * second) / (first + second);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the number of blurs needed to apply a gaussian with at most the given number of taps in each. Applying n
+     * gaussians of sigma / sqrt(n) in turn is the same as one gaussian of sigma, since their variances add.
+     *
+     * @param sigma      The standard deviation of the whole blur, in texels.
+     * @param maxTaps    The most taps the shader may have.
+     */
+    static int passCount(final float sigma, final int maxTaps) {
+        if (maxTaps < MIN_TAPS) {
+            throw new RuntimeException("A gaussian blur needs room for " + MIN_TAPS + " taps, but only " + maxTaps + " fit.");
+        }
+
+        int passes = 1;
+
+        while (linearTaps(passSigma(sigma, passes)).length / 2 > maxTaps) {
+            passes++;
+        }
+
+        return passes;
+    }
+
+    /**
+     * Returns the sigma of each blur when a gaussian is split into the given number of them.
+     */
+    static float passSigma(final float sigma, final int passes) {
+        return (float) (sigma / Math.sqrt(passes));
+    }
+
+    /**
+     * Internal method to find how many taps fit in this device's fragment uniforms, besides the shader's other uniforms.
+     */
+    private static int getMaxTaps() {
+        return Core.getMaxFragmentUniformVectors() - OTHER_UNIFORM_VECTORS;
+    }
+
+    /**
+     * Internal method to build the defines for a shader with the given number of taps.
+     */
+    private static Map<String, String> defines(final int taps) {
+        final Map<String, String> result = new HashMap<String, String>();
+        result.put(TAPS, String.valueOf(taps));
+        return result;
+    }
+
+    // directions of the two passes
+    private static final float[] HORIZONTAL = { 1, 0 };
+    private static final float[] VERTICAL = { 0, 1 };
+    private static final String TAPS = "TAPS";
+    private static final String U_DIRECTION = "u_Direction";
+    private static final String U_TAPS = "u_Taps";
+    // uniform vectors the shader uses besides its taps: the texture, the two texel sizes and the direction
+    private static final int OTHER_UNIFORM_VECTORS = 4;
+    // the fewest taps any blur needs: the center, and one pair of texels on each side
+    private static final int MIN_TAPS = 2;
+}
@@ -4,6 +4,9 @@ import android.opengl.GLES20;
 
 import com.floatlearning.fl3d.interfaces.Drawable;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 
 /**
@@ -18,6 +21,34 @@ public class Mesh implements Drawable {
      * The buffer containing this object's vertex data.
      */
     protected final FloatBuffer vertexBuffer;
+    /**
+     * The vertex data in a GPU buffer object, if upload() has been called; otherwise null.
+     */
+    protected BufferObject vertexObject;
+    /**
+     * How the attributes of each vertex are arranged in the vertex data.
+     */
+    protected final VertexLayout layout;
+    /**
+     * How the vertices are assembled into primitives, e.g. triangles or lines.
+     */
+    protected final Primitive primitive;
+    /**
+     * The number of indices in this object, or zero if this mesh isn't indexed.
+     */
+    protected final int indexCount;
+    /**
+     * The type of each index; GLES20.GL_UNSIGNED_BYTE if there are at most 256 vertices, else GLES20.GL_UNSIGNED_SHORT.
+     */
+    protected final int indexType;
+    /**
+     * The buffer containing this object's indices, or null if this mesh isn't indexed.
+     */
+    protected final Buffer indexBuffer;
+    /**
+     * The indices in a GPU buffer object, if upload() has been called on an indexed mesh; otherwise null.
+     */
+    protected BufferObject indexObject;
     /**
      * Whether or not this mesh has a color.
      */
@@ -40,8 +71,110 @@ public class Mesh implements Drawable {
      * @param vertices    The vertices defining this mesh's appearance.
      */
     public Mesh(final float[] vertices) {
-        vertexCount = vertices.length / COORDS_PER_VERTEX;
-        vertexBuffer = Core.arrayAsBuffer(vertices);
+        this(vertices, Primitive.TRIANGLE_FAN);
+    }
+
+    /**
+     * Create a new Mesh with the given vertices, drawn as the given type of primitive.
+     *
+     * @param vertices     The vertices defining this mesh's appearance.
+     * @param primitive    How the vertices are assembled, e.g. Primitive.TRIANGLES.
+     */
+    public Mesh(final float[] vertices, final Primitive primitive) {
+        this(vertices, null, primitive);
+    }
+
+    /**
+     * Create a new indexed Mesh, which can share vertices between primitives.
+     * Indices are stored as bytes or shorts, whichever is enough for the number of vertices.
+     *
+     * @param vertices     The vertices defining this mesh's appearance.
+     * @param indices      The order in which to draw the vertices, or null to draw them in order.
+     * @param primitive    How the indexed vertices are assembled, e.g. Primitive.TRIANGLES.
+     */
+    public Mesh(final float[] vertices, final int[] indices, final Primitive primitive) {
+        this(vertices, VertexLayout.POSITION, indices, primitive);
+    }
+
+    /**
+     * Create a new Mesh whose vertices interleave several attributes, such as positions, texture coordinates, and normals.
+     * All of the layout's attributes must be floats; use the ByteBuffer constructor for other types.
+     *
+     * @param vertices     The interleaved vertex data, as described by the layout.
+     * @param layout       How the attributes of each vertex are arranged.
+     * @param indices      The order in which to draw the vertices, or null to draw them in order.
+     * @param primitive    How the vertices are assembled, e.g. Primitive.TRIANGLES.
+     */
+    public Mesh(final float[] vertices, final VertexLayout layout, final int[] indices, final Primitive primitive) {
+        this(Core.arrayAsBuffer(vertices), layout, indices, primitive);
+    }
+
+    /**
+     * Create a new Mesh from packed, interleaved vertex data, which may mix types such as float positions and byte colors.
+     *
+     * @param vertices     A direct buffer in native byte order holding the vertex data, as described by the layout.
+     * @param layout       How the attributes of each vertex are arranged.
+     * @param indices      The order in which to draw the vertices, or null to draw them in order.
+     * @param primitive    How the vertices are assembled, e.g. Primitive.TRIANGLES.
+     */
+    public Mesh(final ByteBuffer vertices, final VertexLayout layout, final int[] indices, final Primitive primitive) {
+        this(asFloatBuffer(vertices), layout, indices, primitive);
+    }
+
+    /**
+     * Internal constructor shared by all of the above.
+     */
+    private Mesh(final FloatBuffer vertices, final VertexLayout layout, final int[] indices, final Primitive primitive) {
+        vertexBuffer = vertices;
+        vertexCount = layout.vertexCount(vertices.capacity() * 4);
+        this.layout = layout;
+        this.primitive = primitive;
+
+        if (indices == null) {
+            indexCount = 0;
+            indexType = 0;
+            indexBuffer = null;
+        } else {
+            indexCount = indices.length;
+            indexType = vertexCount <= MAX_BYTE_INDEX + 1 ? GLES20.GL_UNSIGNED_BYTE : GLES20.GL_UNSIGNED_SHORT;
+            indexBuffer = indicesAsBuffer(indices, vertexCount, indexType);
+        }
+    }
+
+    /**
+     * Copy this mesh's vertices into a GPU buffer object. After this, draws only bind the buffer,
+     * rather than sending every vertex from the CPU.
+     *
+     * @param usage    How often the vertices are expected to change; use STATIC unless calling setVertices() often.
+     */
+    public void upload(final BufferObject.Usage usage) {
+        if (vertexObject == null) {
+            vertexObject = new BufferObject(GLES20.GL_ARRAY_BUFFER, vertexBuffer, 4, usage);
+        }
+
+        // indices don't change with setVertices(), so they are always static
+        if (indexBuffer != null && indexObject == null) {
+            indexObject = new BufferObject(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBuffer, indexBytes(), BufferObject.Usage.STATIC);
+        }
+    }
+
+    /**
+     * Replace the vertices of this mesh. The number of vertices can't change.
+     *
+     * @param vertices    The new vertices defining this mesh's appearance.
+     */
+    public void setVertices(final float[] vertices) {
+        if (vertices.length * 4 != vertexCount * layout.stride) {
+            throw new RuntimeException("Tried to set " + layout.vertexCount(vertices.length * 4) + " vertices on a mesh with " + vertexCount);
+        }
+
+        vertexBuffer.position(0);
+        vertexBuffer.put(vertices);
+        vertexBuffer.position(0);
+
+        if (vertexObject != null) {
+            vertexObject.updateData(0, vertexBuffer, 4);
+        }
     }
 
     /**
@@ -58,7 +191,7 @@ public class Mesh implements Drawable {
     }
 
     /**
-     * Draw this object using the "triangle fan" method.
+     * Draw this object using its primitive type, and its indices if it has any.
      */
     @Override
     public void draw(final Program program) {
@@ -66,7 +199,20 @@ public class Mesh implements Drawable {
             color.draw(program);
         }
 
-        program.drawArrays(A_POSITION, vertexBuffer, vertexCount);
+        // every attribute is set in one pass, from one buffer
+        if (vertexObject != null) {
+            layout.bind(program, vertexObject);
+        } else {
+            layout.bind(program, vertexBuffer);
+        }
+
+        if (indexObject != null) {
+            program.drawElements(primitive.glValue, indexCount, indexType, indexObject);
+        } else if (indexBuffer != null) {
+            program.drawElements(primitive.glValue, indexCount, indexType, indexBuffer);
+        } else {
+            program.drawArrays(primitive.glValue, vertexCount);
+        }
     }
 
     /**
@@ -74,8 +220,7 @@ public class Mesh implements Drawable {
      */
     @Override
     public void cleanup(final Program program) {
-        int positionHandle = GLES20.glGetAttribLocation(program.handle, A_POSITION);
-        GLES20.glDisableVertexAttribArray(positionHandle);
+        layout.unbind(program);
     }
 
     /**
@@ -83,9 +228,68 @@ public class Mesh implements Drawable {
      */
     @Override
     public void dispose() {
+        vertexObject = Disposer.dispose(vertexObject);
+        indexObject = Disposer.dispose(indexObject);
         vertexBuffer.clear();
     }
 
+    /**
+     * Internal method to view packed vertex data as floats, so it can share storage with float-only meshes.
+     */
+    private static FloatBuffer asFloatBuffer(final ByteBuffer vertices) {
+        if (!vertices.isDirect() || vertices.order() != ByteOrder.nativeOrder()) {
+            throw new RuntimeException("Vertex data must be a direct buffer in native byte order.");
+        }
+
+        vertices.position(0);
+        return vertices.asFloatBuffer();
+    }
+
+    /**
+     * Returns the size of one index in bytes.
+     */
+    private int indexBytes() {
+        return indexType == GLES20.GL_UNSIGNED_BYTE ? 1 : 2;
+    }
+
+    /**
+     * Internal method to pack indices into the smallest type that can address every vertex.
+     *
+     * @param indices        The indices to pack.
+     * @param vertexCount    The number of vertices the indices refer to.
+     * @param indexType      Either GLES20.GL_UNSIGNED_BYTE or GLES20.GL_UNSIGNED_SHORT.
+     * @return  A direct buffer containing the indices.
+     */
+    private static Buffer indicesAsBuffer(final int[] indices, final int vertexCount, final int indexType) {
+        if (vertexCount > MAX_SHORT_INDEX + 1) {
+            throw new RuntimeException("Tried to create an indexed mesh with " + vertexCount + " vertices; the maximum is " + (MAX_SHORT_INDEX + 1));
+        }
+
+        for (int index : indices) {
+            if (index < 0 || index >= vertexCount) {
+                throw new RuntimeException("Index " + index + " is out of range for a mesh with " + vertexCount + " vertices.");
+            }
+        }
+
+        if (indexType == GLES20.GL_UNSIGNED_BYTE) {
+            final byte[] bytes = new byte[indices.length];
+
+            for (int i = 0; i < indices.length; i++) {
+                bytes[i] = (byte) indices[i];
+            }
+
+            return Core.arrayAsBuffer(bytes);
+        }
+
+        final short[] shorts = new short[indices.length];
+
+        for (int i = 0; i < indices.length; i++) {
+            shorts[i] = (short) indices[i];
+        }
+
+        return Core.arrayAsBuffer(shorts);
+    }
+
     // defines a default mesh covering the entire view
     protected static final float[] DEFAULT_COORDS = {
             -1.0f,  1.0f, 0.0f,
@@ -100,4 +304,30 @@ public class Mesh implements Drawable {
     public static final int VERTEX_STRIDE = COORDS_PER_VERTEX * 4;
     // Standard value for a vertex shader's position variable.
     public static final String A_POSITION = "a_Position";
+    // Standard value for a vertex shader's normal variable.
+    public static final String A_NORMAL = "a_Normal";
+    // Standard value for a vertex shader's per-vertex color variable.
+    public static final String A_COLOR = "a_Color";
+    // The largest index that fits in an unsigned byte or unsigned short index.
+    private static final int MAX_BYTE_INDEX = 0xFF;
+    private static final int MAX_SHORT_INDEX = 0xFFFF;
+
+    /**
+     * The ways in which vertices can be assembled into shapes.
+     */
+    public enum Primitive {
+        POINTS(GLES20.GL_POINTS),
+        LINES(GLES20.GL_LINES),
+        LINE_STRIP(GLES20.GL_LINE_STRIP),
+        LINE_LOOP(GLES20.GL_LINE_LOOP),
+        TRIANGLES(GLES20.GL_TRIANGLES),
+        TRIANGLE_STRIP(GLES20.GL_TRIANGLE_STRIP),
+        TRIANGLE_FAN(GLES20.GL_TRIANGLE_FAN);
+
+        public final int glValue;
+
+        Primitive(final int glValue) {
+            this.glValue = glValue;
+        }
+    }
 }
@@ -0,0 +1,286 @@
+package com.floatlearning.fl3d;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts pixels read from OpenGL into the format Android bitmaps use, without allocating frame-sized arrays.
+ *
+ * glReadPixels returns RGBA bytes with the bottom row first. Read as little-endian ints, that is 0xAABBGGRR, while
+ * Bitmap wants 0xAARRGGBB with the top row first. Each conversion swaps red and blue and flips the rows in one pass,
+ * copying a row at a time so each is still in cache while it is swizzled. Large frames are split into bands of rows
+ * converted in parallel. Arrays can be borrowed from a small shared pool, to avoid a frame-sized allocation per read.
+ *
+ * Pure Java, so it can be used from any thread.
+ */
+public class PixelConverter {
+    /**
+     * Arrays returned with recycle(), waiting to be reused.
+     */
+    private static final ArrayList<int[]> pool = new ArrayList<int[]>();
+    /**
+     * Converts bands of large frames; created the first time it's needed.
+     */
+    private static ExecutorService executor;
+
+    /**
+     * Convert RGBA pixels to ARGB, flipping the rows if asked. Frames of PARALLEL_THRESHOLD pixels or more are converted
+     * in parallel bands.
+     *
+     * @param rgba      The pixels from glReadPixels, as native-order ints, starting at index 0.
+     * @param argb      Receives the converted pixels; must hold at least width * height.
+     * @param width     The width of the frame.
+     * @param height    The height of the frame.
+     * @param flip      Whether to reverse the order of the rows, such as to turn OpenGL's bottom-up rows top-down.
+     */
+    public static void rgbaToArgb(final IntBuffer rgba, final int[] argb, final int width, final int height, final boolean flip) {
+        checkSize(argb, width, height);
+
+        if (width * height >= PARALLEL_THRESHOLD && getCores() > 1) {
+            rgbaToArgb(rgba, argb, width, height, flip, getExecutor(), getCores());
+        } else {
+            convertRows(rgba, argb, width, height, flip, 0, height);
+        }
+    }
+
+    /**
+     * Convert RGBA pixels to ARGB in parallel bands of rows, flipping the rows if asked.
+     *
+     * @param rgba      The pixels from glReadPixels, as native-order ints, starting at index 0.
+     * @param argb      Receives the converted pixels; must hold at least width * height.
+     * @param width     The width of the frame.
+     * @param height    The height of the frame.
+     * @param flip      Whether to reverse the order of the rows.
+     * @param executor  The executor to convert bands on.
+     * @param bands     The number of bands to split the rows into, such as the number of cores.
+     */
+    public static void rgbaToArgb(final IntBuffer rgba, final int[] argb, final int width, final int height, final boolean flip,
+                                  final ExecutorService executor, final int bands) {
+        checkSize(argb, width, height);
+
+        final int count = Math.max(1, Math.min(bands, height));
+        final ArrayList<Future<Void>> results = new ArrayList<Future<Void>>(count);
+
+        for (int i = 0; i < count; i++) {
+            final int first = height * i / count;
+            final int last = height * (i + 1) / count;
+
+            // each band needs its own position in the buffer
+            final IntBuffer band = rgba.duplicate();
+
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    convertRows(band, argb, width, height, flip, first, last);
+                    return null;
+                }
+            }));
+        }
+
+        await(results);
+    }
+
+    /**
+     * Convert RGBA pixels to ARGB within the same array, such as one glReadPixels wrote to directly, flipping the rows if
+     * asked. Frames of PARALLEL_THRESHOLD pixels or more are converted in parallel bands.
+     *
+     * @param pixels    The pixels to convert; must hold at least width * height.
+     * @param width     The width of the frame.
+     * @param height    The height of the frame.
+     * @param flip      Whether to reverse the order of the rows.
+     */
+    public static void rgbaToArgbInPlace(final int[] pixels, final int width, final int height, final boolean flip) {
+        checkSize(pixels, width, height);
+
+        // rows are converted in pairs from the top and bottom, with the middle row on its own if the height is odd
+        final int pairs = (height + 1) / 2;
+        final int count = width * height >= PARALLEL_THRESHOLD ? Math.min(getCores(), pairs) : 1;
+
+        if (count <= 1) {
+            convertRowPairs(pixels, width, height, flip, 0, pairs, new int[width]);
+            return;
+        }
+
+        final ArrayList<Future<Void>> results = new ArrayList<Future<Void>>(count);
+
+        for (int i = 0; i < count; i++) {
+            final int first = pairs * i / count;
+            final int last = pairs * (i + 1) / count;
+
+            results.add(getExecutor().submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    convertRowPairs(pixels, width, height, flip, first, last, new int[width]);
+                    return null;
+                }
+            }));
+        }
+
+        await(results);
+    }
+
+    /**
+     * Returns an RGBA pixel, as a native-order int from glReadPixels, as an ARGB color.
+     *
+     * @param rgba  The pixel, 0xAABBGGRR.
+     * @return  The color, 0xAARRGGBB.
+     */
+    public static int swizzle(final int rgba) {
+        return (rgba & 0xFF00FF00) | ((rgba >> 16) & 0x000000FF) | ((rgba << 16) & 0x00FF0000);
+    }
+
+    /**
+     * Borrow an array of at least the given size from the shared pool, or allocate one if none is big enough.
+     * Return it with recycle() when done. Its contents are undefined.
+     *
+     * @param size  The number of pixels needed.
+     */
+    public static int[] obtain(final int size) {
+        synchronized (pool) {
+            for (int i = 0; i < pool.size(); i++) {
+                if (pool.get(i).length >= size) {
+                    return pool.remove(i);
+                }
+            }
+        }
+
+        return new int[size];
+    }
+
+    /**
+     * Return an array to the shared pool. If the pool is full, the smallest array is let go.
+     *
+     * @param array     An array which is no longer used, such as one from obtain().
+     */
+    public static void recycle(final int[] array) {
+        synchronized (pool) {
+            pool.add(array);
+
+            if (pool.size() > MAX_POOLED) {
+                int smallest = 0;
+
+                for (int i = 1; i < pool.size(); i++) {
+                    if (pool.get(i).length < pool.get(smallest).length) {
+                        smallest = i;
+                    }
+                }
+
+                pool.remove(smallest);
+            }
+        }
+    }
+
+    /**
+     * Internal method to convert rows [first, last) of the output from a buffer.
+     */
+    private static void convertRows(final IntBuffer rgba, final int[] argb, final int width, final int height,
+                                    final boolean flip, final int first, final int last) {
+        for (int y = first; y < last; y++) {
+            final int offset = y * width;
+
+            // a bulk get copies the row at memory speed; the swizzle then runs on it in cache
+            rgba.position((flip ? height - 1 - y : y) * width);
+            rgba.get(argb, offset, width);
+            swizzleRow(argb, offset, width);
+        }
+    }
+
+    /**
+     * Internal method to convert pairs of rows [first, last) in place, where pair y is row y and row height - 1 - y.
+     */
+    private static void convertRowPairs(final int[] pixels, final int width, final int height, final boolean flip,
+                                        final int first, final int last, final int[] row) {
+        for (int y = first; y < last; y++) {
+            final int top = y * width;
+            final int bottom = (height - 1 - y) * width;
+
+            if (top == bottom || !flip) {
+                swizzleRow(pixels, top, width);
+
+                if (top != bottom) {
+                    swizzleRow(pixels, bottom, width);
+                }
+            } else {
+                System.arraycopy(pixels, top, row, 0, width);
+                System.arraycopy(pixels, bottom, pixels, top, width);
+                System.arraycopy(row, 0, pixels, bottom, width);
+                swizzleRow(pixels, top, width);
+                swizzleRow(pixels, bottom, width);
+            }
+        }
+    }
+
+    /**
+     * Internal method to swizzle one row of pixels in place.
+     */
+    private static void swizzleRow(final int[] pixels, final int offset, final int width) {
+        for (int i = offset, end = offset + width; i < end; i++) {
+            pixels[i] = swizzle(pixels[i]);
+        }
+    }
+
+    /**
+     * Internal method to verify an array can hold a frame.
+     */
+    private static void checkSize(final int[] pixels, final int width, final int height) {
+        if (pixels.length < width * height) {
+            throw new RuntimeException("An array of " + pixels.length + " can't hold " + width + "x" + height + " pixels.");
+        }
+    }
+
+    /**
+     * Internal method to wait for every band to finish.
+     */
+    private static void await(final ArrayList<Future<Void>> results) {
+        try {
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while converting pixels");
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to convert pixels: " + e.getCause());
+        }
+    }
+
+    /**
+     * Internal method to get the number of cores to split large frames across.
+     */
+    private static int getCores() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Internal method to get the shared executor, creating it the first time.
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(getCores(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, TAG + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return executor;
+    }
+
+    // below this many pixels, handing bands to other threads costs more than it saves
+    public static final int PARALLEL_THRESHOLD = 256 * 256;
+    // the most arrays the shared pool keeps
+    private static final int MAX_POOLED = 4;
+    private static final String TAG = PixelConverter.class.getSimpleName();
+}
@@ -3,10 +3,14 @@ package com.floatlearning.fl3d;
 import android.content.res.Resources;
 import android.opengl.GLES20;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.floatlearning.fl3d.interfaces.Bindable;
 
+import java.nio.Buffer;
 import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Manages an OpenGL program, which in turn manages GLSL code and shaders.
@@ -25,33 +29,124 @@ public class Program implements Bindable {
      */
     private final boolean hasTexelFields;
     /**
-     * Whether or not this program is bound to the OpenGL context.
+     * Active uniforms in this program, by name. Populated once, after linking.
      */
-    private boolean bound = false;
+    private final HashMap<String, Uniform> uniforms = new HashMap<String, Uniform>();
+    /**
+     * Active uniforms in this program, by location. Used by the location-based setters.
+     */
+    private final SparseArray<Uniform> uniformsByLocation = new SparseArray<Uniform>();
+    /**
+     * Locations of the active attributes in this program, by name. Populated once, after linking.
+     */
+    private final HashMap<String, Integer> attributes = new HashMap<String, Integer>();
+    /**
+     * Cached locations of the texel uniforms, or -1 if this program doesn't use them.
+     */
+    private final int texelWidthLocation;
+    private final int texelHeightLocation;
+    /**
+     * If this program is shared through ShaderRegistry, its key there, the context's registry and the
+     * number of users; otherwise null.
+     */
+    String registryKey;
+    ShaderRegistry registry;
+    int references = 0;
 
     /**
      * Create a new program with the given fragment and vertex shader code, from resources.
+     * Shaders are shared through ShaderRegistry, so each resource is only compiled once; to share the linked
+     * program too, use ShaderRegistry.acquireProgram() instead.
      *
      * @param resources     A reference to this application's resources.
      * @param shaderIDs    The resource IDs of shader code to use.
      */
     public Program(final Resources resources, final int... shaderIDs) {
-        final int len = shaderIDs.length;
+        this(resources, null, shaderIDs);
+    }
+
+    /**
+     * Create a new program from shader resources, each compiled with the given macros defined; see ShaderPreprocessor.
+     *
+     * @param resources    A reference to this application's resources.
+     * @param defines      Macro names and values to define in every shader, or null for none.
+     * @param shaderIDs    The resource IDs of shader code to use.
+     */
+    public Program(final Resources resources, final Map<String, String> defines, final int... shaderIDs) {
+        this(acquireShaders(resources, defines, shaderIDs));
+    }
+
+    /**
+     * Create a new program from compiled shaders, such as one whose source was generated at runtime.
+     * The program takes ownership of the shaders, and disposes them when it is disposed.
+     *
+     * @param shaders    The fragment and vertex shaders to link.
+     */
+    public Program(final Shader... shaders) {
         boolean texels = false;
-        shaders = new Shader[len];
+        this.shaders = shaders;
 
-        for (int i = 0; i < len; i++) {
-            shaders[i] = new Shader(resources, shaderIDs[i]);
-            texels = shaders[i].hasTexelFields || texels;
+        for (Shader shader : shaders) {
+            texels = shader.hasTexelFields || texels;
         }
 
         hasTexelFields = texels;
         handle = programWithShaders(shaders);
 
+        // look up every uniform and attribute now, rather than by name on every frame
+        introspect();
+        texelWidthLocation = getUniformLocation(Shader.UNIFORM_TEXELWIDTH);
+        texelHeightLocation = getUniformLocation(Shader.UNIFORM_TEXELHEIGHT);
+
         // verify that shaders and program are valid
         Core.assertStatus();
     }
 
+    /**
+     * Internal method to get shared shaders for each resource.
+     */
+    private static Shader[] acquireShaders(final Resources resources, final Map<String, String> defines, final int... shaderIDs) {
+        final Shader[] result = new Shader[shaderIDs.length];
+
+        for (int i = 0; i < shaderIDs.length; i++) {
+            result[i] = ShaderRegistry.acquireShader(resources, shaderIDs[i], defines);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the location of a uniform in this program, without querying OpenGL.
+     *
+     * @param uniformName    The name of the uniform, e.g. "u_Color".
+     * @return  The location of the uniform, or -1 if this program has no such active uniform.
+     */
+    public int getUniformLocation(final String uniformName) {
+        final Uniform uniform = uniforms.get(uniformName);
+        return uniform == null ? -1 : uniform.location;
+    }
+
+    /**
+     * Returns the location of an attribute in this program, without querying OpenGL.
+     *
+     * @param attribName    The name of the attribute, e.g. "a_Position".
+     * @return  The location of the attribute, or -1 if this program has no such active attribute.
+     */
+    public int getAttribLocation(final String attribName) {
+        final Integer location = attributes.get(attribName);
+        return location == null ? -1 : location;
+    }
+
+    /**
+     * Returns the description of an active uniform in this program.
+     *
+     * @param uniformName    The name of the uniform, e.g. "u_Color".
+     * @return  The uniform, or null if this program has no such active uniform.
+     */
+    public Uniform getUniform(final String uniformName) {
+        return uniforms.get(uniformName);
+    }
+
     /**
      * Safely set texel values for this program, but only if the shader source code has texel properties.
      *
@@ -60,8 +155,8 @@ public class Program implements Bindable {
      */
     public void setTexels(final float screenWidth, final float screenHeight) {
         if (hasTexelFields) {
-            setValue(Shader.UNIFORM_TEXELWIDTH, 1.0f / screenWidth);
-            setValue(Shader.UNIFORM_TEXELHEIGHT, 1.0f / screenHeight);
+            setValue(texelWidthLocation, 1.0f / screenWidth);
+            setValue(texelHeightLocation, 1.0f / screenHeight);
         }
     }
 
@@ -72,12 +167,25 @@ public class Program implements Bindable {
      * @param value        The value to send to the GPU.
      */
     public void setValue(final String valueName, final float value) {
-        if (!bound) {
+        if (!isBound()) {
             throw new RuntimeException("Tried to set " + valueName + " to " + value + " on an unbound program.");
         }
 
-        final int valueHandle = getLocation(valueName);
-        GLES20.glUniform1f(valueHandle, value);
+        setValue(getUniformLocation(valueName), value);
+    }
+
+    /**
+     * Sets an integer value in the current program, such as a sampler's texture unit.
+     *
+     * @param valueName    The name of the value to set, e.g. "u_Texture".
+     * @param value        The value to send to the GPU.
+     */
+    public void setInteger(final String valueName, final int value) {
+        if (!isBound()) {
+            throw new RuntimeException("Tried to set " + valueName + " to " + value + " on an unbound program.");
+        }
+
+        setInteger(getUniformLocation(valueName), value);
     }
 
     /**
@@ -87,12 +195,136 @@ public class Program implements Bindable {
      * @param value        The value to send to the GPU.
      */
     public void setValue(final String valueName, final float[] value) {
-        if (!bound) {
+        if (!isBound()) {
             throw new RuntimeException("Tried to set " + valueName + " on an unbound program.");
         }
 
-        final int valueHandle = getLocation(valueName);
-        GLES20.glUniform4fv(valueHandle, 1, value, 0);
+        setValue(getUniformLocation(valueName), value);
+    }
+
+    /**
+     * Sets a float value by uniform location. Skipped if the uniform already has this value.
+     *
+     * @param location    The location of the uniform, from getUniformLocation(). Ignored if -1.
+     * @param value       The value to send to the GPU.
+     */
+    public void setValue(final int location, final float value) {
+        final Uniform uniform = uniformForLocation(location);
+
+        if (uniform != null && uniform.update(value)) {
+            GLES20.glUniform1f(location, value);
+        }
+    }
+
+    /**
+     * Sets a vec2 value by uniform location. Skipped if the uniform already has this value.
+     *
+     * @param location    The location of the uniform, from getUniformLocation(). Ignored if -1.
+     * @param x           The first component to send to the GPU.
+     * @param y           The second component to send to the GPU.
+     */
+    public void setValue(final int location, final float x, final float y) {
+        final Uniform uniform = uniformForLocation(location);
+
+        if (uniform != null && uniform.update(x, y)) {
+            GLES20.glUniform2f(location, x, y);
+        }
+    }
+
+    /**
+     * Sets a vector, matrix, or array value by uniform location, according to the uniform's type. Integer, boolean and
+     * sampler uniforms are sent as integers. Skipped if the uniform already has this value.
+     *
+     * @param location    The location of the uniform, from getUniformLocation(). Ignored if -1.
+     * @param value       The value to send to the GPU; must hold at least one complete element.
+     */
+    public void setValue(final int location, final float[] value) {
+        final Uniform uniform = uniformForLocation(location);
+
+        if (uniform == null) {
+            return;
+        }
+
+        final int components = uniform.getComponentCount();
+
+        if (value.length < components) {
+            throw new RuntimeException("Tried to set " + uniform.name + " to " + value.length + " values, but each element needs "
+                    + components + ".");
+        }
+
+        final int count = Math.min(uniform.size, value.length / components);
+
+        if (!uniform.update(value, count * components)) {
+            return;
+        }
+
+        switch (uniform.type) {
+            case GLES20.GL_FLOAT:
+                GLES20.glUniform1fv(location, count, value, 0);
+                break;
+            case GLES20.GL_FLOAT_VEC2:
+                GLES20.glUniform2fv(location, count, value, 0);
+                break;
+            case GLES20.GL_FLOAT_VEC3:
+                GLES20.glUniform3fv(location, count, value, 0);
+                break;
+            case GLES20.GL_FLOAT_MAT2:
+                GLES20.glUniformMatrix2fv(location, count, false, value, 0);
+                break;
+            case GLES20.GL_FLOAT_MAT3:
+                GLES20.glUniformMatrix3fv(location, count, false, value, 0);
+                break;
+            case GLES20.GL_FLOAT_MAT4:
+                GLES20.glUniformMatrix4fv(location, count, false, value, 0);
+                break;
+            case GLES20.GL_FLOAT_VEC4:
+                GLES20.glUniform4fv(location, count, value, 0);
+                break;
+            default:
+                // the float functions can't set any other type
+                setIntegers(location, components, count, value);
+                break;
+        }
+    }
+
+    /**
+     * Internal method to send values to an integer, boolean or sampler uniform.
+     */
+    private static void setIntegers(final int location, final int components, final int count, final float[] value) {
+        final int[] integers = new int[count * components];
+
+        for (int i = 0; i < integers.length; i++) {
+            integers[i] = (int) value[i];
+        }
+
+        switch (components) {
+            case 2:
+                GLES20.glUniform2iv(location, count, integers, 0);
+                break;
+            case 3:
+                GLES20.glUniform3iv(location, count, integers, 0);
+                break;
+            case 4:
+                GLES20.glUniform4iv(location, count, integers, 0);
+                break;
+            default:
+                GLES20.glUniform1iv(location, count, integers, 0);
+                break;
+        }
+    }
+
+    /**
+     * Sets an integer or sampler value by uniform location. Skipped if the uniform already has this value.
+     *
+     * @param location    The location of the uniform, from getUniformLocation(). Ignored if -1.
+     * @param value       The value to send to the GPU.
+     */
+    public void setInteger(final int location, final int value) {
+        final Uniform uniform = uniformForLocation(location);
+
+        if (uniform != null && uniform.update(value)) {
+            GLES20.glUniform1i(location, value);
+        }
     }
 
     /**
@@ -102,13 +334,60 @@ public class Program implements Bindable {
      * @param value        The value to send to the GPU.
      */
     public void setValue(final String valueName, final FloatBuffer value) {
-        if (!bound) {
+        if (!isBound()) {
             throw new RuntimeException("Tried to set " + valueName + " on an unbound program.");
         }
 
-        final int positionHandle = GLES20.glGetAttribLocation(handle, valueName);
-        GLES20.glEnableVertexAttribArray(positionHandle);
-        GLES20.glVertexAttribPointer(positionHandle, Mesh.COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, Mesh.VERTEX_STRIDE, value);
+        setAttribute(getAttribLocation(valueName), Mesh.COORDS_PER_VERTEX, value);
+    }
+
+    /**
+     * Point a vertex attribute at a buffer object in the GPU, such as a position attribute in a vertex shader.
+     *
+     * @param valueName    The value to modify in the GPU, e.g. "a_Position".
+     * @param value        The buffer object holding the values, with three floats per vertex.
+     */
+    public void setValue(final String valueName, final BufferObject value) {
+        if (!isBound()) {
+            throw new RuntimeException("Tried to set " + valueName + " on an unbound program.");
+        }
+
+        setAttribute(getAttribLocation(valueName), Mesh.COORDS_PER_VERTEX, value);
+    }
+
+    /**
+     * Point a vertex attribute at tightly-packed float values in client memory, which are copied on every draw.
+     *
+     * @param location      The location of the attribute, from getAttribLocation(). Ignored if -1.
+     * @param components    The number of floats per vertex, e.g. 2 for texture coordinates.
+     * @param value         The values to send to the GPU.
+     */
+    public void setAttribute(final int location, final int components, final FloatBuffer value) {
+        if (location < 0) {
+            return;
+        }
+
+        // client-side pointers are only used when no buffer object is bound
+        GLState.bindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLState.enableVertexAttribArray(location);
+        GLES20.glVertexAttribPointer(location, components, GLES20.GL_FLOAT, false, components * 4, value);
+    }
+
+    /**
+     * Point a vertex attribute at tightly-packed float values in a buffer object, which are already in the GPU.
+     *
+     * @param location      The location of the attribute, from getAttribLocation(). Ignored if -1.
+     * @param components    The number of floats per vertex, e.g. 2 for texture coordinates.
+     * @param value         The buffer object holding the values.
+     */
+    public void setAttribute(final int location, final int components, final BufferObject value) {
+        if (location < 0) {
+            return;
+        }
+
+        value.bind();
+        GLState.enableVertexAttribArray(location);
+        GLES20.glVertexAttribPointer(location, components, GLES20.GL_FLOAT, false, components * 4, 0);
     }
 
     /**
@@ -123,6 +402,55 @@ public class Program implements Bindable {
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, vertexCount);
     }
 
+    /**
+     * Point the position values at a buffer object in the GPU and draw triangles.
+     *
+     * @param valueName      The value to modify in the GPU.
+     * @param value          The buffer object holding the vertex positions.
+     * @param vertexCount    The vertex count for the provided buffer object.
+     */
+    public void drawArrays(final String valueName, final BufferObject value, final int vertexCount) {
+        setValue(valueName, value);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, vertexCount);
+    }
+
+    /**
+     * Draw vertices in order, using attributes that have already been set.
+     *
+     * @param mode           The primitive type, e.g. GLES20.GL_TRIANGLES.
+     * @param vertexCount    The number of vertices to draw.
+     */
+    public void drawArrays(final int mode, final int vertexCount) {
+        GLES20.glDrawArrays(mode, 0, vertexCount);
+    }
+
+    /**
+     * Draw vertices by index from client memory, using attributes that have already been set.
+     *
+     * @param mode          The primitive type, e.g. GLES20.GL_TRIANGLES.
+     * @param indexCount    The number of indices to draw.
+     * @param indexType     Either GLES20.GL_UNSIGNED_BYTE or GLES20.GL_UNSIGNED_SHORT.
+     * @param indices       The indices to draw.
+     */
+    public void drawElements(final int mode, final int indexCount, final int indexType, final Buffer indices) {
+        // client-side indices are only used when no buffer object is bound
+        GLState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        GLES20.glDrawElements(mode, indexCount, indexType, indices);
+    }
+
+    /**
+     * Draw vertices by index from a buffer object, using attributes that have already been set.
+     *
+     * @param mode          The primitive type, e.g. GLES20.GL_TRIANGLES.
+     * @param indexCount    The number of indices to draw.
+     * @param indexType     Either GLES20.GL_UNSIGNED_BYTE or GLES20.GL_UNSIGNED_SHORT.
+     * @param indices       The buffer object holding the indices.
+     */
+    public void drawElements(final int mode, final int indexCount, final int indexType, final BufferObject indices) {
+        indices.bind();
+        GLES20.glDrawElements(mode, indexCount, indexType, 0);
+    }
+
     /**
      * Returns a float value from the current program.
      *
@@ -130,11 +458,11 @@ public class Program implements Bindable {
      * @return  The value sent from the GPU.
      */
     public float getValue(final String valueName) {
-        if (!bound) {
+        if (!isBound()) {
             throw new RuntimeException("Tried to get " + valueName + " from an inactive program.");
         }
 
-        final int valueHandle = getLocation(valueName);
+        final int valueHandle = getUniformLocation(valueName);
         final float[] results = new float[1];
         GLES20.glGetUniformfv(handle, valueHandle, results, 0);
 
@@ -148,11 +476,11 @@ public class Program implements Bindable {
      * @return  The value sent from the GPU.
      */
     public float[] getValue(final String valueName, final int length) {
-        if (!bound) {
+        if (!isBound()) {
             throw new RuntimeException("Tried to get " + valueName + " from an inactive program");
         }
 
-        final int valueHandle = getLocation(valueName);
+        final int valueHandle = getUniformLocation(valueName);
         final float[] results = new float[length];
         GLES20.glGetUniformfv(handle, valueHandle, results, 0);
 
@@ -164,10 +492,7 @@ public class Program implements Bindable {
      */
     @Override
     public void bind() {
-        if (!bound) {
-            GLES20.glUseProgram(handle);
-            bound = true;
-        }
+        GLState.useProgram(handle);
     }
 
     /**
@@ -175,26 +500,75 @@ public class Program implements Bindable {
      */
     @Override
     public void unbind() {
-        if (bound) {
-            GLES20.glUseProgram(0);
-            bound = false;
+        if (isBound()) {
+            GLState.useProgram(0);
         }
     }
 
     /**
-     * Internal method to get a handle for a GLSL variable, regardless of uniform or attrib type.
+     * Whether or not this program is the one in use by the OpenGL context.
+     */
+    public boolean isBound() {
+        return GLState.getProgram() == handle;
+    }
+
+    /**
+     * Internal method to find the uniform at a location, verifying that this program is bound.
      *
-     * @param valueName    The name of the value to get; assumes prefix of `u` for uniform, `a` for attrib.
-     * @return  The handle to the named value.
+     * @param location    The location of the uniform.
+     * @return  The uniform, or null if the location is -1 or not an active uniform.
+     */
+    private Uniform uniformForLocation(final int location) {
+        if (!isBound()) {
+            throw new RuntimeException("Tried to set uniform at location " + location + " on an unbound program.");
+        }
+
+        return location < 0 ? null : uniformsByLocation.get(location);
+    }
+
+    /**
+     * Internal method to query every active uniform and attribute in this program, once, after linking.
      */
-    private int getLocation(final String valueName) {
-        if (valueName.charAt(0) == 'u') {
-            return GLES20.glGetUniformLocation(handle, valueName);
-        } else {
-            return GLES20.glGetAttribLocation(handle, valueName);
+    private void introspect() {
+        final int[] count = new int[1];
+        final int[] maxLength = new int[1];
+        final int[] length = new int[1];
+        final int[] size = new int[1];
+        final int[] type = new int[1];
+
+        GLES20.glGetProgramiv(handle, GLES20.GL_ACTIVE_UNIFORM_MAX_LENGTH, maxLength, 0);
+        GLES20.glGetProgramiv(handle, GLES20.GL_ACTIVE_UNIFORMS, count, 0);
+        byte[] nameBytes = new byte[Math.max(maxLength[0], 1)];
+
+        for (int i = 0; i < count[0]; i++) {
+            GLES20.glGetActiveUniform(handle, i, nameBytes.length, length, 0, size, 0, type, 0, nameBytes, 0);
+            final String name = stripArraySuffix(new String(nameBytes, 0, length[0]));
+            final Uniform uniform = new Uniform(name, GLES20.glGetUniformLocation(handle, name), type[0], size[0]);
+
+            uniforms.put(name, uniform);
+            uniformsByLocation.put(uniform.location, uniform);
+        }
+
+        GLES20.glGetProgramiv(handle, GLES20.GL_ACTIVE_ATTRIBUTE_MAX_LENGTH, maxLength, 0);
+        GLES20.glGetProgramiv(handle, GLES20.GL_ACTIVE_ATTRIBUTES, count, 0);
+        nameBytes = new byte[Math.max(maxLength[0], 1)];
+
+        for (int i = 0; i < count[0]; i++) {
+            GLES20.glGetActiveAttrib(handle, i, nameBytes.length, length, 0, size, 0, type, 0, nameBytes, 0);
+            final String name = new String(nameBytes, 0, length[0]);
+
+            attributes.put(name, GLES20.glGetAttribLocation(handle, name));
         }
     }
 
+    /**
+     * Array uniforms are reported as e.g. "u_Weights[0]"; returns the name without the index.
+     */
+    private static String stripArraySuffix(final String name) {
+        final int bracket = name.indexOf('[');
+        return bracket < 0 ? name : name.substring(0, bracket);
+    }
+
     /**
      * Internal method to generate a program handle from given shaders.
      *
@@ -228,12 +602,20 @@ public class Program implements Bindable {
         return program;
     }
 
+    /**
+     * Delete this program and release its shaders, or if it is shared through ShaderRegistry, give up this reference to it.
+     */
     @Override
     public void dispose() {
-        for (Shader s : shaders) {
-            s.dispose();
+        if (registryKey != null && !ShaderRegistry.release(this)) {
+            return;
         }
 
         GLES20.glDeleteProgram(handle);
+        GLState.forgetProgram(handle);
+
+        for (Shader s : shaders) {
+            s.dispose();
+        }
     }
 }
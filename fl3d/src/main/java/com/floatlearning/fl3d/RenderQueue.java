@@ -0,0 +1,352 @@
+package com.floatlearning.fl3d;
+
+import com.floatlearning.fl3d.interfaces.Drawable;
+
+import java.util.Arrays;
+
+/**
+ * Collects draws for a frame and executes them in an order that minimizes state changes.
+ * Each draw is given a 64-bit sort key, and the keys are radix sorted when the queue is executed.
+ *
+ * From most to least significant, a key holds:
+ *     layer (8 bits)         Draws to a frame buffer should use a lower layer than draws which read from it.
+ *     target (4 bits)        Groups draws to the same frame buffer within a layer, so each is bound once.
+ *     translucent (1 bit)    Opaque draws come before translucent ones for a target.
+ *     For opaque draws:      program (12 bits), texture (12 bits), depth (24 bits, nearest first).
+ *     For translucent draws: depth (24 bits, farthest first), program (12 bits), texture (12 bits).
+ *     user bits (3 bits)     Free for the caller; zero when using submit() with separate fields.
+ *
+ * Each frame buffer sets the viewport to its own size when bound. After the last draw, the display is bound again
+ * with the viewport covering it, and the last program is unbound.
+ *
+ * The sort is stable, so draws with equal keys are executed in the order they were submitted.
+ *
+ * Must only be used on the GL thread.
+ */
+public class RenderQueue {
+    /**
+     * Sort keys of the submitted draws.
+     */
+    private long[] keys;
+    /**
+     * Index of each submitted draw, moved along with its key while sorting.
+     */
+    private int[] order;
+    /**
+     * Scratch space for the radix sort.
+     */
+    private long[] scratchKeys;
+    private int[] scratchOrder;
+    private final int[] histogram = new int[RADIX];
+    /**
+     * The submitted draws, by submission index.
+     */
+    private Drawable[] drawables;
+    private Program[] programs;
+    private FrameBuffer[] targets;
+    /**
+     * The number of draws submitted since the last execute().
+     */
+    private int count = 0;
+    /**
+     * The number of program and frame buffer changes made by the last execute().
+     */
+    private int stateChanges = 0;
+
+    /**
+     * Create a new, empty render queue.
+     */
+    public RenderQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a new, empty render queue with room for the given number of draws before it needs to grow.
+     *
+     * @param capacity    The initial number of draws to allocate for.
+     */
+    public RenderQueue(final int capacity) {
+        allocate(Math.max(capacity, 1));
+    }
+
+    /**
+     * Add a draw to the queue.
+     *
+     * @param layer          The layer to draw in, from 0 - 255; lower layers are drawn first.
+     * @param target         The frame buffer to draw to, or null for the display.
+     * @param program        The program to draw with.
+     * @param texture        The main texture the drawable binds, or null; used only to group draws.
+     * @param depth          The distance from the viewer, from zero (nearest) to one (farthest).
+     * @param translucent    Whether this draw blends with what's behind it, and so must be drawn back to front.
+     * @param drawable       The object to draw.
+     */
+    public void submit(final int layer, final FrameBuffer target, final Program program, final Texture texture,
+                       final float depth, final boolean translucent, final Drawable drawable) {
+        final int texHandle = texture == null ? 0 : texture.handle;
+        final int targetHandle = target == null ? 0 : target.handle;
+        submit(makeKey(layer, targetHandle, translucent, program.handle, texHandle, depth, 0), target, program, drawable);
+    }
+
+    /**
+     * Add a draw to the queue with a key that was already computed, such as with makeKey().
+     *
+     * @param key         The sort key for this draw.
+     * @param target      The frame buffer to draw to, or null for the display.
+     * @param program     The program to draw with.
+     * @param drawable    The object to draw.
+     */
+    public void submit(final long key, final FrameBuffer target, final Program program, final Drawable drawable) {
+        if (count == keys.length) {
+            grow();
+        }
+
+        keys[count] = key;
+        order[count] = count;
+        targets[count] = target;
+        programs[count] = program;
+        drawables[count] = drawable;
+        count++;
+    }
+
+    /**
+     * Sort the submitted draws, draw them, and empty the queue.
+     * Frame buffers and programs are only changed when the next draw needs a different one.
+     *
+     * @param displayWidth     The width of the display, for the viewport of draws to it and after the queue.
+     * @param displayHeight    The height of the display.
+     */
+    public void execute(final int displayWidth, final int displayHeight) {
+        sort(keys, order, count, scratchKeys, scratchOrder, histogram);
+
+        FrameBuffer currentTarget = null;
+        Program currentProgram = null;
+        boolean first = true;
+        stateChanges = 0;
+
+        for (int i = 0; i < count; i++) {
+            final int index = order[i];
+            final FrameBuffer target = targets[index];
+            final Program program = programs[index];
+
+            if (first || target != currentTarget) {
+                if (target == null) {
+                    GLState.bindFramebuffer(0);
+                    GLState.viewport(0, 0, displayWidth, displayHeight);
+                } else {
+                    target.bind();
+                }
+
+                currentTarget = target;
+                stateChanges++;
+            }
+
+            if (first || program != currentProgram) {
+                program.bind();
+                currentProgram = program;
+                stateChanges++;
+            }
+
+            first = false;
+
+            final Drawable drawable = drawables[index];
+            drawable.draw(program);
+            drawable.cleanup(program);
+        }
+
+        // leave the context as the caller had it: drawing to the display, with no program of the queue's bound
+        if (currentProgram != null) {
+            currentProgram.unbind();
+        }
+
+        if (currentTarget != null) {
+            GLState.bindFramebuffer(0);
+            GLState.viewport(0, 0, displayWidth, displayHeight);
+        }
+
+        clear();
+    }
+
+    /**
+     * Empty the queue without drawing anything.
+     */
+    public void clear() {
+        // release references so that disposed objects aren't kept alive by the queue
+        Arrays.fill(drawables, 0, count, null);
+        Arrays.fill(programs, 0, count, null);
+        Arrays.fill(targets, 0, count, null);
+        count = 0;
+    }
+
+    /**
+     * Returns the number of draws waiting in the queue.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns the number of frame buffer and program changes made by the last execute().
+     */
+    public int getStateChanges() {
+        return stateChanges;
+    }
+
+    /**
+     * Build a sort key using the layout described above.
+     *
+     * @param layer           The layer to draw in, from 0 - 255.
+     * @param targetId        An identifier for the frame buffer, such as its handle, or 0 for the display; only the low 4
+     *                        bits are used, so distinct frame buffers may share a group.
+     * @param translucent     Whether the draw must be sorted back to front.
+     * @param programId       An identifier for the program, such as its handle; only the low 12 bits are used.
+     * @param textureId       An identifier for the texture, such as its handle; only the low 12 bits are used.
+     * @param depth           The distance from the viewer, from zero to one.
+     * @param userBits        Any value to sort by last; only the low 3 bits are used.
+     * @return  The 64-bit sort key.
+     */
+    public static long makeKey(final int layer, final int targetId, final boolean translucent, final int programId,
+                               final int textureId, final float depth, final int userBits) {
+        final long d = quantizeDepth(depth);
+        final long state = ((long) (programId & STATE_MASK) << STATE_BITS) | (textureId & STATE_MASK);
+        long key = (long) (layer & LAYER_MASK) << LAYER_SHIFT;
+        key |= (long) (targetId & TARGET_MASK) << TARGET_SHIFT;
+
+        if (translucent) {
+            // invert depth so that farther draws sort first
+            key |= 1L << TRANSLUCENT_SHIFT;
+            key |= (DEPTH_MASK - d) << (USER_BITS + 2 * STATE_BITS);
+            key |= state << USER_BITS;
+        } else {
+            key |= state << (USER_BITS + DEPTH_BITS);
+            key |= d << USER_BITS;
+        }
+
+        return key | (userBits & USER_MASK);
+    }
+
+    /**
+     * Sort keys as unsigned 64-bit values, carrying the values along with them.
+     * This is a least-significant-digit radix sort on bytes, which is stable and skips bytes that are the same in every key.
+     *
+     * @param keys            The keys to sort; sorted in place.
+     * @param values          The values to move with the keys; sorted in place.
+     * @param count           The number of keys to sort, starting at index zero.
+     * @param scratchKeys     Temporary storage with room for at least count keys.
+     * @param scratchValues   Temporary storage with room for at least count values.
+     * @param histogram       Temporary storage for digit counts, with room for 256 values.
+     */
+    static void sort(final long[] keys, final int[] values, final int count, final long[] scratchKeys, final int[] scratchValues,
+                     final int[] histogram) {
+        if (count < 2) {
+            return;
+        }
+        long[] srcKeys = keys;
+        int[] srcValues = values;
+        long[] dstKeys = scratchKeys;
+        int[] dstValues = scratchValues;
+
+        for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+            Arrays.fill(histogram, 0);
+
+            for (int i = 0; i < count; i++) {
+                histogram[(int) (srcKeys[i] >>> shift) & RADIX_MASK]++;
+            }
+
+            // if every key has the same digit here, this pass wouldn't move anything
+            if (histogram[(int) (srcKeys[0] >>> shift) & RADIX_MASK] == count) {
+                continue;
+            }
+
+            int total = 0;
+
+            for (int i = 0; i < RADIX; i++) {
+                final int c = histogram[i];
+                histogram[i] = total;
+                total += c;
+            }
+
+            for (int i = 0; i < count; i++) {
+                final int digit = (int) (srcKeys[i] >>> shift) & RADIX_MASK;
+                final int dst = histogram[digit]++;
+                dstKeys[dst] = srcKeys[i];
+                dstValues[dst] = srcValues[i];
+            }
+
+            final long[] tk = srcKeys;
+            srcKeys = dstKeys;
+            dstKeys = tk;
+
+            final int[] tv = srcValues;
+            srcValues = dstValues;
+            dstValues = tv;
+        }
+
+        // an odd number of passes leaves the result in the scratch arrays
+        if (srcKeys != keys) {
+            System.arraycopy(srcKeys, 0, keys, 0, count);
+            System.arraycopy(srcValues, 0, values, 0, count);
+        }
+    }
+
+    /**
+     * Converts a depth from zero to one into a 24-bit integer, clamping values outside that range.
+     */
+    private static long quantizeDepth(final float depth) {
+        final float clamped = Math.max(0.0f, Math.min(1.0f, depth));
+        return (long) (clamped * DEPTH_MASK) & DEPTH_MASK;
+    }
+
+    /**
+     * Internal method to double the capacity of the queue.
+     */
+    private void grow() {
+        final int oldCount = count;
+        final long[] oldKeys = keys;
+        final int[] oldOrder = order;
+        final Drawable[] oldDrawables = drawables;
+        final Program[] oldPrograms = programs;
+        final FrameBuffer[] oldTargets = targets;
+
+        allocate(keys.length * 2);
+
+        System.arraycopy(oldKeys, 0, keys, 0, oldCount);
+        System.arraycopy(oldOrder, 0, order, 0, oldCount);
+        System.arraycopy(oldDrawables, 0, drawables, 0, oldCount);
+        System.arraycopy(oldPrograms, 0, programs, 0, oldCount);
+        System.arraycopy(oldTargets, 0, targets, 0, oldCount);
+    }
+
+    /**
+     * Internal method to allocate storage for the given number of draws.
+     */
+    private void allocate(final int capacity) {
+        keys = new long[capacity];
+        order = new int[capacity];
+        scratchKeys = new long[capacity];
+        scratchOrder = new int[capacity];
+        drawables = new Drawable[capacity];
+        programs = new Program[capacity];
+        targets = new FrameBuffer[capacity];
+    }
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    // Key layout, from least to most significant bits.
+    private static final int USER_BITS = 3;
+    private static final int STATE_BITS = 12;
+    private static final int DEPTH_BITS = 24;
+    private static final int TRANSLUCENT_SHIFT = USER_BITS + 2 * STATE_BITS + DEPTH_BITS;
+    private static final int TARGET_BITS = 4;
+    private static final int TARGET_SHIFT = TRANSLUCENT_SHIFT + 1;
+    private static final int LAYER_SHIFT = TARGET_SHIFT + TARGET_BITS;
+    private static final int USER_MASK = (1 << USER_BITS) - 1;
+    private static final int TARGET_MASK = (1 << TARGET_BITS) - 1;
+    private static final int STATE_MASK = (1 << STATE_BITS) - 1;
+    private static final long DEPTH_MASK = (1L << DEPTH_BITS) - 1;
+    private static final int LAYER_MASK = 0xFF;
+
+    // Radix sort digit size.
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+    private static final int RADIX_MASK = RADIX - 1;
+}
@@ -0,0 +1,152 @@
+package com.floatlearning.fl3d;
+
+import android.opengl.GLES20;
+
+import com.floatlearning.fl3d.interfaces.Disposable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Lends frame buffers to passes which only need them for part of a frame, such as a chain of texture filters.
+ * Frame buffers are kept by size, format and whether they have depth; a released frame buffer is handed out again
+ * to the next obtain() with the same requirements, so a steady frame allocates nothing new.
+ *
+ * Must only be used on the GL thread.
+ */
+public class RenderTargetPool implements Disposable {
+    /**
+     * Released frame buffers, by their requirements.
+     */
+    private final HashMap<Long, ArrayList<FrameBuffer>> free = new HashMap<Long, ArrayList<FrameBuffer>>();
+    /**
+     * Frame buffers which have been obtained and not yet released.
+     */
+    private final HashSet<FrameBuffer> inUse = new HashSet<FrameBuffer>();
+    /**
+     * The number of frame buffers this pool has created, for tuning.
+     */
+    private int createdCount = 0;
+    /**
+     * The number of frame buffers waiting in the free lists.
+     */
+    private int freeCount = 0;
+
+    /**
+     * Borrow an RGBA frame buffer without depth, which is what 2D image processing needs.
+     *
+     * @param width     The width of the frame buffer.
+     * @param height    The height of the frame buffer.
+     * @return  A frame buffer, which must be returned with release() and not disposed.
+     */
+    public FrameBuffer obtain(final int width, final int height) {
+        return obtain(width, height, GLES20.GL_RGBA, false);
+    }
+
+    /**
+     * Borrow a frame buffer, creating one only if none with the same requirements is free.
+     * The contents of the frame buffer are undefined; clear it or draw over all of it.
+     *
+     * @param width     The width of the frame buffer.
+     * @param height    The height of the frame buffer.
+     * @param format    The format of the color texture, either GLES20.GL_RGBA or GLES20.GL_RGB.
+     * @param depth     Whether or not the frame buffer needs a depth attachment.
+     * @return  A frame buffer, which must be returned with release() and not disposed.
+     */
+    public FrameBuffer obtain(final int width, final int height, final int format, final boolean depth) {
+        final ArrayList<FrameBuffer> list = free.get(key(width, height, format, depth));
+        final FrameBuffer frameBuffer;
+
+        if (list != null && !list.isEmpty()) {
+            frameBuffer = list.remove(list.size() - 1);
+            freeCount--;
+        } else {
+            frameBuffer = new FrameBuffer(width, height, format, depth);
+            createdCount++;
+        }
+
+        inUse.add(frameBuffer);
+        return frameBuffer;
+    }
+
+    /**
+     * Return a borrowed frame buffer to the pool, so the next obtain() can reuse it.
+     *
+     * @param frameBuffer   A frame buffer from obtain().
+     */
+    public void release(final FrameBuffer frameBuffer) {
+        if (!inUse.remove(frameBuffer)) {
+            throw new RuntimeException("Released a frame buffer which wasn't obtained from this pool.");
+        }
+
+        frameBuffer.unbind();
+
+        final Long key = key(frameBuffer.width, frameBuffer.height, frameBuffer.format, frameBuffer.hasDepth());
+        ArrayList<FrameBuffer> list = free.get(key);
+
+        if (list == null) {
+            list = new ArrayList<FrameBuffer>(2);
+            free.put(key, list);
+        }
+
+        list.add(frameBuffer);
+        freeCount++;
+    }
+
+    /**
+     * Delete every frame buffer which isn't in use, such as after the view has changed size.
+     */
+    public void trim() {
+        for (ArrayList<FrameBuffer> list : free.values()) {
+            for (FrameBuffer frameBuffer : list) {
+                frameBuffer.dispose();
+            }
+        }
+
+        free.clear();
+        freeCount = 0;
+    }
+
+    /**
+     * Returns the number of frame buffers this pool has created.
+     */
+    public int getCreatedCount() {
+        return createdCount;
+    }
+
+    /**
+     * Returns the number of frame buffers waiting to be reused.
+     */
+    public int getFreeCount() {
+        return freeCount;
+    }
+
+    /**
+     * Returns the number of frame buffers currently borrowed.
+     */
+    public int getInUseCount() {
+        return inUse.size();
+    }
+
+    /**
+     * Delete every frame buffer, including any still borrowed.
+     */
+    @Override
+    public void dispose() {
+        trim();
+
+        for (FrameBuffer frameBuffer : inUse) {
+            frameBuffer.dispose();
+        }
+
+        inUse.clear();
+    }
+
+    /**
+     * Internal method to pack the requirements of a frame buffer into a single key.
+     */
+    private static Long key(final int width, final int height, final int format, final boolean depth) {
+        return ((long) width << 40) | ((long) height << 16) | ((format & 0x7FFF) << 1) | (depth ? 1 : 0);
+    }
+}
@@ -30,6 +30,13 @@ public class Shader implements Disposable {
      * An optional name for this shader.
      */
     public final String name;
+    /**
+     * If this shader is shared through ShaderRegistry, its key there, the context's registry and the
+     * number of users; otherwise null.
+     */
+    String registryKey;
+    ShaderRegistry registry;
+    int references = 0;
 
     /**
      * Create a new shader using the given code as the source.
@@ -51,17 +58,25 @@ public class Shader implements Disposable {
     }
 
     /**
-     * Create a new shader using the code in the given resource as the source.
+     * Create a new shader using the code in the given resource as the source, with #include lines expanded.
+     * To share compiled shaders, use ShaderRegistry.acquireShader() instead.
      *
      * @param resources     This application's resource context.
      * @param resourceId    The resource ID for this shader's code, e.g. "R.raw.fragment"
      */
     public Shader(final Resources resources, final int resourceId) {
-        this(resources.getResourceEntryName(resourceId), stringFromResource(resources, resourceId));
+        this(resources.getResourceEntryName(resourceId), ShaderPreprocessor.process(resources, resourceId, null));
     }
 
+    /**
+     * Delete this shader, or if it is shared through ShaderRegistry, give up this reference to it.
+     */
     @Override
     public void dispose() {
+        if (registryKey != null && !ShaderRegistry.release(this)) {
+            return;
+        }
+
         GLES20.glDeleteShader(handle);
     }
 
@@ -100,7 +115,7 @@ public class Shader implements Disposable {
      * @param resourceId    The resource ID for this shader's code, e.g. "R.raw.fragment"
      * @return  A String representation of the contents of the resource.
      */
-    private static String stringFromResource(final Resources resources, final int resourceId) {
+    static String stringFromResource(final Resources resources, final int resourceId) {
         InputStream inputStream = resources.openRawResource(resourceId);
         InputStreamReader inputStreamReader = new InputStreamReader(inputStream);
         BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
@@ -0,0 +1,148 @@
+package com.floatlearning.fl3d;
+
+import android.content.res.Resources;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Expands shader source before it is compiled:
+ *
+ *     #include "name"    is replaced by the raw resource with that name (without its extension), such as
+ *                        "filter_header". Each resource is included at most once per shader, so includes may nest.
+ *     defines            given per variant are inserted at the top as #define lines (after #version, if present),
+ *                        so a shader can write "#ifndef SIZE / #define SIZE 1.0 / #endif" and be specialized.
+ *
+ * Sources are read through ShaderRegistry, so each resource is only read once.
+ */
+public class ShaderPreprocessor {
+    /**
+     * Returns the expanded source of a shader resource.
+     *
+     * @param resources     A reference to this application's resources.
+     * @param resourceId    The resource ID for the shader's code, e.g. "R.raw.fragment"
+     * @param defines       Macro names and values to define, or null for none. A null or empty value defines the name
+     *                      with no value.
+     * @return  GLSL source code, ready to compile.
+     */
+    public static String process(final Resources resources, final int resourceId, final Map<String, String> defines) {
+        final StringBuilder out = new StringBuilder();
+        expand(resources, resourceId, out, new HashSet<Integer>());
+        return injectDefines(out.toString(), defines);
+    }
+
+    /**
+     * Returns a string which is the same for any two maps with the same defines, in any order; empty if there are none.
+     * Used to key shader variants.
+     *
+     * @param defines    Macro names and values, or null.
+     */
+    public static String describe(final Map<String, String> defines) {
+        if (defines == null || defines.isEmpty()) {
+            return "";
+        }
+
+        final StringBuilder result = new StringBuilder();
+
+        for (Map.Entry<String, String> define : new TreeMap<String, String>(defines).entrySet()) {
+            result.append(define.getKey());
+
+            if (define.getValue() != null && !define.getValue().isEmpty()) {
+                result.append('=').append(define.getValue());
+            }
+
+            result.append(';');
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Internal method to append a resource's source to the output, replacing #include lines with their resources.
+     */
+    private static void expand(final Resources resources, final int resourceId, final StringBuilder out, final HashSet<Integer> included) {
+        if (!included.add(resourceId)) {
+            return;
+        }
+
+        final String source = ShaderRegistry.getSource(resources, resourceId);
+        int start = 0;
+
+        while (start < source.length()) {
+            int end = source.indexOf('\n', start);
+            end = end < 0 ? source.length() : end + 1;
+
+            final String line = source.substring(start, end);
+            final String trimmed = line.trim();
+
+            if (trimmed.startsWith(INCLUDE)) {
+                expand(resources, resolveInclude(resources, resourceId, trimmed), out, included);
+            } else {
+                out.append(line);
+            }
+
+            start = end;
+        }
+
+        // keep the next line of the including file on its own line
+        if (out.length() > 0 && out.charAt(out.length() - 1) != '\n') {
+            out.append('\n');
+        }
+    }
+
+    /**
+     * Internal method to find the resource named by an #include line, in the same package as the including resource.
+     */
+    private static int resolveInclude(final Resources resources, final int fromResourceId, final String line) {
+        final int open = line.indexOf('"');
+        final int close = line.lastIndexOf('"');
+
+        if (open < 0 || close <= open) {
+            throw new RuntimeException("Malformed include in " + resources.getResourceEntryName(fromResourceId) + ": " + line);
+        }
+
+        final String name = line.substring(open + 1, close);
+        final int id = resources.getIdentifier(name, "raw", resources.getResourcePackageName(fromResourceId));
+
+        if (id == 0) {
+            throw new RuntimeException("Unable to find shader include " + name + " from " + resources.getResourceEntryName(fromResourceId));
+        }
+
+        return id;
+    }
+
+    /**
+     * Internal method to insert #define lines at the start of the source, or after its #version line.
+     */
+    private static String injectDefines(final String source, final Map<String, String> defines) {
+        if (defines == null || defines.isEmpty()) {
+            return source;
+        }
+
+        final StringBuilder lines = new StringBuilder();
+
+        for (Map.Entry<String, String> define : new TreeMap<String, String>(defines).entrySet()) {
+            lines.append("#define ").append(define.getKey());
+
+            if (define.getValue() != null) {
+                lines.append(' ').append(define.getValue());
+            }
+
+            lines.append('\n');
+        }
+
+        // #version must come before anything else
+        int insertAt = 0;
+        final int version = source.indexOf("#version");
+
+        if (version >= 0 && source.substring(0, version).trim().isEmpty()) {
+            final int end = source.indexOf('\n', version);
+            insertAt = end < 0 ? source.length() : end + 1;
+        }
+
+        return source.substring(0, insertAt) + lines + source.substring(insertAt);
+    }
+
+    private static final String INCLUDE = "#include";
+}
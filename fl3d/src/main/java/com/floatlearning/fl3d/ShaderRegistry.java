@@ -0,0 +1,265 @@
+package com.floatlearning.fl3d;
+
+import android.content.res.Resources;
+import android.util.SparseArray;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shares shaders and programs loaded from resources, so each is read, compiled and linked only once per context.
+ * Shared objects are reference counted: each acquire adds a reference, and dispose() on the Shader or Program removes
+ * one, deleting the OpenGL object only when the last reference is gone.
+ * Like GLState, objects are shared separately for each GL thread's context; every method applies to the calling thread's
+ * context, and shared objects must be released on the thread that acquired them.
+ */
+public class ShaderRegistry {
+    /**
+     * Shader source code, by resource ID. Source doesn't depend on the context, so it is shared by every thread and
+     * kept by reset(). Guarded by itself.
+     */
+    private static final SparseArray<String> sources = new SparseArray<String>();
+    /**
+     * The registry of each GL thread's context, created the first time that thread uses this class.
+     */
+    private static final ThreadLocal<ShaderRegistry> contexts = new ThreadLocal<ShaderRegistry>() {
+        @Override
+        protected ShaderRegistry initialValue() {
+            return new ShaderRegistry();
+        }
+    };
+
+    /**
+     * Shared shaders, by resource ID and defines.
+     */
+    private final HashMap<String, Shader> shaders = new HashMap<String, Shader>();
+    /**
+     * Shared programs, by their shader resource IDs and defines.
+     */
+    private final HashMap<String, Program> programs = new HashMap<String, Program>();
+    /**
+     * The GL thread this registry belongs to.
+     */
+    private final Thread thread = Thread.currentThread();
+
+    /**
+     * Internal constructor; each context's registry is created by the contexts ThreadLocal, or by reset().
+     */
+    private ShaderRegistry() {
+    }
+
+    /**
+     * Returns the source code of a shader resource, reading it only the first time.
+     *
+     * @param resources     A reference to this application's resources.
+     * @param resourceId    The resource ID for the shader's code, e.g. "R.raw.fragment"
+     * @return  The GLSL source code.
+     */
+    public static String getSource(final Resources resources, final int resourceId) {
+        synchronized (sources) {
+            String source = sources.get(resourceId);
+
+            if (source == null) {
+                source = Shader.stringFromResource(resources, resourceId);
+                sources.put(resourceId, source);
+            }
+
+            return source;
+        }
+    }
+
+    /**
+     * Returns a shared, compiled shader for a resource, compiling it only if no one is using it yet.
+     * Call dispose() on the shader when done with it.
+     *
+     * @param resources     A reference to this application's resources.
+     * @param resourceId    The resource ID for the shader's code, e.g. "R.raw.fragment"
+     * @return  The shared shader.
+     */
+    public static Shader acquireShader(final Resources resources, final int resourceId) {
+        return acquireShader(resources, resourceId, null);
+    }
+
+    /**
+     * Returns a shared, compiled variant of a shader resource, with #include lines expanded and the given macros
+     * defined; see ShaderPreprocessor. Each variant is compiled only if no one is using it yet.
+     * Call dispose() on the shader when done with it.
+     *
+     * @param resources     A reference to this application's resources.
+     * @param resourceId    The resource ID for the shader's code, e.g. "R.raw.fragment"
+     * @param defines       Macro names and values to define, or null for none.
+     * @return  The shared shader.
+     */
+    public static Shader acquireShader(final Resources resources, final int resourceId, final Map<String, String> defines) {
+        final String variant = ShaderPreprocessor.describe(defines);
+        final String key = variant.isEmpty() ? String.valueOf(resourceId) : resourceId + "|" + variant;
+        final ShaderRegistry registry = contexts.get();
+        Shader shader = registry.shaders.get(key);
+
+        if (shader == null) {
+            final String name = resources.getResourceEntryName(resourceId);
+            shader = new Shader(variant.isEmpty() ? name : name + "[" + variant + "]",
+                    ShaderPreprocessor.process(resources, resourceId, defines));
+            shader.registryKey = key;
+            shader.registry = registry;
+            registry.shaders.put(key, shader);
+        }
+
+        shader.references++;
+        return shader;
+    }
+
+    /**
+     * Returns a shared, linked program for a set of shader resources, linking it only if no one is using it yet.
+     * The order of the shaders doesn't matter. Call dispose() on the program when done with it.
+     *
+     * @param resources    A reference to this application's resources.
+     * @param shaderIDs    The resource IDs of shader code to use.
+     * @return  The shared program.
+     */
+    public static Program acquireProgram(final Resources resources, final int... shaderIDs) {
+        return acquireProgram(resources, null, shaderIDs);
+    }
+
+    /**
+     * Returns a shared, linked program whose shaders are all compiled with the given macros defined; see acquireShader().
+     * Call dispose() on the program when done with it.
+     *
+     * @param resources    A reference to this application's resources.
+     * @param defines      Macro names and values to define in every shader, or null for none.
+     * @param shaderIDs    The resource IDs of shader code to use.
+     * @return  The shared program.
+     */
+    public static Program acquireProgram(final Resources resources, final Map<String, String> defines, final int... shaderIDs) {
+        final int[] sorted = shaderIDs.clone();
+        Arrays.sort(sorted);
+
+        final String key = Arrays.toString(sorted) + ShaderPreprocessor.describe(defines);
+        final ShaderRegistry registry = contexts.get();
+        Program program = registry.programs.get(key);
+
+        if (program == null) {
+            program = new Program(resources, defines, shaderIDs);
+            program.registryKey = key;
+            program.registry = registry;
+            registry.programs.put(key, program);
+        }
+
+        program.references++;
+        return program;
+    }
+
+    /**
+     * Returns a shared, linked program made of a vertex shader resource and fragment shader source generated at runtime,
+     * such as by FilterFusion. Programs with the same vertex shader and fragment source are only linked once.
+     * Call dispose() on the program when done with it.
+     *
+     * @param resources         A reference to this application's resources.
+     * @param name              A name for the fragment shader, used in error messages.
+     * @param fragmentSource    The complete source of the fragment shader.
+     * @param vertexShaderID    The resource ID of the vertex shader code.
+     * @return  The shared program.
+     */
+    public static Program acquireProgram(final Resources resources, final String name, final String fragmentSource,
+                                         final int vertexShaderID) {
+        final String key = vertexShaderID + "|" + fragmentSource;
+        final ShaderRegistry registry = contexts.get();
+        Program program = registry.programs.get(key);
+
+        if (program == null) {
+            final Shader vertex = acquireShader(resources, vertexShaderID);
+            Shader fragment = null;
+
+            try {
+                fragment = new Shader(name, fragmentSource);
+                program = new Program(vertex, fragment);
+            } catch (RuntimeException e) {
+                // don't leak the shaders if the generated source doesn't compile or link
+                vertex.dispose();
+                Disposer.dispose(fragment);
+                throw e;
+            }
+
+            program.registryKey = key;
+            program.registry = registry;
+            registry.programs.put(key, program);
+        }
+
+        program.references++;
+        return program;
+    }
+
+    /**
+     * Returns the number of shared shaders currently compiled.
+     */
+    public static int getShaderCount() {
+        return contexts.get().shaders.size();
+    }
+
+    /**
+     * Returns the number of shared programs currently linked.
+     */
+    public static int getProgramCount() {
+        return contexts.get().programs.size();
+    }
+
+    /**
+     * Forget every shared shader and program of the calling thread's context without deleting them. Call when a new
+     * context has been created, since objects from the old context no longer exist. Shader sources are kept.
+     */
+    public static void reset() {
+        contexts.set(new ShaderRegistry());
+    }
+
+    /**
+     * Remove a reference to a shared shader.
+     *
+     * @return  True if that was the last reference and the shader should be deleted.
+     */
+    static boolean release(final Shader shader) {
+        if (!shader.registry.isCurrent(shader.registryKey)) {
+            return false;
+        }
+
+        if (--shader.references > 0) {
+            return false;
+        }
+
+        shader.registry.shaders.remove(shader.registryKey);
+        return true;
+    }
+
+    /**
+     * Remove a reference to a shared program.
+     *
+     * @return  True if that was the last reference and the program should be deleted.
+     */
+    static boolean release(final Program program) {
+        if (!program.registry.isCurrent(program.registryKey)) {
+            return false;
+        }
+
+        if (--program.references > 0) {
+            return false;
+        }
+
+        program.registry.programs.remove(program.registryKey);
+        return true;
+    }
+
+    /**
+     * Internal method to check that an object of this registry is being released on its own GL thread.
+     *
+     * @param key    The object's key, for the error message.
+     * @return  False if the context has since been reset, so there's nothing left to delete.
+     */
+    private boolean isCurrent(final String key) {
+        if (Thread.currentThread() != thread) {
+            throw new RuntimeException("Tried to release shared shader object " + key + " on " + Thread.currentThread().getName()
+                    + " instead of the GL thread that acquired it, " + thread.getName());
+        }
+
+        return contexts.get() == this;
+    }
+}
@@ -0,0 +1,336 @@
+package com.floatlearning.fl3d;
+
+import android.content.res.Resources;
+import android.opengl.GLES20;
+
+import com.floatlearning.fl3d.interfaces.Disposable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Draws many textured, tinted quads with as few draw calls as possible.
+ * Quads are collected into one vertex buffer and only drawn when the texture or program changes, the buffer is full,
+ * or end() is called. Positions are in view coordinates, from (-1,-1) at the bottom left to (1,1) at the top right.
+ *
+ * Typical use, on the GL thread:
+ *     batch.begin(program);
+ *     batch.draw(texture, x, y, width, height);
+ *     ...
+ *     batch.end();
+ */
+public class SpriteBatch implements Disposable {
+    /**
+     * The maximum number of quads that can be collected before a draw; limited by the range of short indices.
+     */
+    public final int capacity;
+    /**
+     * Interleaved vertex data for the collected quads, written as raw ints so colors and floats share one buffer.
+     */
+    private final IntBuffer vertices;
+    /**
+     * The GPU copy of the vertex data, rewritten on every flush.
+     */
+    private final BufferObject vertexObject;
+    /**
+     * Indices for every quad, which never change.
+     */
+    private final BufferObject indexObject;
+    /**
+     * The program used to draw the current batch, as set in begin() or setProgram().
+     */
+    private Program program;
+    /**
+     * The texture used by the quads collected so far, or null if none have been collected.
+     */
+    private Texture texture;
+    /**
+     * The number of quads collected since the last flush.
+     */
+    private int count = 0;
+    /**
+     * Whether or not begin() has been called without a matching end().
+     */
+    private boolean drawing = false;
+    /**
+     * The number of draw calls issued since the last call to resetStats().
+     */
+    private int drawCalls = 0;
+
+    /**
+     * Create a new sprite batch.
+     *
+     * @param capacity    The maximum number of quads to collect per draw call, from 1 to 16384.
+     */
+    public SpriteBatch(final int capacity) {
+        if (capacity < 1 || capacity * VERTICES_PER_QUAD > MAX_VERTICES) {
+            throw new RuntimeException("Sprite batch capacity must be from 1 to " + MAX_VERTICES / VERTICES_PER_QUAD + ", not " + capacity);
+        }
+
+        this.capacity = capacity;
+
+        final ByteBuffer bb = ByteBuffer.allocateDirect(capacity * VERTICES_PER_QUAD * LAYOUT.stride);
+        bb.order(ByteOrder.nativeOrder());
+        vertices = bb.asIntBuffer();
+
+        vertexObject = new BufferObject(GLES20.GL_ARRAY_BUFFER, vertices, 4, BufferObject.Usage.STREAM);
+        indexObject = new BufferObject(GLES20.GL_ELEMENT_ARRAY_BUFFER, Core.arrayAsBuffer(quadIndices(capacity)), 2, BufferObject.Usage.STATIC);
+    }
+
+    /**
+     * Create a program which can draw sprites, using the built-in sprite shaders.
+     *
+     * @param resources    A reference to this application's resources.
+     * @return  A shared program; the caller is responsible for disposing it.
+     */
+    public static Program createProgram(final Resources resources) {
+        return ShaderRegistry.acquireProgram(resources, R.raw.fragment_sprite, R.raw.vertex_sprite);
+    }
+
+    /**
+     * Start collecting quads to be drawn with the given program.
+     *
+     * @param program    A program with a_Position, a_TexCoord and a_Color attributes, such as from createProgram().
+     */
+    public void begin(final Program program) {
+        if (drawing) {
+            throw new RuntimeException("Tried to begin a sprite batch that was already begun.");
+        }
+
+        this.program = program;
+        drawing = true;
+    }
+
+    /**
+     * Draw any remaining quads, and stop collecting.
+     */
+    public void end() {
+        if (!drawing) {
+            throw new RuntimeException("Tried to end a sprite batch that wasn't begun.");
+        }
+
+        flush();
+        LAYOUT.unbind(program);
+        drawing = false;
+        texture = null;
+    }
+
+    /**
+     * Switch to a different program, drawing any quads collected with the previous one first.
+     *
+     * @param program    The program to draw with from now on.
+     */
+    public void setProgram(final Program program) {
+        if (this.program != program) {
+            flush();
+            this.program = program;
+        }
+    }
+
+    /**
+     * Add a quad showing an entire texture, untinted.
+     *
+     * @param texture    The texture to show.
+     * @param x          The left edge of the quad.
+     * @param y          The bottom edge of the quad.
+     * @param width      The width of the quad.
+     * @param height     The height of the quad.
+     */
+    public void draw(final Texture texture, final float x, final float y, final float width, final float height) {
+        draw(texture, x, y, width, height, 0.0f, 0.0f, texture.getMaxU(), texture.getMaxV(), WHITE);
+    }
+
+    /**
+     * Add a quad showing part of a texture, tinted by a color.
+     *
+     * @param texture    The texture to show.
+     * @param x          The left edge of the quad.
+     * @param y          The bottom edge of the quad.
+     * @param width      The width of the quad.
+     * @param height     The height of the quad.
+     * @param u0         The texture coordinate at the left edge.
+     * @param v0         The texture coordinate at the top edge; zero is the top row of the bitmap.
+     * @param u1         The texture coordinate at the right edge; the image ends at texture.getMaxU().
+     * @param v1         The texture coordinate at the bottom edge; the image ends at texture.getMaxV().
+     * @param color      The tint, as from packColor(); WHITE shows the texture unchanged.
+     */
+    public void draw(final Texture texture, final float x, final float y, final float width, final float height,
+                     final float u0, final float v0, final float u1, final float v1, final int color) {
+        if (!drawing) {
+            throw new RuntimeException("Tried to draw to a sprite batch that wasn't begun.");
+        }
+
+        if (this.texture != texture) {
+            flush();
+            this.texture = texture;
+        } else if (count == capacity) {
+            flush();
+        }
+
+        final float x1 = x + width;
+        final float y1 = y + height;
+
+        // written in the same order as quadIndices() expects: bottom left, bottom right, top right, top left
+        putVertex(x, y, u0, v1, color);
+        putVertex(x1, y, u1, v1, color);
+        putVertex(x1, y1, u1, v0, color);
+        putVertex(x, y1, u0, v0, color);
+
+        count++;
+    }
+
+    /**
+     * Add a quad tinted by a color.
+     *
+     * @param texture    The texture to show.
+     * @param x          The left edge of the quad.
+     * @param y          The bottom edge of the quad.
+     * @param width      The width of the quad.
+     * @param height     The height of the quad.
+     * @param color      The tint to apply.
+     */
+    public void draw(final Texture texture, final float x, final float y, final float width, final float height, final GLColor color) {
+        draw(texture, x, y, width, height, 0.0f, 0.0f, texture.getMaxU(), texture.getMaxV(), packColor(color));
+    }
+
+    /**
+     * Add a quad showing a region of a texture atlas, untinted.
+     *
+     * @param region    The atlas region to show.
+     * @param x         The left edge of the quad.
+     * @param y         The bottom edge of the quad.
+     * @param width     The width of the quad.
+     * @param height    The height of the quad.
+     */
+    public void draw(final TextureAtlas.Region region, final float x, final float y, final float width, final float height) {
+        draw(region.page, x, y, width, height, region.u0, region.v0, region.u1, region.v1, WHITE);
+    }
+
+    /**
+     * Draw the quads collected so far in a single draw call. Called automatically when needed.
+     */
+    public void flush() {
+        if (count == 0) {
+            return;
+        }
+
+        program.bind();
+        texture.bindTo(0);
+
+        vertices.limit(count * VERTICES_PER_QUAD * LAYOUT.stride / 4);
+        vertexObject.updateData(0, vertices, 4);
+        vertices.limit(vertices.capacity());
+        vertices.position(0);
+
+        LAYOUT.bind(program, vertexObject);
+        program.drawElements(GLES20.GL_TRIANGLES, count * INDICES_PER_QUAD, GLES20.GL_UNSIGNED_SHORT, indexObject);
+
+        count = 0;
+        drawCalls++;
+    }
+
+    /**
+     * Returns the number of draw calls issued since the last call to resetStats().
+     */
+    public int getDrawCalls() {
+        return drawCalls;
+    }
+
+    /**
+     * Set the draw call counter to zero; call at the start of a frame to measure that frame.
+     */
+    public void resetStats() {
+        drawCalls = 0;
+    }
+
+    @Override
+    public void dispose() {
+        vertexObject.dispose();
+        indexObject.dispose();
+        vertices.clear();
+        program = null;
+        texture = null;
+    }
+
+    /**
+     * Internal method to write one vertex into the vertex buffer.
+     */
+    private void putVertex(final float x, final float y, final float u, final float v, final int color) {
+        vertices.put(Float.floatToRawIntBits(x));
+        vertices.put(Float.floatToRawIntBits(y));
+        vertices.put(Float.floatToRawIntBits(u));
+        vertices.put(Float.floatToRawIntBits(v));
+        vertices.put(color);
+    }
+
+    /**
+     * Pack a color into four normalized bytes, in the order OpenGL reads them (red first in memory).
+     *
+     * @param color    The color to pack.
+     * @return  The packed color, for use with draw().
+     */
+    public static int packColor(final GLColor color) {
+        return packColor(color.red, color.green, color.blue, color.alpha);
+    }
+
+    /**
+     * Pack a color into four normalized bytes, in the order OpenGL reads them (red first in memory).
+     *
+     * @param red      The red value of the color, from zero to one.
+     * @param green    The green value of the color, from zero to one.
+     * @param blue     The blue value of the color, from zero to one.
+     * @param alpha    The alpha value of the color, from zero to one.
+     * @return  The packed color, for use with draw().
+     */
+    public static int packColor(final float red, final float green, final float blue, final float alpha) {
+        final int r = toByte(red);
+        final int g = toByte(green);
+        final int b = toByte(blue);
+        final int a = toByte(alpha);
+
+        if (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
+            return (a << 24) | (b << 16) | (g << 8) | r;
+        } else {
+            return (r << 24) | (g << 16) | (b << 8) | a;
+        }
+    }
+
+    /**
+     * Converts a color channel from zero to one into a byte value from 0 - 255.
+     */
+    private static int toByte(final float value) {
+        return Math.round(Math.max(0.0f, Math.min(1.0f, value)) * 255.0f);
+    }
+
+    /**
+     * Internal method to generate indices for two triangles per quad.
+     */
+    private static short[] quadIndices(final int quads) {
+        final short[] indices = new short[quads * INDICES_PER_QUAD];
+
+        for (int i = 0, v = 0; i < indices.length; i += INDICES_PER_QUAD, v += VERTICES_PER_QUAD) {
+            indices[i] = (short) v;
+            indices[i + 1] = (short) (v + 1);
+            indices[i + 2] = (short) (v + 2);
+            indices[i + 3] = (short) (v + 2);
+            indices[i + 4] = (short) (v + 3);
+            indices[i + 5] = (short) v;
+        }
+
+        return indices;
+    }
+
+    // The layout of one sprite vertex: a 2D position, texture coordinates, and a packed color.
+    public static final VertexLayout LAYOUT = new VertexLayout(
+            new VertexLayout.Attribute(Mesh.A_POSITION, 2),
+            new VertexLayout.Attribute(Texture.A_TEX_COORD, 2),
+            new VertexLayout.Attribute(Mesh.A_COLOR, 4, GLES20.GL_UNSIGNED_BYTE, true));
+    // A packed color which leaves textures unchanged.
+    public static final int WHITE = packColor(1.0f, 1.0f, 1.0f, 1.0f);
+
+    private static final int VERTICES_PER_QUAD = 4;
+    private static final int INDICES_PER_QUAD = 6;
+    // Short indices can address at most this many vertices.
+    private static final int MAX_VERTICES = 65536;
+}
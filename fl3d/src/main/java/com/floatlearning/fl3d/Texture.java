@@ -8,7 +8,9 @@ import android.opengl.GLUtils;
 
 import com.floatlearning.fl3d.interfaces.Drawable;
 
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.util.Arrays;
 
 /**
  * A texture object which can be applied to, for example, a Mesh.
@@ -26,6 +28,16 @@ public class Texture implements Drawable {
      * The buffer containing the coordinates of the texture.
      */
     protected final FloatBuffer texBuffer;
+    /**
+     * The texture coordinates in a GPU buffer object, if upload() has been called; otherwise null.
+     */
+    protected BufferObject texObject;
+    /**
+     * The texture coordinates of the right and bottom edges of the image. Less than one when a bitmap was padded up to
+     * a power of two, since the padding fills the rest of the texture.
+     */
+    private float maxU = 1.0f;
+    private float maxV = 1.0f;
     /**
      * The number of this texture, from 0 - 31.
      * TODO: this is currently unused
@@ -39,15 +51,27 @@ public class Texture implements Drawable {
      * @param height    The height of the texture.
      */
     public Texture(final int width, final int height) {
+        this(width, height, GLES20.GL_RGBA);
+    }
+
+    /**
+     * Generates a texture with the given format that can be used for a framebuffer.
+     *
+     * @param width     The width of the texture.
+     * @param height    The height of the texture.
+     * @param format    The format of each texel, either GLES20.GL_RGBA or GLES20.GL_RGB.
+     */
+    public Texture(final int width, final int height, final int format) {
         handle = genHandle();
 
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, handle);
-        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLState.bindTexture(0, GLES20.GL_TEXTURE_2D, handle);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0, format, GLES20.GL_UNSIGNED_BYTE, null);
         GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
         GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        // sampling at texel centers gives the same result either way, but linear filtering lets filters blend
+        // neighbouring texels in one fetch
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
         GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, handle, 0);
 
         texBuffer = Core.arrayAsBuffer(DEFAULT_TEX_COORDS);
@@ -70,27 +94,85 @@ public class Texture implements Drawable {
     }
 
     /**
-     * Create a new texture with the given texture coordinates and bitmap graphic object.
+     * Create a new texture with the given texture coordinates and bitmap graphic object, without mipmaps.
      *
      * @param texCoords    The coordinates for this texture.
      * @param bitmap       The bitmap image that this texture will represent.
      */
     public Texture(final float[] texCoords, final Bitmap bitmap) {
+        this(texCoords, bitmap, Filter.NEAREST);
+    }
+
+    /**
+     * Create a new texture with the given texture coordinates, bitmap graphic object, and filtering.
+     * Bitmaps of any size are accepted. OpenGL ES 2.0 can't build mipmaps for sizes which aren't powers of two,
+     * so if the filter uses mipmaps, such bitmaps are padded up to a power of two by repeating their last row
+     * and column, and the texture coordinates are scaled to match.
+     *
+     * @param texCoords    The coordinates for this texture, from zero to one across the bitmap.
+     * @param bitmap       The bitmap image that this texture will represent.
+     * @param filter       How to sample the texture when it is drawn larger or smaller than its size.
+     */
+    public Texture(final float[] texCoords, final Bitmap bitmap, final Filter filter) {
         final int w = bitmap.getWidth();
         final int h = bitmap.getHeight();
-
-        if (w != h || w % 2 != 0) {
-            throw new RuntimeException("Tried to create texture from bitmap but not power of two! Dimensions: " + w + "x" + h);
-        }
+        final boolean pad = filter.mipmapped && (!isPowerOfTwo(w) || !isPowerOfTwo(h));
+        final Bitmap image = pad ? padToPowerOfTwo(bitmap) : bitmap;
 
         // create a texture
-        handle = create(false);
+        handle = create(filter);
 
         // bind that texture to the bitmap image
-        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, image, 0);
+
+        if (filter.mipmapped) {
+            GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+        }
+
+        if (pad) {
+            maxU = w / (float) image.getWidth();
+            maxV = h / (float) image.getHeight();
+            texBuffer = Core.arrayAsBuffer(scaleTexCoords(texCoords, maxU, maxV));
+            image.recycle();
+        } else {
+            texBuffer = Core.arrayAsBuffer(texCoords);
+        }
 
         // unbind that texture from the current context
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLState.bindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+        textureNumber = nextTextureNumber;
+        nextTextureNumber++;
+    }
+
+    /**
+     * Create a new texture from compressed data, such as an ETC1 image read from a PKM file.
+     * Compressed textures can't generate mipmaps, so filters which use mipmaps need an image which includes them.
+     *
+     * @param texCoords    The coordinates for this texture.
+     * @param image        The compressed image data.
+     * @param filter       How to sample the texture when it is drawn larger or smaller than its size.
+     */
+    public Texture(final float[] texCoords, final CompressedImage image, final Filter filter) {
+        if (filter.mipmapped && image.getLevelCount() == 1) {
+            throw new RuntimeException("Tried to use a mipmapped filter with a compressed image that has no mipmaps.");
+        }
+
+        handle = create(filter);
+
+        final int levels = filter.mipmapped ? image.getLevelCount() : 1;
+
+        for (int level = 0; level < levels; level++) {
+            final ByteBuffer data = image.getLevel(level);
+            final int w = Math.max(1, image.width >> level);
+            final int h = Math.max(1, image.height >> level);
+            GLES20.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, level, image.internalFormat, w, h, 0, data.capacity(), data);
+        }
+
+        Core.assertStatus("Unable to upload compressed texture");
+
+        // unbind that texture from the current context
+        GLState.bindTexture(GLES20.GL_TEXTURE_2D, 0);
         texBuffer = Core.arrayAsBuffer(texCoords);
 
         textureNumber = nextTextureNumber;
@@ -98,14 +180,26 @@ public class Texture implements Drawable {
     }
 
     /**
-     * Create a new texture with the given texture coordinates and specified graphic resource.
+     * Create a new texture with the given texture coordinates and specified graphic resource, without mipmaps.
      *
      * @param texCoords     The coordinates for this texture.
      * @param resources     A reference to this application's resources.
      * @param resourceID    The resource ID containing the graphic asset to load.
      */
     public Texture(final float[] texCoords, final Resources resources, final int resourceID) {
-        this(texCoords, BitmapFactory.decodeResource(resources, resourceID));
+        this(texCoords, resources, resourceID, Filter.NEAREST);
+    }
+
+    /**
+     * Create a new texture with the given texture coordinates, specified graphic resource, and filtering.
+     *
+     * @param texCoords     The coordinates for this texture.
+     * @param resources     A reference to this application's resources.
+     * @param resourceID    The resource ID containing the graphic asset to load.
+     * @param filter        How to sample the texture when it is drawn larger or smaller than its size.
+     */
+    public Texture(final float[] texCoords, final Resources resources, final int resourceID, final Filter filter) {
+        this(texCoords, BitmapFactory.decodeResource(resources, resourceID), filter);
     }
 
     /**
@@ -114,19 +208,90 @@ public class Texture implements Drawable {
     @Override
     public void draw(final Program program) {
         // find the handle for the texture coordinates in the given program
-        final int texCoordHandle = GLES20.glGetAttribLocation(program.handle, A_TEX_COORD);
+        final int texCoordHandle = program.getAttribLocation(A_TEX_COORD);
 
-        // activate the 0th texture
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0/* + textureNumber*/);
+        // activate the 0th texture, and bind this texture to it
+        GLState.bindTexture(0/* + textureNumber*/, GLES20.GL_TEXTURE_2D, handle);
 
-        // bind texture
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, handle);
+        // specify texture buffer to be used for texture coordinate handle, and enable it for glDrawArrays
+        setTexCoords(program, texCoordHandle);
+    }
+
+    /**
+     * Bind this texture to a texture unit, without setting up texture coordinates.
+     * Used when texture coordinates come from elsewhere, such as a SpriteBatch.
+     *
+     * @param unit    The index of the texture unit, from 0 - 31.
+     */
+    public void bindTo(final int unit) {
+        GLState.bindTexture(unit, getTarget(), handle);
+    }
 
-        // specify texture buffer to be used for texture coordinate handle
-        GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false, 8, texBuffer);
+    /**
+     * Returns the texture coordinate of the right edge of the image; one unless the bitmap was padded.
+     */
+    public float getMaxU() {
+        return maxU;
+    }
 
-        // ensure that the values in this attribute array will be accessed when glDrawArrays is called
-        GLES20.glEnableVertexAttribArray(texCoordHandle);
+    /**
+     * Returns the texture coordinate of the bottom edge of the image; one unless the bitmap was padded.
+     */
+    public float getMaxV() {
+        return maxV;
+    }
+
+    /**
+     * Returns the OpenGL target this texture is bound to, e.g. GLES20.GL_TEXTURE_2D.
+     */
+    public int getTarget() {
+        return GLES20.GL_TEXTURE_2D;
+    }
+
+    /**
+     * Change how this texture is sampled. Filters which use mipmaps need them to exist first; see generateMipmaps().
+     *
+     * @param filter    How to sample the texture when it is drawn larger or smaller than its size.
+     */
+    public void setFilter(final Filter filter) {
+        GLState.bindTexture(getTarget(), handle);
+        GLES20.glTexParameteri(getTarget(), GLES20.GL_TEXTURE_MIN_FILTER, filter.minFilter);
+        GLES20.glTexParameteri(getTarget(), GLES20.GL_TEXTURE_MAG_FILTER, filter.magFilter);
+    }
+
+    /**
+     * Rebuild the mipmaps of this texture from its top level, such as after rendering into it with a FrameBuffer.
+     * OpenGL ES 2.0 requires the texture to be a power of two in both dimensions.
+     */
+    public void generateMipmaps() {
+        GLState.bindTexture(getTarget(), handle);
+        GLES20.glGenerateMipmap(getTarget());
+        Core.assertStatus("Unable to generate mipmaps");
+    }
+
+    /**
+     * Copy this texture's coordinates into a GPU buffer object, so they are not sent from the CPU on every draw.
+     *
+     * @param usage    How often the coordinates are expected to change.
+     */
+    public void upload(final BufferObject.Usage usage) {
+        if (texObject == null) {
+            texObject = new BufferObject(GLES20.GL_ARRAY_BUFFER, texBuffer, 4, usage);
+        }
+    }
+
+    /**
+     * Point the program's texture coordinate attribute at this texture's coordinates.
+     *
+     * @param program           The program being drawn with.
+     * @param texCoordHandle    The location of the texture coordinate attribute in the program.
+     */
+    protected void setTexCoords(final Program program, final int texCoordHandle) {
+        if (texObject != null) {
+            program.setAttribute(texCoordHandle, 2, texObject);
+        } else {
+            program.setAttribute(texCoordHandle, 2, texBuffer);
+        }
     }
 
     /**
@@ -134,36 +299,90 @@ public class Texture implements Drawable {
      */
     @Override
     public void cleanup(final Program program) {
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLState.bindTexture(GLES20.GL_TEXTURE_2D, 0);
     }
 
     @Override
     public void dispose() {
+        texObject = Disposer.dispose(texObject);
+
         // Delete this texture in the GPU.
         int[] tex = { handle };
         GLES20.glDeleteTextures(1, tex, 0);
+        GLState.forgetTexture(handle);
     }
 
     /**
-     * Creates a new texture in the GPU and returns the handle.
+     * Creates a new texture in the GPU, leaves it bound, and returns the handle.
+     * Wrapping is clamped to the edge, which is required for sizes which aren't powers of two.
      *
+     * @param filter    How to sample the texture.
      * @return  The handle to the new texture object.
      */
-    private static int create(final boolean unbind) {
+    private static int create(final Filter filter) {
         final int tex = genHandle();
 
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, tex);
+        GLState.bindTexture(GLES20.GL_TEXTURE_2D, tex);
 
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, filter.minFilter);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, filter.magFilter);
         GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
         GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
 
-        if (unbind) {
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        return tex;
+    }
+
+    /**
+     * Returns true if the value is a power of two.
+     */
+    static boolean isPowerOfTwo(final int value) {
+        return value > 0 && (value & (value - 1)) == 0;
+    }
+
+    /**
+     * Returns the smallest power of two that is at least the given value.
+     */
+    static int nextPowerOfTwo(final int value) {
+        return isPowerOfTwo(value) ? value : Integer.highestOneBit(value) << 1;
+    }
+
+    /**
+     * Copy a bitmap into the top left of a new bitmap whose sides are powers of two, filling the rest by repeating
+     * the last row and column so that smaller mipmap levels don't blend in empty pixels at the edges.
+     */
+    private static Bitmap padToPowerOfTwo(final Bitmap bitmap) {
+        final int w = bitmap.getWidth();
+        final int h = bitmap.getHeight();
+        final int potW = nextPowerOfTwo(w);
+        final int potH = nextPowerOfTwo(h);
+        final int[] pixels = new int[potW * potH];
+
+        bitmap.getPixels(pixels, 0, potW, 0, 0, w, h);
+
+        for (int y = 0; y < h; y++) {
+            final int row = y * potW;
+            Arrays.fill(pixels, row + w, row + potW, pixels[row + w - 1]);
         }
 
-        return tex;
+        for (int y = h; y < potH; y++) {
+            System.arraycopy(pixels, (h - 1) * potW, pixels, y * potW, potW);
+        }
+
+        return Bitmap.createBitmap(pixels, potW, potH, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Returns a copy of the texture coordinates, scaled so that one maps to the given fraction of the texture.
+     */
+    private static float[] scaleTexCoords(final float[] texCoords, final float scaleU, final float scaleV) {
+        final float[] scaled = new float[texCoords.length];
+
+        for (int i = 0; i < texCoords.length; i += 2) {
+            scaled[i] = texCoords[i] * scaleU;
+            scaled[i + 1] = texCoords[i + 1] * scaleV;
+        }
+
+        return scaled;
     }
 
     /**
@@ -180,6 +399,41 @@ public class Texture implements Drawable {
         return texture[0];
     }
 
+    /**
+     * How a texture is sampled when drawn larger (magnified) or smaller (minified) than its size.
+     */
+    public enum Filter {
+        /**
+         * The nearest texel, with no mipmaps. Sharp, but aliases when minified.
+         */
+        NEAREST(GLES20.GL_NEAREST, GLES20.GL_NEAREST, false),
+        /**
+         * A blend of the nearest four texels, with no mipmaps.
+         */
+        LINEAR(GLES20.GL_LINEAR, GLES20.GL_LINEAR, false),
+        /**
+         * A blend of four texels from the nearest mipmap level.
+         */
+        BILINEAR(GLES20.GL_LINEAR_MIPMAP_NEAREST, GLES20.GL_LINEAR, true),
+        /**
+         * A blend of four texels from each of the two nearest mipmap levels. Smoothest when minified.
+         */
+        TRILINEAR(GLES20.GL_LINEAR_MIPMAP_LINEAR, GLES20.GL_LINEAR, true);
+
+        public final int minFilter;
+        public final int magFilter;
+        /**
+         * Whether this filter reads mipmaps, which must be generated for the texture.
+         */
+        public final boolean mipmapped;
+
+        Filter(final int minFilter, final int magFilter, final boolean mipmapped) {
+            this.minFilter = minFilter;
+            this.magFilter = magFilter;
+            this.mipmapped = mipmapped;
+        }
+    }
+
     // a default texture coordinate value
     protected static final float[] DEFAULT_TEX_COORDS = new float[] {
             0.0f, 0.0f,
@@ -0,0 +1,287 @@
+package com.floatlearning.fl3d;
+
+import android.graphics.Bitmap;
+
+import com.floatlearning.fl3d.interfaces.Disposable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Packs many bitmaps into a few large textures, so that sprites from the same atlas can be drawn without rebinding.
+ *
+ * Typical use, on the GL thread:
+ *     atlas.add("player", playerBitmap);
+ *     atlas.add("enemy", enemyBitmap);
+ *     atlas.build();
+ *     batch.draw(atlas.getRegion("player"), x, y, width, height);
+ */
+public class TextureAtlas implements Disposable {
+    /**
+     * The largest page size to use; pages are also limited by Core.getMaxTextureSize().
+     */
+    public final int maxPageSize;
+    /**
+     * Empty space around each bitmap, on every side, in pixels.
+     */
+    public final int padding;
+    /**
+     * Whether to fill the padding by repeating each bitmap's edge pixels, so that linear filtering at the edges
+     * doesn't blend in transparent pixels. If false, the padding is left transparent.
+     */
+    public final boolean bleed;
+    /**
+     * Bitmaps added since the last build, in the order they were added.
+     */
+    private final ArrayList<String> pendingNames = new ArrayList<String>();
+    private final ArrayList<Bitmap> pendingBitmaps = new ArrayList<Bitmap>();
+    /**
+     * Built regions, by name.
+     */
+    private final HashMap<String, Region> regions = new HashMap<String, Region>();
+    /**
+     * The textures holding the packed bitmaps.
+     */
+    private final ArrayList<Texture> pages = new ArrayList<Texture>();
+
+    /**
+     * Create a new, empty texture atlas.
+     *
+     * @param maxPageSize    The largest width and height of a page, which is rounded down to a power of two.
+     * @param padding        Empty space to keep around each bitmap, on every side, in pixels.
+     * @param bleed          Whether to fill the padding with each bitmap's edge pixels.
+     */
+    public TextureAtlas(final int maxPageSize, final int padding, final boolean bleed) {
+        this.maxPageSize = maxPageSize;
+        this.padding = padding;
+        this.bleed = bleed;
+    }
+
+    /**
+     * Queue a bitmap to be packed by the next call to build(). The bitmap isn't copied until then, and isn't recycled.
+     *
+     * @param name      The name to look up the region by.
+     * @param bitmap    The image to pack.
+     */
+    public void add(final String name, final Bitmap bitmap) {
+        if (regions.containsKey(name) || pendingNames.contains(name)) {
+            throw new RuntimeException("Texture atlas already has a region named " + name);
+        }
+
+        pendingNames.add(name);
+        pendingBitmaps.add(bitmap);
+    }
+
+    /**
+     * Pack all bitmaps added since the last build into new pages and upload them. Must be called on the GL thread.
+     * Bitmaps from earlier builds are not moved, so their regions remain valid.
+     */
+    public void build() {
+        final int count = pendingBitmaps.size();
+
+        if (count == 0) {
+            return;
+        }
+
+        final int[] widths = new int[count];
+        final int[] heights = new int[count];
+        long area = 0;
+        int largest = 0;
+
+        for (int i = 0; i < count; i++) {
+            final Bitmap bitmap = pendingBitmaps.get(i);
+            widths[i] = bitmap.getWidth();
+            heights[i] = bitmap.getHeight();
+            area += (long) (widths[i] + 2 * padding) * (heights[i] + 2 * padding);
+            largest = Math.max(largest, Math.max(widths[i], heights[i]) + 2 * padding);
+        }
+
+        final int pageSize = choosePageSize(area, largest);
+        final AtlasPacker packer = new AtlasPacker(pageSize, pageSize, padding);
+        final AtlasPacker.Placement[] placements = packer.packAll(widths, heights);
+        final Bitmap[] pageBitmaps = new Bitmap[packer.getPageCount()];
+
+        for (int i = 0; i < pageBitmaps.length; i++) {
+            pageBitmaps[i] = Bitmap.createBitmap(pageSize, pageSize, Bitmap.Config.ARGB_8888);
+        }
+
+        for (int i = 0; i < count; i++) {
+            copy(pendingBitmaps.get(i), pageBitmaps[placements[i].page], placements[i]);
+        }
+
+        final int firstPage = pages.size();
+
+        for (Bitmap pageBitmap : pageBitmaps) {
+            pages.add(new Texture(Texture.DEFAULT_TEX_COORDS, pageBitmap));
+            pageBitmap.recycle();
+        }
+
+        for (int i = 0; i < count; i++) {
+            final AtlasPacker.Placement p = placements[i];
+            final String name = pendingNames.get(i);
+            regions.put(name, new Region(name, pages.get(firstPage + p.page), p.x, p.y, p.width, p.height, pageSize));
+        }
+
+        pendingNames.clear();
+        pendingBitmaps.clear();
+    }
+
+    /**
+     * Returns the region with the given name, or null if it hasn't been built.
+     *
+     * @param name    The name given to add().
+     */
+    public Region getRegion(final String name) {
+        return regions.get(name);
+    }
+
+    /**
+     * Returns the number of textures used by the atlas.
+     */
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * Returns one of the textures used by the atlas.
+     *
+     * @param index    The index of the page, from zero to getPageCount() - 1.
+     */
+    public Texture getPage(final int index) {
+        return pages.get(index);
+    }
+
+    @Override
+    public void dispose() {
+        for (Texture page : pages) {
+            page.dispose();
+        }
+
+        pages.clear();
+        regions.clear();
+        pendingNames.clear();
+        pendingBitmaps.clear();
+    }
+
+    /**
+     * Returns the smallest power of two page size which could hold everything on one page, limited by the largest page
+     * allowed. The estimate allows for some wasted space, since packing is never perfect.
+     */
+    private int choosePageSize(final long area, final int largest) {
+        final int limit = Integer.highestOneBit(Math.min(maxPageSize, Core.getMaxTextureSize()));
+
+        if (largest > limit) {
+            throw new RuntimeException("Can't fit a " + largest + " pixel image into texture atlas pages of " + limit + " pixels.");
+        }
+
+        final int needed = Math.max(largest, (int) Math.ceil(Math.sqrt(area * PACKING_SLACK)));
+        int size = 1;
+
+        while (size < needed && size < limit) {
+            size <<= 1;
+        }
+
+        return size;
+    }
+
+    /**
+     * Internal method to copy a bitmap into its place on a page, filling the padding around it if bleeding.
+     */
+    private void copy(final Bitmap source, final Bitmap page, final AtlasPacker.Placement p) {
+        final int w = p.width;
+        final int h = p.height;
+        final int[] pixels = new int[w * h];
+
+        source.getPixels(pixels, 0, w, 0, 0, w, h);
+        page.setPixels(pixels, 0, w, p.x, p.y, w, h);
+
+        if (!bleed || padding == 0) {
+            return;
+        }
+
+        for (int i = 1; i <= padding; i++) {
+            // left and right columns, then top and bottom rows
+            page.setPixels(pixels, 0, w, p.x - i, p.y, 1, h);
+            page.setPixels(pixels, w - 1, w, p.x + w - 1 + i, p.y, 1, h);
+            page.setPixels(pixels, 0, w, p.x, p.y - i, w, 1);
+            page.setPixels(pixels, (h - 1) * w, w, p.x, p.y + h - 1 + i, w, 1);
+        }
+
+        // each corner is filled with the nearest corner pixel
+        final int[] corner = new int[padding * padding];
+
+        Arrays.fill(corner, pixels[0]);
+        page.setPixels(corner, 0, padding, p.x - padding, p.y - padding, padding, padding);
+        Arrays.fill(corner, pixels[w - 1]);
+        page.setPixels(corner, 0, padding, p.x + w, p.y - padding, padding, padding);
+        Arrays.fill(corner, pixels[(h - 1) * w]);
+        page.setPixels(corner, 0, padding, p.x - padding, p.y + h, padding, padding);
+        Arrays.fill(corner, pixels[w * h - 1]);
+        page.setPixels(corner, 0, padding, p.x + w, p.y + h, padding, padding);
+    }
+
+    /**
+     * The location of one packed bitmap within an atlas page. Immutable.
+     */
+    public static class Region {
+        /**
+         * The name given when the bitmap was added.
+         */
+        public final String name;
+        /**
+         * The page texture holding this region.
+         */
+        public final Texture page;
+        /**
+         * The texture coordinates of the region's top left (u0, v0) and bottom right (u1, v1) corners.
+         */
+        public final float u0;
+        public final float v0;
+        public final float u1;
+        public final float v1;
+        /**
+         * The size of the original bitmap, in pixels.
+         */
+        public final int width;
+        public final int height;
+
+        Region(final String name, final Texture page, final int x, final int y, final int width, final int height, final int pageSize) {
+            this.name = name;
+            this.page = page;
+            this.width = width;
+            this.height = height;
+            u0 = x / (float) pageSize;
+            v0 = y / (float) pageSize;
+            u1 = (x + width) / (float) pageSize;
+            v1 = (y + height) / (float) pageSize;
+        }
+
+        /**
+         * Returns texture coordinates for this region, in the same corner order as the default texture coordinates
+         * (top left, top right, bottom right, bottom left), for use with a Texture or TexturedMesh.
+         */
+        public float[] getTexCoords() {
+            return new float[] {
+                    u0, v0,
+                    u1, v0,
+                    u1, v1,
+                    u0, v1
+            };
+        }
+
+        /**
+         * Create a mesh which shows this region, sharing the page texture.
+         * Disposing the mesh would delete the whole page, so dispose the atlas instead.
+         *
+         * @param vertices    The vertices of the quad, in the same corner order as the texture coordinates.
+         * @return  A new textured mesh.
+         */
+        public TexturedMesh createMesh(final float[] vertices) {
+            return new TexturedMesh(vertices, getTexCoords(), page.handle);
+        }
+    }
+
+    // Packing wastes some space, so pages are sized for this much more area than the bitmaps need.
+    private static final double PACKING_SLACK = 1.2;
+}
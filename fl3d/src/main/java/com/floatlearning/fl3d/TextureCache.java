@@ -0,0 +1,275 @@
+package com.floatlearning.fl3d;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.floatlearning.fl3d.interfaces.Disposable;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Keeps textures loaded from resources on the GPU, so that loading the same resource again is instant.
+ * Textures are reference counted: each acquire() must be matched by a release(). Released textures stay cached until
+ * the total estimated size of the cache exceeds its budget, and are then deleted least recently used first.
+ * Textures which are still acquired are never deleted, so the budget can be exceeded while they're in use.
+ *
+ * Must only be used on the GL thread.
+ */
+public class TextureCache implements Disposable {
+    /**
+     * Cached textures, ordered from least to most recently used.
+     */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    /**
+     * Cached textures, by the Texture object handed out, for release().
+     */
+    private final HashMap<Texture, Entry> entriesByTexture = new HashMap<Texture, Entry>();
+    /**
+     * The number of bytes the cache may hold before unused textures are deleted.
+     */
+    private long budget;
+    /**
+     * The estimated number of bytes of all cached textures.
+     */
+    private long byteCount = 0;
+    /**
+     * Statistics for tuning the budget.
+     */
+    private int hitCount = 0;
+    private int missCount = 0;
+    private int evictionCount = 0;
+
+    /**
+     * Create a new, empty texture cache.
+     *
+     * @param budget    The number of bytes of texture memory to keep, including textures which aren't in use.
+     */
+    public TextureCache(final long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Returns the texture for a resource, loading it if it isn't cached. Call release() when done with it.
+     *
+     * @param resources     A reference to this application's resources.
+     * @param resourceID    The resource ID containing the graphic asset to load.
+     * @return  A shared texture, which must not be disposed directly.
+     */
+    public Texture acquire(final Resources resources, final int resourceID) {
+        return acquire(resources, resourceID, null);
+    }
+
+    /**
+     * Returns the texture for a resource decoded with the given options, loading it if it isn't cached.
+     * The same resource decoded with different options is cached separately. Call release() when done with it.
+     *
+     * @param resources     A reference to this application's resources.
+     * @param resourceID    The resource ID containing the graphic asset to load.
+     * @param options       Options for decoding the resource, or null for the defaults.
+     * @return  A shared texture, which must not be disposed directly.
+     */
+    public Texture acquire(final Resources resources, final int resourceID, final BitmapFactory.Options options) {
+        final Key key = new Key(resourceID, options);
+        Entry entry = entries.get(key);
+
+        if (entry != null) {
+            hitCount++;
+        } else {
+            missCount++;
+
+            final Bitmap bitmap = BitmapFactory.decodeResource(resources, resourceID, options);
+
+            if (bitmap == null) {
+                throw new RuntimeException("Unable to decode resource " + resourceID);
+            }
+
+            final long bytes = bitmap.getByteCount();
+            final Texture texture = new Texture(Texture.DEFAULT_TEX_COORDS, bitmap);
+            bitmap.recycle();
+
+            entry = add(key, texture, bytes);
+        }
+
+        entry.references++;
+        trimToSize(budget);
+
+        return entry.texture;
+    }
+
+    /**
+     * Give back a texture from acquire(). Once nothing is using it, it may be deleted to stay within the budget.
+     *
+     * @param texture    The texture to release.
+     */
+    public void release(final Texture texture) {
+        final Entry entry = entriesByTexture.get(texture);
+
+        if (entry == null || entry.references == 0) {
+            throw new RuntimeException("Tried to release a texture that wasn't acquired from this cache.");
+        }
+
+        entry.references--;
+
+        if (entry.references == 0) {
+            trimToSize(budget);
+        }
+    }
+
+    /**
+     * Delete unused textures, least recently used first, until the cache is no larger than the given size.
+     *
+     * @param size    The number of bytes to shrink to; zero deletes every unused texture.
+     */
+    public void trimToSize(final long size) {
+        final Iterator<Entry> iterator = entries.values().iterator();
+
+        while (byteCount > size && iterator.hasNext()) {
+            final Entry entry = iterator.next();
+
+            if (entry.references == 0) {
+                iterator.remove();
+                entriesByTexture.remove(entry.texture);
+                byteCount -= entry.bytes;
+                entry.texture.dispose();
+                evictionCount++;
+            }
+        }
+    }
+
+    /**
+     * Change the budget, deleting unused textures if the cache is now too large.
+     * For example, lower it from ComponentCallbacks2.onTrimMemory().
+     *
+     * @param budget    The number of bytes of texture memory to keep.
+     */
+    public void setBudget(final long budget) {
+        this.budget = budget;
+        trimToSize(budget);
+    }
+
+    /**
+     * Returns the number of bytes the cache may hold before unused textures are deleted.
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the estimated number of bytes of GPU memory used by cached textures.
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Returns the number of textures in the cache, whether or not they are in use.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of acquire() calls which found the texture already loaded.
+     */
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of acquire() calls which had to load the texture.
+     */
+    public int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of textures deleted to stay within the budget.
+     */
+    public int getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Delete every cached texture, including those still in use. Call when the GL context is destroyed.
+     */
+    @Override
+    public void dispose() {
+        for (Entry entry : entries.values()) {
+            entry.texture.dispose();
+        }
+
+        entries.clear();
+        entriesByTexture.clear();
+        byteCount = 0;
+    }
+
+    /**
+     * Internal method to add a newly loaded texture. The caller should reference it before trimming the cache.
+     */
+    Entry add(final Key key, final Texture texture, final long bytes) {
+        final Entry entry = new Entry(texture, bytes);
+
+        entries.put(key, entry);
+        entriesByTexture.put(texture, entry);
+        byteCount += bytes;
+
+        return entry;
+    }
+
+    /**
+     * Identifies a cached texture: a resource, and the options that affect how it's decoded. Immutable.
+     */
+    static class Key {
+        final int resourceID;
+        final int sampleSize;
+        final Bitmap.Config config;
+        final boolean scaled;
+
+        Key(final int resourceID, final BitmapFactory.Options options) {
+            this.resourceID = resourceID;
+
+            // decoding without options uses the defaults, so key it the same as a fresh Options to share the texture
+            final BitmapFactory.Options decode = options != null ? options : new BitmapFactory.Options();
+
+            sampleSize = Math.max(decode.inSampleSize, 1);
+            config = decode.inPreferredConfig;
+            scaled = decode.inScaled;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Key other = (Key) o;
+            return resourceID == other.resourceID && sampleSize == other.sampleSize && config == other.config && scaled == other.scaled;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = resourceID;
+            result = 31 * result + sampleSize;
+            result = 31 * result + (config == null ? 0 : config.hashCode());
+            result = 31 * result + (scaled ? 1 : 0);
+            return result;
+        }
+    }
+
+    /**
+     * A cached texture and its bookkeeping.
+     */
+    static class Entry {
+        final Texture texture;
+        final long bytes;
+        int references = 0;
+
+        Entry(final Texture texture, final long bytes) {
+            this.texture = texture;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -1,17 +1,22 @@
 package com.floatlearning.fl3d;
 
 import android.content.res.Resources;
+import android.opengl.GLES20;
 
 import com.floatlearning.fl3d.interfaces.Disposable;
 import com.floatlearning.fl3d.interfaces.DrawToable;
 import com.floatlearning.fl3d.interfaces.Drawable;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Generally, can be used to filter on FrameBuffer and render to another, such as post-processing an image.
  */
 public class TextureFilter implements Disposable, DrawToable {
     /**
-     * The frame buffer that will store this filter's output.
+     * The frame buffer that will store this filter's output, or null if the filter renders to borrowed targets.
      */
     public final FrameBuffer target;
     /**
@@ -22,6 +27,10 @@ public class TextureFilter implements Disposable, DrawToable {
      * The mesh that will be used to draw the texture.
      */
     public final Mesh mesh;
+    /**
+     * The resolution this filter runs at when it renders to borrowed targets, relative to the full size of its chain.
+     */
+    private float scale = FULL_SCALE;
 
     /**
      * Create a new filter that can apply a program to an input texture or frame.
@@ -32,27 +41,294 @@ public class TextureFilter implements Disposable, DrawToable {
      * @param shaderIDs     The resource IDs of shader source code to load into this filter's program.
      */
     public TextureFilter(final int width, final int height, final Resources resources, final int... shaderIDs) {
-        target = new FrameBuffer(width, height);
-        program = new Program(resources, shaderIDs);
+        this(width, height, resources, null, shaderIDs);
+    }
+
+    /**
+     * Create a new filter whose shaders are compiled with the given macros defined, such as tuning constants.
+     *
+     * @param width         The width of the output texture.
+     * @param height        The height of the output texture.
+     * @param resources     A reference to this application's resources.
+     * @param defines       Macro names and values to define in every shader, or null for none.
+     * @param shaderIDs     The resource IDs of shader source code to load into this filter's program.
+     */
+    public TextureFilter(final int width, final int height, final Resources resources, final Map<String, String> defines,
+                         final int... shaderIDs) {
+        this(new FrameBuffer(width, height, GLES20.GL_RGBA, false), resources, defines, shaderIDs);
+    }
+
+    /**
+     * Create a new filter without a frame buffer of its own, which renders with process() to a target from a
+     * RenderTargetPool, such as in applyChain().
+     *
+     * @param resources     A reference to this application's resources.
+     * @param defines       Macro names and values to define in every shader, or null for none.
+     * @param shaderIDs     The resource IDs of shader source code to load into this filter's program.
+     */
+    public TextureFilter(final Resources resources, final Map<String, String> defines, final int... shaderIDs) {
+        this(null, resources, defines, shaderIDs);
+    }
+
+    /**
+     * Create a new filter which takes ownership of the given target, which may be null.
+     *
+     * @param target        The frame buffer to store this filter's output, or null for none.
+     * @param resources     A reference to this application's resources.
+     * @param defines       Macro names and values to define in every shader, or null for none.
+     * @param shaderIDs     The resource IDs of shader source code to load into this filter's program.
+     */
+    protected TextureFilter(final FrameBuffer target, final Resources resources, final Map<String, String> defines,
+                            final int... shaderIDs) {
+        this(target, ShaderRegistry.acquireProgram(resources, defines, shaderIDs));
+    }
+
+    /**
+     * Create a new filter from a linked program, such as one generated by FilterFusion.
+     * Takes ownership of the target, which may be null, and of the program.
+     *
+     * @param target    The frame buffer to store this filter's output, or null for none.
+     * @param program   The program to apply to the input texture.
+     */
+    protected TextureFilter(final FrameBuffer target, final Program program) {
+        this.target = target;
+        this.program = program;
         mesh = new Mesh();
+
+        // the full-view quad never changes, so keep it in the GPU
+        mesh.upload(BufferObject.Usage.STATIC);
+    }
+
+    /**
+     * Set the resolution this filter runs at in a chain or FilterGraph, relative to the chain's full size, such as
+     * HALF_SCALE or QUARTER_SCALE. Analysis stages like blurs and edge detection rarely need every pixel, and fragment
+     * work drops with the square of the scale. Offsets of one texel in the shader are then one texel of the smaller output.
+     *
+     * @param scale     The scale, from 0 (exclusive) to 1.
+     */
+    public void setScale(final float scale) {
+        if (!(scale > 0 && scale <= 1)) {
+            throw new RuntimeException("A filter's scale must be greater than 0 and at most 1, not " + scale + ".");
+        }
+
+        this.scale = scale;
+    }
+
+    /**
+     * Returns the resolution this filter runs at, relative to the full size of its chain.
+     */
+    public float getScale() {
+        return scale;
     }
 
     /**
-     * Apply this filter's shaders to a texture.
+     * Returns the width or height of this filter's output, for a chain of the given full width or height.
+     *
+     * @param fullSize  The full width or height of the chain.
+     */
+    public int scaledSize(final int fullSize) {
+        return Math.max(1, Math.round(fullSize * scale));
+    }
+
+    /**
+     * Whether this filter's input must be the same size as its output, such as a blur whose offsets are in texels of the
+     * input. FilterGraph resamples inputs to the pass size for such filters, rather than passing up to twice that size.
+     */
+    public boolean needsInputAtOutputSize() {
+        return false;
+    }
+
+    /**
+     * Apply this filter's shaders to a texture, storing the result in this filter's own target.
      *
      * @param inTexture     The input texture to process.
      */
     public void processTexture(final Texture inTexture) {
+        if (target == null) {
+            throw new RuntimeException("This filter has no target of its own; use process() instead.");
+        }
+
+        process(inTexture, target);
+    }
+
+    /**
+     * Apply this filter's shaders to a texture, storing the result in the given frame buffer.
+     *
+     * @param inTexture     The input texture to process.
+     * @param output        The frame buffer to render to. Must not be the one holding the input texture.
+     */
+    public void process(final Texture inTexture, final FrameBuffer output) {
         program.bind();
-        program.setTexels(target.width, target.height);
-        target.bind();
-        target.clear();
+        program.setTexels(output.width, output.height);
+        output.bind();
+        output.clear();
 
         inTexture.draw(program);
         mesh.draw(program);
 
         program.unbind();
-        target.unbind();
+        output.unbind();
+    }
+
+    /**
+     * Apply this filter's shaders to several textures, storing the result in the given frame buffer.
+     * The first texture is sampled as "u_Texture", and the others as "u_Texture1", "u_Texture2" and so on.
+     *
+     * @param inTextures    The input textures to process.
+     * @param output        The frame buffer to render to. Must not hold any of the input textures.
+     */
+    public void process(final Texture[] inTextures, final FrameBuffer output) {
+        if (inTextures.length == 1) {
+            process(inTextures[0], output);
+            return;
+        }
+
+        program.bind();
+        program.setTexels(output.width, output.height);
+        output.bind();
+        output.clear();
+
+        for (int i = 1; i < inTextures.length; i++) {
+            inTextures[i].bindTo(i);
+            program.setInteger(U_TEXTURE + i, i);
+        }
+
+        inTextures[0].draw(program);
+        mesh.draw(program);
+
+        program.unbind();
+        output.unbind();
+    }
+
+    /**
+     * Create a filter which copies its input, to halve textures with linear filtering in applyChain() and FilterGraph.
+     *
+     * @param resources     A reference to this application's resources.
+     * @return  The downsampling filter, which the caller must dispose.
+     */
+    public static TextureFilter createDownsampler(final Resources resources) {
+        return new TextureFilter(resources, null, R.raw.fragment_copy, R.raw.vertex_filter);
+    }
+
+    /**
+     * Apply a chain of filters to a texture, ping-ponging between two targets borrowed from a pool, so a chain of
+     * any length at one scale needs only two frame buffers. Each target is returned to the pool as soon as the next pass
+     * has read it. Each filter renders at its own scale of the full size, and reads its input at whatever size it is,
+     * which skips texels when a pass is less than half the size of its input. A filter which needs its input at
+     * exactly its own size, such as GaussianBlurFilter below full scale, can't be used without a downsampler.
+     *
+     * @param pool      The pool to borrow targets from.
+     * @param input     The texture to process, at the full size.
+     * @param width     The full width of the chain.
+     * @param height    The full height of the chain.
+     * @param filters   The filters to apply, in order.
+     * @return  The frame buffer holding the result of the last filter, which the caller must release to the pool.
+     */
+    public static FrameBuffer applyChain(final RenderTargetPool pool, final Texture input, final int width,
+                                         final int height, final TextureFilter... filters) {
+        return applyChain(pool, null, input, width, height, filters);
+    }
+
+    /**
+     * Apply a chain of filters to a texture as above, first halving each input in steps while it's more than twice the
+     * size of the pass reading it, or while it's larger at all if the filter needs its input at its own size.
+     * Steps are borrowed from the pool and returned as soon as their pass has run.
+     *
+     * @param pool          The pool to borrow targets from.
+     * @param downsampler   The filter which halves inputs, from createDownsampler(), or null to read inputs directly.
+     * @param input         The texture to process, at the full size.
+     * @param width         The full width of the chain.
+     * @param height        The full height of the chain.
+     * @param filters       The filters to apply, in order.
+     * @return  The frame buffer holding the result of the last filter, which the caller must release to the pool.
+     */
+    public static FrameBuffer applyChain(final RenderTargetPool pool, final TextureFilter downsampler, final Texture input,
+                                         final int width, final int height, final TextureFilter... filters) {
+        if (filters.length == 0) {
+            throw new RuntimeException("A filter chain needs at least one filter.");
+        }
+
+        final ArrayList<FrameBuffer> temporaries = new ArrayList<FrameBuffer>();
+        FrameBuffer previous = null;
+        Texture source = input;
+        int sourceWidth = width;
+        int sourceHeight = height;
+
+        for (int i = 0; i < filters.length; i++) {
+            final TextureFilter filter = filters[i];
+            final int passWidth = filter.scaledSize(width);
+            final int passHeight = filter.scaledSize(height);
+
+            source = resample(pool, downsampler, source, sourceWidth, sourceHeight, passWidth, passHeight,
+                    filter.needsInputAtOutputSize(), "filter " + i + " of the chain", temporaries);
+
+            final FrameBuffer output = pool.obtain(passWidth, passHeight);
+            filter.process(source, output);
+
+            for (FrameBuffer temporary : temporaries) {
+                pool.release(temporary);
+            }
+
+            temporaries.clear();
+
+            if (previous != null) {
+                pool.release(previous);
+            }
+
+            previous = output;
+            source = output.texture;
+            sourceWidth = passWidth;
+            sourceHeight = passHeight;
+        }
+
+        return previous;
+    }
+
+    /**
+     * Get a texture for a pass of the given size, halving it in steps while it's more than twice that size, or while
+     * it's larger at all if the pass needs its input at exactly its own size. At exactly twice the size, each
+     * linear-filtered sample averages a 2x2 block. Shared by applyChain() and FilterGraph.
+     *
+     * @param pool          The pool to borrow the steps from.
+     * @param downsampler   The filter which halves the texture, or null to return it as it is.
+     * @param texture       The texture the pass reads.
+     * @param width         The width of the texture.
+     * @param height        The height of the texture.
+     * @param passWidth     The width of the pass reading it.
+     * @param passHeight    The height of the pass reading it.
+     * @param exact         Whether the pass needs its input at exactly its own size; throws if there's no downsampler.
+     * @param name          Describes the input, for the error message.
+     * @param temporaries   Receives the frame buffers of the steps, which the caller returns to the pool after the pass.
+     * @return  The texture the pass should read.
+     */
+    static Texture resample(final RenderTargetPool pool, final TextureFilter downsampler, final Texture texture,
+                            final int width, final int height, final int passWidth, final int passHeight,
+                            final boolean exact, final String name, final List<FrameBuffer> temporaries) {
+        if (downsampler == null) {
+            if (exact && (width > passWidth || height > passHeight)) {
+                throw new RuntimeException("The pass reading " + name + " needs its " + width + "x" + height
+                        + " input resampled to " + passWidth + "x" + passHeight + ", which needs a downsampler.");
+            }
+
+            return texture;
+        }
+
+        final int limit = exact ? 1 : 2;
+        Texture result = texture;
+        int w = width;
+        int h = height;
+
+        while (w > limit * passWidth || h > limit * passHeight) {
+            w = Math.max(passWidth, (w + 1) / 2);
+            h = Math.max(passHeight, (h + 1) / 2);
+
+            final FrameBuffer step = pool.obtain(w, h);
+            downsampler.process(result, step);
+            temporaries.add(step);
+            result = step.texture;
+        }
+
+        return result;
     }
 
     /**
@@ -73,16 +349,22 @@ public class TextureFilter implements Disposable, DrawToable {
     }
 
     /**
-     * Returns the internal target texture, which receives the filtered output.
+     * Returns the internal target texture, which receives the filtered output, or null if this filter has no target.
      */
     public Texture getTexture() {
-        return target.texture;
+        return target != null ? target.texture : null;
     }
 
     @Override
     public void dispose() {
-        target.dispose();
+        Disposer.dispose(target);
         program.dispose();
         mesh.dispose();
     }
+
+    // common scales for filters which don't need full resolution
+    public static final float FULL_SCALE = 1.0f;
+    public static final float HALF_SCALE = 0.5f;
+    public static final float QUARTER_SCALE = 0.25f;
+    private static final String U_TEXTURE = "u_Texture";
 }
@@ -0,0 +1,405 @@
+package com.floatlearning.fl3d;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.Log;
+
+import com.floatlearning.fl3d.interfaces.Disposable;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads textures from resources without blocking the GL thread.
+ * Bitmaps are decoded on background threads, downsampled to about the size they'll be shown at, then uploaded a few
+ * at a time by processUploads(), which is called once per frame on the GL thread (FL3DSurfaceView does this for the
+ * loader given to setTextureLoader()). Each upload pass stops once its byte or time budget is spent, so loading many
+ * images spreads over several frames instead of stalling one.
+ */
+public class TextureLoader implements Disposable {
+    /**
+     * A reference to this application's resources, for decoding.
+     */
+    private final Resources resources;
+    /**
+     * The threads which decode bitmaps.
+     */
+    private final ExecutorService decodeExecutor;
+    /**
+     * Requests which have been decoded (or have failed), waiting for the GL thread.
+     */
+    private final ConcurrentLinkedQueue<Handle> decoded = new ConcurrentLinkedQueue<Handle>();
+    /**
+     * Bitmaps which have been uploaded and can be decoded into again, to avoid allocating a new bitmap per image.
+     */
+    private final ArrayList<Bitmap> reusable = new ArrayList<Bitmap>();
+    /**
+     * The most bytes to upload per call to processUploads().
+     */
+    private final long maxBytesPerFrame;
+    /**
+     * The most time to spend per call to processUploads(), in nanoseconds.
+     */
+    private final long maxNanosPerFrame;
+
+    /**
+     * Create a new texture loader with its own decoding threads.
+     *
+     * @param resources            A reference to this application's resources.
+     * @param threads              The number of bitmaps to decode at once.
+     * @param maxBytesPerFrame     The most bytes of bitmap data to upload per frame.
+     * @param maxMillisPerFrame    The most time to spend uploading per frame, in milliseconds.
+     */
+    public TextureLoader(final Resources resources, final int threads, final long maxBytesPerFrame, final float maxMillisPerFrame) {
+        this.resources = resources;
+        this.maxBytesPerFrame = maxBytesPerFrame;
+        this.maxNanosPerFrame = (long) (maxMillisPerFrame * 1000000.0f);
+
+        decodeExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, TAG + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Start loading a texture at full size. May be called from any thread.
+     *
+     * @param resourceID    The resource ID containing the graphic asset to load.
+     * @param listener      Notified on the GL thread when the texture is ready or has failed, or null.
+     * @return  A handle which becomes ready once the texture has been uploaded.
+     */
+    public Handle load(final int resourceID, final Listener listener) {
+        return load(resourceID, 0, 0, listener);
+    }
+
+    /**
+     * Start loading a texture, downsampled by a power of two to no smaller than the given size. May be called from any thread.
+     *
+     * @param resourceID      The resource ID containing the graphic asset to load.
+     * @param targetWidth     The width the texture will be shown at, in pixels, or zero for full size.
+     * @param targetHeight    The height the texture will be shown at, in pixels, or zero for full size.
+     * @param listener        Notified on the GL thread when the texture is ready or has failed, or null.
+     * @return  A handle which becomes ready once the texture has been uploaded.
+     */
+    public Handle load(final int resourceID, final int targetWidth, final int targetHeight, final Listener listener) {
+        final Handle handle = new Handle(resourceID, listener);
+
+        decodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                decode(handle, targetWidth, targetHeight);
+            }
+        });
+
+        return handle;
+    }
+
+    /**
+     * Upload decoded bitmaps until this frame's budget is spent. Must be called on the GL thread.
+     * At least one texture is uploaded per call if any are waiting, so a bitmap larger than the budget still loads.
+     *
+     * @return  The number of textures uploaded.
+     */
+    public int processUploads() {
+        final long start = System.nanoTime();
+        long bytes = 0;
+        int uploaded = 0;
+        Handle handle;
+
+        while ((handle = decoded.peek()) != null) {
+            final Bitmap bitmap = handle.bitmap;
+            final long size = bitmap == null ? 0 : bitmap.getByteCount();
+
+            if (uploaded > 0 && (bytes + size > maxBytesPerFrame || System.nanoTime() - start > maxNanosPerFrame)) {
+                break;
+            }
+
+            decoded.poll();
+            handle.bitmap = null;
+
+            if (bitmap == null) {
+                // decoding failed
+                notify(handle);
+                continue;
+            }
+
+            if (handle.state.get() == CANCELLED) {
+                reuse(bitmap);
+                continue;
+            }
+
+            final Texture texture = new Texture(Texture.DEFAULT_TEX_COORDS, bitmap);
+            reuse(bitmap);
+            bytes += size;
+            uploaded++;
+
+            handle.texture = texture;
+
+            if (handle.state.compareAndSet(DECODED, READY)) {
+                notify(handle);
+            } else {
+                // cancelled while uploading
+                texture.dispose();
+                handle.texture = null;
+            }
+        }
+
+        return uploaded;
+    }
+
+    /**
+     * Returns the number of decoded textures waiting to be uploaded.
+     */
+    public int getPendingUploads() {
+        return decoded.size();
+    }
+
+    /**
+     * Stop decoding, and release bitmaps waiting to be uploaded. Textures that are already ready belong to their callers.
+     */
+    @Override
+    public void dispose() {
+        decodeExecutor.shutdownNow();
+
+        Handle handle;
+
+        while ((handle = decoded.poll()) != null) {
+            if (handle.bitmap != null) {
+                handle.bitmap.recycle();
+                handle.bitmap = null;
+            }
+        }
+
+        synchronized (reusable) {
+            for (Bitmap bitmap : reusable) {
+                bitmap.recycle();
+            }
+
+            reusable.clear();
+        }
+    }
+
+    /**
+     * Internal method to decode a resource on a background thread and queue it for upload.
+     */
+    private void decode(final Handle handle, final int targetWidth, final int targetHeight) {
+        if (handle.state.get() == CANCELLED) {
+            return;
+        }
+
+        Bitmap bitmap = null;
+
+        try {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inScaled = false;
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeResource(resources, handle.resourceID, options);
+
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+            options.inMutable = true;
+            options.inBitmap = takeReusable(options);
+
+            try {
+                bitmap = BitmapFactory.decodeResource(resources, handle.resourceID, options);
+            } catch (IllegalArgumentException e) {
+                // the reused bitmap wasn't compatible after all
+                options.inBitmap = null;
+                bitmap = BitmapFactory.decodeResource(resources, handle.resourceID, options);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Unable to decode resource " + handle.resourceID, e);
+        }
+
+        if (bitmap == null) {
+            if (handle.state.compareAndSet(PENDING, FAILED)) {
+                decoded.add(handle);
+            }
+        } else if (handle.state.compareAndSet(PENDING, DECODED)) {
+            handle.bitmap = bitmap;
+            decoded.add(handle);
+        } else {
+            reuse(bitmap);
+        }
+    }
+
+    /**
+     * Returns the largest power of two sample size which keeps the decoded image at least as large as the target.
+     */
+    static int sampleSize(final int width, final int height, final int targetWidth, final int targetHeight) {
+        int sampleSize = 1;
+
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return sampleSize;
+        }
+
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+
+        return sampleSize;
+    }
+
+    /**
+     * Internal method to find a bitmap that the given decode can reuse, or null if there is none.
+     * Before KitKat, a reused bitmap must be exactly the decoded size and can't be used with downsampling.
+     */
+    private Bitmap takeReusable(final BitmapFactory.Options options) {
+        final int sample = options.inSampleSize;
+        final int width = (options.outWidth + sample - 1) / sample;
+        final int height = (options.outHeight + sample - 1) / sample;
+        final boolean kitKat = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+
+        if (!kitKat && sample != 1) {
+            return null;
+        }
+
+        synchronized (reusable) {
+            for (int i = 0; i < reusable.size(); i++) {
+                final Bitmap candidate = reusable.get(i);
+                final boolean fits = kitKat
+                        ? candidate.getAllocationByteCount() >= width * height * BYTES_PER_PIXEL
+                        : candidate.getWidth() == width && candidate.getHeight() == height;
+
+                if (fits) {
+                    return reusable.remove(i);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Internal method to keep an uploaded bitmap for a later decode, or recycle it if enough are kept already.
+     */
+    private void reuse(final Bitmap bitmap) {
+        synchronized (reusable) {
+            if (bitmap.isMutable() && reusable.size() < MAX_REUSABLE) {
+                reusable.add(bitmap);
+                return;
+            }
+        }
+
+        bitmap.recycle();
+    }
+
+    /**
+     * Internal method to call a handle's listener, if it has one.
+     */
+    private static void notify(final Handle handle) {
+        if (handle.listener != null) {
+            handle.listener.onTextureLoaded(handle);
+        }
+    }
+
+    /**
+     * A texture that is being loaded. Its state may be checked from any thread.
+     */
+    public static class Handle {
+        /**
+         * The resource being loaded.
+         */
+        public final int resourceID;
+        /**
+         * Notified when loading finishes, or null.
+         */
+        private final Listener listener;
+        /**
+         * One of PENDING, DECODED, READY, FAILED or CANCELLED.
+         */
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        /**
+         * The decoded bitmap while waiting to be uploaded.
+         */
+        private volatile Bitmap bitmap;
+        /**
+         * The uploaded texture, once ready.
+         */
+        private volatile Texture texture;
+
+        Handle(final int resourceID, final Listener listener) {
+            this.resourceID = resourceID;
+            this.listener = listener;
+        }
+
+        /**
+         * Returns true once the texture has been uploaded and can be drawn.
+         */
+        public boolean isReady() {
+            return state.get() == READY;
+        }
+
+        /**
+         * Returns true if the resource couldn't be decoded.
+         */
+        public boolean isFailed() {
+            return state.get() == FAILED;
+        }
+
+        /**
+         * Returns the texture, or null if it isn't ready. The caller is responsible for disposing it.
+         */
+        public Texture getTexture() {
+            return isReady() ? texture : null;
+        }
+
+        /**
+         * Stop loading this texture, if it isn't ready yet.
+         *
+         * @return  True if the texture will not be loaded, false if it was already ready or had failed.
+         */
+        public boolean cancel() {
+            while (true) {
+                final int current = state.get();
+
+                if (current == READY || current == FAILED) {
+                    return false;
+                }
+
+                if (current == CANCELLED || state.compareAndSet(current, CANCELLED)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * An interface for objects that want to know when a texture has finished loading.
+     */
+    public interface Listener {
+        /**
+         * Called on the GL thread when a texture is ready, or has failed to load.
+         *
+         * @param handle    The handle returned by load().
+         */
+        void onTextureLoaded(Handle handle);
+    }
+
+    private static final String TAG = TextureLoader.class.getSimpleName();
+
+    // Handle states.
+    private static final int PENDING = 0;
+    private static final int DECODED = 1;
+    private static final int READY = 2;
+    private static final int FAILED = 3;
+    private static final int CANCELLED = 4;
+
+    // The most uploaded bitmaps to keep for reuse.
+    private static final int MAX_REUSABLE = 4;
+    // Decoded bitmaps use ARGB_8888 unless the resource says otherwise.
+    private static final int BYTES_PER_PIXEL = 4;
+}
@@ -21,6 +21,15 @@ public class TexturedMesh extends Mesh {
         texture = new Texture(texCoords, texHandle);
     }
 
+    /**
+     * Upload this mesh's vertices and its texture's coordinates into GPU buffer objects.
+     */
+    @Override
+    public void upload(final BufferObject.Usage usage) {
+        super.upload(usage);
+        texture.upload(usage);
+    }
+
     /**
      * Draw the texture, then draw this mesh.
      */
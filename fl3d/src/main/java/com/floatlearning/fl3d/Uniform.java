@@ -0,0 +1,154 @@
+package com.floatlearning.fl3d;
+
+import android.opengl.GLES20;
+
+/**
+ * An active uniform in a linked program, as reported by OpenGL at link time.
+ * Keeps a shadow copy of the last value uploaded, so that unchanged values are not sent to the GPU again.
+ */
+public class Uniform {
+    /**
+     * The name of this uniform in GLSL, e.g. "u_Color". Array uniforms have the "[0]" suffix removed.
+     */
+    public final String name;
+    /**
+     * The location of this uniform in its program.
+     */
+    public final int location;
+    /**
+     * The GLSL type of this uniform, e.g. GLES20.GL_FLOAT_VEC4.
+     */
+    public final int type;
+    /**
+     * The number of array elements in this uniform; one for non-array uniforms.
+     */
+    public final int size;
+    /**
+     * The last value uploaded to this uniform. Integer values are stored as floats.
+     */
+    private final float[] shadow;
+    /**
+     * Whether or not the shadow copy holds a value; uniforms are always uploaded the first time.
+     */
+    private boolean hasValue = false;
+
+    /**
+     * Create a new uniform description.
+     *
+     * @param name        The name of the uniform.
+     * @param location    The location of the uniform in its program.
+     * @param type        The GLSL type of the uniform.
+     * @param size        The number of array elements in the uniform.
+     */
+    Uniform(final String name, final int location, final int type, final int size) {
+        this.name = name;
+        this.location = location;
+        this.type = type;
+        this.size = size;
+
+        shadow = new float[componentCount(type) * size];
+    }
+
+    /**
+     * Returns the number of float (or int) components in a single element of this uniform.
+     */
+    public int getComponentCount() {
+        return componentCount(type);
+    }
+
+    /**
+     * Compare a single value against the shadow copy, and store it if it differs.
+     *
+     * @param x    The value to compare.
+     * @return  True if the value needs to be uploaded, false if the GPU already has it.
+     */
+    boolean update(final float x) {
+        if (hasValue && shadow[0] == x) {
+            return false;
+        }
+
+        shadow[0] = x;
+        hasValue = true;
+
+        return true;
+    }
+
+    /**
+     * Compare two values against the shadow copy, and store them if they differ.
+     *
+     * @param x    The first value to compare.
+     * @param y    The second value to compare.
+     * @return  True if the values need to be uploaded, false if the GPU already has them.
+     */
+    boolean update(final float x, final float y) {
+        if (hasValue && shadow[0] == x && shadow[1] == y) {
+            return false;
+        }
+
+        shadow[0] = x;
+        shadow[1] = y;
+        hasValue = true;
+
+        return true;
+    }
+
+    /**
+     * Compare an array of values against the shadow copy, and store them if they differ.
+     *
+     * @param values    The values to compare.
+     * @param count     The number of values to compare, starting at index zero.
+     * @return  True if the values need to be uploaded, false if the GPU already has them.
+     */
+    boolean update(final float[] values, final int count) {
+        final int len = Math.min(count, shadow.length);
+        boolean changed = !hasValue;
+
+        for (int i = 0; i < len; i++) {
+            if (shadow[i] != values[i]) {
+                shadow[i] = values[i];
+                changed = true;
+            }
+        }
+
+        hasValue = true;
+
+        return changed;
+    }
+
+    /**
+     * Forget the shadow copy, so that the next value set is always uploaded.
+     */
+    void invalidate() {
+        hasValue = false;
+    }
+
+    /**
+     * Returns the number of components in a single element of the given GLSL type.
+     *
+     * @param type    The GLSL type, e.g. GLES20.GL_FLOAT_VEC3.
+     * @return  The number of float or int components.
+     */
+    static int componentCount(final int type) {
+        switch (type) {
+            case GLES20.GL_FLOAT_VEC2:
+            case GLES20.GL_INT_VEC2:
+            case GLES20.GL_BOOL_VEC2:
+                return 2;
+            case GLES20.GL_FLOAT_VEC3:
+            case GLES20.GL_INT_VEC3:
+            case GLES20.GL_BOOL_VEC3:
+                return 3;
+            case GLES20.GL_FLOAT_VEC4:
+            case GLES20.GL_INT_VEC4:
+            case GLES20.GL_BOOL_VEC4:
+            case GLES20.GL_FLOAT_MAT2:
+                return 4;
+            case GLES20.GL_FLOAT_MAT3:
+                return 9;
+            case GLES20.GL_FLOAT_MAT4:
+                return 16;
+            default:
+                return 1;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.floatlearning.fl3d;
+
+import android.opengl.GLES20;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Describes how vertex attributes (positions, texture coordinates, normals, colors) are interleaved in one buffer.
+ * Immutable.
+ */
+public class VertexLayout {
+    /**
+     * The attributes in this layout, each with its byte offset within a vertex resolved.
+     */
+    public final Attribute[] attributes;
+    /**
+     * The size of one vertex in bytes, which is the distance between the starts of two consecutive vertices.
+     */
+    public final int stride;
+
+    /**
+     * Create a new layout. Attributes without an explicit offset are packed directly after the previous attribute,
+     * rounded up to four bytes as recommended for OpenGL ES.
+     *
+     * @param attributes    The attributes of one vertex, in order.
+     */
+    public VertexLayout(final Attribute... attributes) {
+        this.attributes = new Attribute[attributes.length];
+        int end = 0;
+
+        for (int i = 0; i < attributes.length; i++) {
+            final Attribute a = attributes[i];
+            final int offset = a.offset < 0 ? end : a.offset;
+
+            this.attributes[i] = new Attribute(a.name, a.components, a.type, a.normalized, offset);
+            end = Math.max(end, align(offset + a.getByteCount()));
+        }
+
+        stride = end;
+    }
+
+    /**
+     * Returns the attribute with the given name, or null if this layout doesn't have it.
+     *
+     * @param name    The name of the attribute, e.g. Mesh.A_POSITION.
+     */
+    public Attribute get(final String name) {
+        for (Attribute a : attributes) {
+            if (a.name.equals(name)) {
+                return a;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Point each attribute in the program at interleaved vertex data in client memory.
+     * Attributes the program doesn't use are skipped.
+     *
+     * @param program     The program being drawn with.
+     * @param vertices    The interleaved vertex data; its position is restored to zero.
+     */
+    public void bind(final Program program, final FloatBuffer vertices) {
+        // client-side pointers are only used when no buffer object is bound
+        GLState.bindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+        for (Attribute a : attributes) {
+            final int location = program.getAttribLocation(a.name);
+
+            if (location >= 0) {
+                // offsets are aligned to four bytes, so they can be expressed as a float position
+                vertices.position(a.offset / 4);
+                GLState.enableVertexAttribArray(location);
+                GLES20.glVertexAttribPointer(location, a.components, a.type, a.normalized, stride, vertices);
+            }
+        }
+
+        vertices.position(0);
+    }
+
+    /**
+     * Point each attribute in the program at interleaved vertex data in a buffer object, binding it once.
+     * Attributes the program doesn't use are skipped.
+     *
+     * @param program     The program being drawn with.
+     * @param vertices    The buffer object holding the interleaved vertex data.
+     */
+    public void bind(final Program program, final BufferObject vertices) {
+        vertices.bind();
+
+        for (Attribute a : attributes) {
+            final int location = program.getAttribLocation(a.name);
+
+            if (location >= 0) {
+                GLState.enableVertexAttribArray(location);
+                GLES20.glVertexAttribPointer(location, a.components, a.type, a.normalized, stride, a.offset);
+            }
+        }
+    }
+
+    /**
+     * Disable each attribute array in the program that this layout enabled.
+     *
+     * @param program    The program that was drawn with.
+     */
+    public void unbind(final Program program) {
+        for (Attribute a : attributes) {
+            final int location = program.getAttribLocation(a.name);
+
+            if (location >= 0) {
+                GLState.disableVertexAttribArray(location);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of vertices in a buffer of the given size.
+     *
+     * @param byteCount    The size of the vertex data, in bytes.
+     */
+    public int vertexCount(final int byteCount) {
+        return byteCount / stride;
+    }
+
+    /**
+     * Rounds a byte offset up to the next multiple of four.
+     */
+    private static int align(final int offset) {
+        return (offset + 3) & ~3;
+    }
+
+    /**
+     * Returns the size in bytes of one component of the given type, e.g. 4 for GLES20.GL_FLOAT.
+     */
+    static int sizeOf(final int type) {
+        switch (type) {
+            case GLES20.GL_BYTE:
+            case GLES20.GL_UNSIGNED_BYTE:
+                return 1;
+            case GLES20.GL_SHORT:
+            case GLES20.GL_UNSIGNED_SHORT:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * A single attribute within a vertex, such as a position or color. Immutable.
+     */
+    public static class Attribute {
+        /**
+         * The name of the attribute in GLSL, e.g. "a_Position".
+         */
+        public final String name;
+        /**
+         * The number of components, from one to four.
+         */
+        public final int components;
+        /**
+         * The type of each component, e.g. GLES20.GL_FLOAT or GLES20.GL_UNSIGNED_BYTE.
+         */
+        public final int type;
+        /**
+         * Whether integer components are mapped to 0.0 - 1.0 (or -1.0 - 1.0) when read by the shader.
+         */
+        public final boolean normalized;
+        /**
+         * The offset of this attribute from the start of the vertex, in bytes; -1 until placed in a layout.
+         */
+        public final int offset;
+
+        /**
+         * Create a float attribute, which will be placed after the previous attribute in its layout.
+         *
+         * @param name          The name of the attribute in GLSL.
+         * @param components    The number of floats, from one to four.
+         */
+        public Attribute(final String name, final int components) {
+            this(name, components, GLES20.GL_FLOAT, false, -1);
+        }
+
+        /**
+         * Create an attribute, which will be placed after the previous attribute in its layout.
+         *
+         * @param name          The name of the attribute in GLSL.
+         * @param components    The number of components, from one to four.
+         * @param type          The type of each component, e.g. GLES20.GL_UNSIGNED_BYTE.
+         * @param normalized    Whether integer components are mapped to 0.0 - 1.0 when read.
+         */
+        public Attribute(final String name, final int components, final int type, final boolean normalized) {
+            this(name, components, type, normalized, -1);
+        }
+
+        /**
+         * Create an attribute at an explicit byte offset within the vertex, which must be a multiple of four.
+         *
+         * @param name          The name of the attribute in GLSL.
+         * @param components    The number of components, from one to four.
+         * @param type          The type of each component, e.g. GLES20.GL_UNSIGNED_BYTE.
+         * @param normalized    Whether integer components are mapped to 0.0 - 1.0 when read.
+         * @param offset        The offset of this attribute from the start of the vertex, in bytes.
+         */
+        public Attribute(final String name, final int components, final int type, final boolean normalized, final int offset) {
+            if (components < 1 || components > 4) {
+                throw new RuntimeException("Attribute " + name + " must have one to four components, not " + components);
+            }
+
+            if (offset > 0 && offset % 4 != 0) {
+                throw new RuntimeException("Attribute " + name + " must be aligned to four bytes, but has offset " + offset);
+            }
+
+            this.name = name;
+            this.components = components;
+            this.type = type;
+            this.normalized = normalized;
+            this.offset = offset;
+        }
+
+        /**
+         * Returns the size of this attribute in bytes.
+         */
+        public int getByteCount() {
+            return components * sizeOf(type);
+        }
+    }
+
+    // Positions only, as used by a plain Mesh.
+    public static final VertexLayout POSITION = new VertexLayout(
+            new Attribute(Mesh.A_POSITION, Mesh.COORDS_PER_VERTEX));
+    // Positions followed by texture coordinates.
+    public static final VertexLayout POSITION_TEX_COORD = new VertexLayout(
+            new Attribute(Mesh.A_POSITION, Mesh.COORDS_PER_VERTEX),
+            new Attribute(Texture.A_TEX_COORD, 2));
+    // Positions, texture coordinates, normals, and a color packed into four normalized bytes.
+    public static final VertexLayout POSITION_TEX_COORD_NORMAL_COLOR = new VertexLayout(
+            new Attribute(Mesh.A_POSITION, Mesh.COORDS_PER_VERTEX),
+            new Attribute(Texture.A_TEX_COORD, 2),
+            new Attribute(Mesh.A_NORMAL, 3),
+            new Attribute(Mesh.A_COLOR, 4, GLES20.GL_UNSIGNED_BYTE, true));
+}
@@ -0,0 +1,14 @@
+// Common declarations for TextureFilter fragment shaders; use with #include "filter_header".
+
+// sets the precision for this GPU
+precision mediump float;
+
+// texture coordinate information from the vertex shader.
+varying vec2 v_TexCoord;
+
+// storage for texture data
+uniform sampler2D u_Texture;
+
+// width and height of a GPU pixel in screen space
+uniform float u_TexelWidth;
+uniform float u_TexelHeight;
@@ -0,0 +1,8 @@
+#include "filter_header"
+
+/**
+ * Copies the input texture unchanged, such as to resample it to the size of the output.
+ */
+void main() {
+    gl_FragColor = texture2D(u_Texture, v_TexCoord);
+}
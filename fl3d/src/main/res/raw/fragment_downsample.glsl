@@ -0,0 +1,17 @@
+#include "filter_header"
+
+// a quarter of the size of one output pixel, in texture coordinates of the input
+uniform vec2 u_SampleOffset;
+
+/**
+ * A cheap box filter for shrinking an image: four linear-filtered samples around the center of the output pixel,
+ * each blending up to four texels, so a 4x4 block of input texels contributes to each output pixel.
+ */
+void main() {
+    vec4 sum = texture2D(u_Texture, v_TexCoord + vec2(-u_SampleOffset.x, -u_SampleOffset.y));
+    sum += texture2D(u_Texture, v_TexCoord + vec2(u_SampleOffset.x, -u_SampleOffset.y));
+    sum += texture2D(u_Texture, v_TexCoord + vec2(-u_SampleOffset.x, u_SampleOffset.y));
+    sum += texture2D(u_Texture, v_TexCoord + vec2(u_SampleOffset.x, u_SampleOffset.y));
+
+    gl_FragColor = sum * 0.25;
+}
@@ -0,0 +1,29 @@
+#include "filter_header"
+
+// the number of taps on each side of the center, including the center; defined by GaussianBlurFilter
+#ifndef TAPS
+#define TAPS 1
+#endif
+
+// (1, 0) for the horizontal pass, (0, 1) for the vertical pass
+uniform vec2 u_Direction;
+
+// the weight of each tap in x, and its distance from the center in texels in y; taps after the first each cover two
+// texels, using linear filtering to blend them. Packed so each tap uses one uniform vector rather than two.
+uniform vec2 u_Taps[TAPS];
+
+/**
+ * One direction of a separable gaussian blur.
+ */
+void main() {
+    vec2 texel = u_Direction * vec2(u_TexelWidth, u_TexelHeight);
+    vec3 sum = texture2D(u_Texture, v_TexCoord).rgb * u_Taps[0].x;
+
+    for (int i = 1; i < TAPS; i++) {
+        vec2 offset = texel * u_Taps[i].y;
+        sum += (texture2D(u_Texture, v_TexCoord + offset).rgb + texture2D(u_Texture, v_TexCoord - offset).rgb) * u_Taps[i].x;
+    }
+
+    // assumes alpha is 1
+    gl_FragColor = vec4(sum, 1.0);
+}
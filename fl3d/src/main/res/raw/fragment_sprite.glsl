@@ -0,0 +1,15 @@
+// sets the precision for this GPU
+precision mediump float;
+
+// texture coordinate and color information from the vertex shader.
+varying vec2 v_TexCoord;
+varying vec4 v_Color;
+
+// storage for texture data
+uniform sampler2D u_Texture;
+
+// the core program that defines how this shader functions
+void main() {
+    // tint the texture by the sprite's color
+    gl_FragColor = texture2D(u_Texture, v_TexCoord) * v_Color;
+}
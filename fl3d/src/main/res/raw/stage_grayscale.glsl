@@ -0,0 +1,6 @@
+// A POINT FilterStage: converts a color to its luminance, keeping alpha.
+
+vec4 apply(vec4 color) {
+    float luma = dot(color.rgb, vec3(0.299, 0.587, 0.114));
+    return vec4(luma, luma, luma, color.a);
+}
@@ -0,0 +1,10 @@
+// A POINT FilterStage: sets each color channel to 0.0 below the threshold and 1.0 at or above it, keeping alpha.
+
+// the threshold, which can be changed by defining STAGE_THRESHOLD in the stage's defines
+#ifndef STAGE_THRESHOLD
+#define STAGE_THRESHOLD 0.5
+#endif
+
+vec4 apply(vec4 color) {
+    return vec4(step(vec3(STAGE_THRESHOLD), color.rgb), color.a);
+}
@@ -0,0 +1,22 @@
+// Per-vertex position information we will pass in.
+attribute vec4 a_Position;
+
+// Per-vertex texture coordinate information we will pass in.
+attribute vec2 a_TexCoord;
+
+// Per-vertex color, which tints the texture.
+attribute vec4 a_Color;
+
+// These will be passed into the fragment shader.
+varying vec2 v_TexCoord;
+varying vec4 v_Color;
+
+// the core program that defines how this shader functions
+void main() {
+	// Pass through the texture coordinate and color.
+	v_TexCoord = a_TexCoord;
+	v_Color = a_Color;
+
+	// Pass through the position information.
+	gl_Position = a_Position;
+}
@@ -0,0 +1,75 @@
+package com.floatlearning.fl3d;
+
+import java.util.Random;
+
+/**
+ * Measures packing a typical set of sprite and glyph sizes into 1024x1024 pages, one at a time in the given order and
+ * all at once with packAll(), and how full the pages end up. Not part of the unit tests, since timings depend on the
+ * machine; run main() from the IDE or with the test classpath.
+ */
+public class AtlasPackerBenchmark {
+    public static void main(final String[] args) {
+        final Random random = new Random(1);
+        final int[] widths = new int[COUNT];
+        final int[] heights = new int[COUNT];
+
+        for (int i = 0; i < COUNT; i++) {
+            // mostly glyph-sized, with some larger sprites
+            final int max = random.nextInt(10) == 0 ? 200 : 40;
+            widths[i] = 4 + random.nextInt(max);
+            heights[i] = 4 + random.nextInt(max);
+        }
+
+        System.out.println(COUNT + " rectangles into " + PAGE_SIZE + "x" + PAGE_SIZE + " pages, ms per run");
+
+        for (int round = 0; round < ROUNDS; round++) {
+            AtlasPacker packer = null;
+            long start = System.nanoTime();
+
+            for (int run = 0; run < RUNS; run++) {
+                packer = new AtlasPacker(PAGE_SIZE, PAGE_SIZE, PADDING);
+
+                for (int i = 0; i < COUNT; i++) {
+                    packer.pack(widths[i], heights[i]);
+                }
+            }
+
+            final double inOrder = elapsed(start);
+            final String inOrderPages = describe(packer);
+            start = System.nanoTime();
+
+            for (int run = 0; run < RUNS; run++) {
+                packer = new AtlasPacker(PAGE_SIZE, PAGE_SIZE, PADDING);
+                packer.packAll(widths, heights);
+            }
+
+            final double all = elapsed(start);
+
+            System.out.println(String.format("round %d: in order %.2f (%s), packAll %.2f (%s)",
+                    round, inOrder, inOrderPages, all, describe(packer)));
+        }
+    }
+
+    /**
+     * Internal method to list the pages used and how full each is.
+     */
+    private static String describe(final AtlasPacker packer) {
+        final StringBuilder result = new StringBuilder(packer.getPageCount() + " pages:");
+
+        for (int page = 0; page < packer.getPageCount(); page++) {
+            result.append(String.format(" %.0f%%", packer.getOccupancy(page) * 100));
+        }
+
+        return result.toString();
+    }
+
+    private static double elapsed(final long start) {
+        return (System.nanoTime() - start) / 1e6 / RUNS;
+    }
+
+    private static final int PAGE_SIZE = 1024;
+    private static final int PADDING = 1;
+    private static final int COUNT = 2000;
+    private static final int RUNS = 20;
+    private static final int ROUNDS = 5;
+}
@@ -0,0 +1,135 @@
+package com.floatlearning.fl3d;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that random rectangles are always placed inside their pages with their padding, without overlapping.
+ */
+public class AtlasPackerTest {
+    @Test
+    public void packsRandomRectanglesInBoundsWithoutOverlap() {
+        for (int padding : PADDINGS) {
+            for (int round = 0; round < ROUNDS; round++) {
+                final Random random = new Random(SEED + round * 7 + padding);
+                final AtlasPacker packer = new AtlasPacker(PAGE_WIDTH, PAGE_HEIGHT, padding);
+                final AtlasPacker.Placement[] placements = new AtlasPacker.Placement[COUNT];
+
+                for (int i = 0; i < COUNT; i++) {
+                    final int width = randomSize(random, PAGE_WIDTH, padding);
+                    final int height = randomSize(random, PAGE_HEIGHT, padding);
+
+                    placements[i] = packer.pack(width, height);
+                    assertEquals(width, placements[i].width);
+                    assertEquals(height, placements[i].height);
+                }
+
+                checkPlacements(packer, placements);
+            }
+        }
+    }
+
+    @Test
+    public void packsAllInTheGivenOrder() {
+        for (int padding : PADDINGS) {
+            final Random random = new Random(SEED + padding);
+            final int[] widths = new int[COUNT];
+            final int[] heights = new int[COUNT];
+
+            for (int i = 0; i < COUNT; i++) {
+                widths[i] = randomSize(random, PAGE_WIDTH, padding);
+                heights[i] = randomSize(random, PAGE_HEIGHT, padding);
+            }
+
+            final AtlasPacker packer = new AtlasPacker(PAGE_WIDTH, PAGE_HEIGHT, padding);
+            final AtlasPacker.Placement[] placements = packer.packAll(widths, heights);
+
+            assertEquals(COUNT, placements.length);
+
+            for (int i = 0; i < COUNT; i++) {
+                assertEquals(widths[i], placements[i].width);
+                assertEquals(heights[i], placements[i].height);
+            }
+
+            checkPlacements(packer, placements);
+        }
+    }
+
+    @Test
+    public void fillsAPageExactly() {
+        final AtlasPacker packer = new AtlasPacker(64, 64, 1);
+
+        for (int i = 0; i < 16; i++) {
+            assertEquals(0, packer.pack(14, 14).page);
+        }
+
+        assertEquals(1, packer.getPageCount());
+        assertEquals(1.0, packer.getOccupancy(0), 1e-6);
+
+        // the page is full, so the next rectangle starts another
+        assertEquals(1, packer.pack(1, 1).page);
+        assertEquals(2, packer.getPageCount());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void rejectsRectanglesLargerThanAPage() {
+        new AtlasPacker(64, 64, 1).pack(63, 10);
+    }
+
+    /**
+     * Internal method to check that every placement, with its padding, is inside a page which exists, and that no two
+     * on the same page overlap.
+     */
+    private static void checkPlacements(final AtlasPacker packer, final AtlasPacker.Placement[] placements) {
+        final int padding = packer.padding;
+
+        for (int i = 0; i < placements.length; i++) {
+            final AtlasPacker.Placement a = placements[i];
+
+            assertTrue("page " + a.page, a.page >= 0 && a.page < packer.getPageCount());
+            assertTrue(describe(a) + " is outside the page", a.x - padding >= 0 && a.y - padding >= 0
+                    && a.x + a.width + padding <= packer.pageWidth && a.y + a.height + padding <= packer.pageHeight);
+
+            for (int j = i + 1; j < placements.length; j++) {
+                final AtlasPacker.Placement b = placements[j];
+
+                if (a.page != b.page) {
+                    continue;
+                }
+
+                // padded rectangles may touch, so rectangles are at least twice the padding apart
+                final boolean separate = a.x + a.width + 2 * padding <= b.x || b.x + b.width + 2 * padding <= a.x
+                        || a.y + a.height + 2 * padding <= b.y || b.y + b.height + 2 * padding <= a.y;
+                assertTrue(describe(a) + " overlaps " + describe(b), separate);
+            }
+        }
+
+        for (int page = 0; page < packer.getPageCount(); page++) {
+            assertTrue("occupancy of page " + page, packer.getOccupancy(page) > 0 && packer.getOccupancy(page) <= 1);
+        }
+    }
+
+    private static String describe(final AtlasPacker.Placement placement) {
+        return placement.width + "x" + placement.height + " at " + placement.x + ", " + placement.y + " on page "
+                + placement.page;
+    }
+
+    /**
+     * Internal method to pick a size which fits a page with its padding, mostly small with some up to the whole page.
+     */
+    private static int randomSize(final Random random, final int pageSize, final int padding) {
+        final int max = pageSize - 2 * padding;
+        return random.nextInt(8) == 0 ? 1 + random.nextInt(max) : 1 + random.nextInt(Math.max(1, max / 6));
+    }
+
+    private static final long SEED = 11;
+    private static final int[] PADDINGS = {0, 1, 3};
+    private static final int ROUNDS = 20;
+    private static final int COUNT = 200;
+    private static final int PAGE_WIDTH = 256;
+    private static final int PAGE_HEIGHT = 128;
+}
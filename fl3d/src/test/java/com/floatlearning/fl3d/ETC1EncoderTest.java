@@ -0,0 +1,276 @@
+package com.floatlearning.fl3d;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the encoder against known blocks and a decoder written from the ETC1 specification, and that PKM files and
+ * the command line tool round-trip the encoded data exactly.
+ */
+public class ETC1EncoderTest {
+    @Test
+    public void encodesSolidBlocksExactly() {
+        // differential mode with both base colors 0, table 0, and every pixel at -2, which clamps to black
+        assertArrayEquals(bytes(0x00, 0x00, 0x00, 0x02, 0xFF, 0xFF, 0x00, 0x00), encodeSolid(0xFF000000));
+        // differential mode with both base colors 31, table 0, and every pixel at +2, which clamps to white
+        assertArrayEquals(bytes(0xF8, 0xF8, 0xF8, 0x02, 0x00, 0x00, 0x00, 0x00), encodeSolid(0xFFFFFFFF));
+    }
+
+    @Test
+    public void solidBlocksDecodeClosely() {
+        final Random random = new Random(SEED);
+
+        for (int i = 0; i < 2000; i++) {
+            final int color = 0xFF000000 | random.nextInt(0x1000000);
+            final int[] decoded = decodeBlock(encodeSolid(color), 0);
+
+            for (int pixel : decoded) {
+                // the base color is within half a 5-bit step, and the smallest modifier is 2
+                assertTrue(Integer.toHexString(color) + " decoded as " + Integer.toHexString(pixel), maxChannelError(color, pixel) <= 6);
+            }
+        }
+    }
+
+    @Test
+    public void gradientsDecodeClosely() {
+        final int width = 37;
+        final int height = 23;
+        final int[] pixels = gradient(width, height);
+        final int[] decoded = decode(ETC1Encoder.encode(pixels, width, height), width, height);
+        double squaredError = 0;
+
+        for (int i = 0; i < pixels.length; i++) {
+            for (int shift = 0; shift <= 16; shift += 8) {
+                final int difference = ((pixels[i] >> shift) & 0xFF) - ((decoded[i] >> shift) & 0xFF);
+                squaredError += difference * difference;
+            }
+        }
+
+        final double psnr = 10 * Math.log10(255.0 * 255.0 / (squaredError / (pixels.length * 3)));
+        assertTrue("PSNR " + psnr, psnr > MIN_GRADIENT_PSNR);
+    }
+
+    @Test
+    public void encodesIdenticallyInBands() {
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+        try {
+            for (int[] size : SIZES) {
+                final int[] pixels = randomPixels(size[0] * size[1]);
+                final byte[] expected = ETC1Encoder.encode(pixels, size[0], size[1]);
+
+                for (int bands : new int[]{1, 2, 5, 64}) {
+                    assertArrayEquals(size[0] + "x" + size[1] + " in " + bands + " bands", expected,
+                            ETC1Encoder.encode(pixels, size[0], size[1], executor, bands));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void roundTripsThroughPKM() throws IOException {
+        for (int[] size : SIZES) {
+            final int[] pixels = randomPixels(size[0] * size[1]);
+            final byte[] etc1 = ETC1Encoder.encode(pixels, size[0], size[1]);
+            final ByteArrayOutputStream file = new ByteArrayOutputStream();
+
+            CompressedImage.writePKM(file, etc1, size[0], size[1]);
+            final CompressedImage image = CompressedImage.read(new ByteArrayInputStream(file.toByteArray()));
+
+            assertEquals(size[0], image.width);
+            assertEquals(size[1], image.height);
+            assertEquals(CompressedImage.GL_ETC1_RGB8_OES, image.internalFormat);
+            assertEquals(1, image.getLevelCount());
+            assertArrayEquals(etc1, levelBytes(image));
+        }
+    }
+
+    @Test
+    public void toolCompressesPPM() throws IOException {
+        final int width = 9;
+        final int height = 6;
+        final int[] pixels = gradient(width, height);
+        final ByteArrayOutputStream ppm = new ByteArrayOutputStream();
+
+        ppm.write(("P6\n# a comment\n" + width + " " + height + "\n255\n").getBytes("US-ASCII"));
+
+        for (int pixel : pixels) {
+            ppm.write((pixel >> 16) & 0xFF);
+            ppm.write((pixel >> 8) & 0xFF);
+            ppm.write(pixel & 0xFF);
+        }
+
+        final ByteArrayOutputStream pkm = new ByteArrayOutputStream();
+        ETC1Tool.compress(new ByteArrayInputStream(ppm.toByteArray()), pkm, 2);
+
+        final CompressedImage image = CompressedImage.read(new ByteArrayInputStream(pkm.toByteArray()));
+        assertEquals(width, image.width);
+        assertEquals(height, image.height);
+        assertArrayEquals(ETC1Encoder.encode(pixels, width, height), levelBytes(image));
+    }
+
+    private static byte[] encodeSolid(final int color) {
+        final int[] block = new int[16];
+        final byte[] out = new byte[ETC1Encoder.BYTES_PER_BLOCK];
+
+        Arrays.fill(block, color);
+        ETC1Encoder.encodeBlock(block, out, 0);
+        return out;
+    }
+
+    /**
+     * Internal method to decode a whole image, cropping the partial blocks at the edges.
+     */
+    private static int[] decode(final byte[] etc1, final int width, final int height) {
+        final int blocksWide = (width + 3) / 4;
+        final int[] result = new int[width * height];
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int block = (y / 4) * blocksWide + x / 4;
+                result[y * width + x] = decodeBlock(etc1, block * ETC1Encoder.BYTES_PER_BLOCK)[(y % 4) * 4 + x % 4];
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Internal method to decode one block as the OES_compressed_ETC1_RGB8_texture specification describes, independently
+     * of the encoder's tables.
+     *
+     * @return  16 ARGB pixels, row by row.
+     */
+    private static int[] decodeBlock(final byte[] etc1, final int offset) {
+        long bits = 0;
+
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | (etc1[offset + i] & 0xFF);
+        }
+
+        final boolean differential = ((bits >>> 33) & 1) != 0;
+        final boolean flip = ((bits >>> 32) & 1) != 0;
+        final int[][] bases = new int[2][3];
+
+        for (int channel = 0; channel < 3; channel++) {
+            final int shift = 59 - 8 * channel;
+
+            if (differential) {
+                final int base = (int) ((bits >>> shift) & 31);
+                int delta = (int) ((bits >>> (shift - 3)) & 7);
+                delta = delta >= 4 ? delta - 8 : delta;
+
+                bases[0][channel] = (base << 3) | (base >> 2);
+                bases[1][channel] = ((base + delta) << 3) | ((base + delta) >> 2);
+            } else {
+                final int first = (int) ((bits >>> (shift + 1)) & 15);
+                final int second = (int) ((bits >>> (shift - 3)) & 15);
+
+                bases[0][channel] = first * 17;
+                bases[1][channel] = second * 17;
+            }
+        }
+
+        final int[] tables = { (int) ((bits >>> 37) & 7), (int) ((bits >>> 34) & 7) };
+        final int[] result = new int[16];
+
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                final int subBlock = flip ? (y >= 2 ? 1 : 0) : (x >= 2 ? 1 : 0);
+                final int bit = x * 4 + y;
+                final int msb = (int) ((bits >>> (bit + 16)) & 1);
+                final int lsb = (int) ((bits >>> bit) & 1);
+                final int magnitude = lsb == 0 ? SPEC_TABLES[tables[subBlock]][0] : SPEC_TABLES[tables[subBlock]][1];
+                final int modifier = msb == 0 ? magnitude : -magnitude;
+                int pixel = 0xFF000000;
+
+                for (int channel = 0; channel < 3; channel++) {
+                    pixel |= clamp(bases[subBlock][channel] + modifier) << (16 - 8 * channel);
+                }
+
+                result[y * 4 + x] = pixel;
+            }
+        }
+
+        return result;
+    }
+
+    private static byte[] levelBytes(final CompressedImage image) {
+        final byte[] result = new byte[image.getLevel(0).capacity()];
+        image.getLevel(0).get(result);
+        return result;
+    }
+
+    private static int maxChannelError(final int a, final int b) {
+        int max = 0;
+
+        for (int shift = 0; shift <= 16; shift += 8) {
+            max = Math.max(max, Math.abs(((a >> shift) & 0xFF) - ((b >> shift) & 0xFF)));
+        }
+
+        return max;
+    }
+
+    private static int[] gradient(final int width, final int height) {
+        final int[] pixels = new int[width * height];
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int r = x * 255 / Math.max(1, width - 1);
+                final int g = y * 255 / Math.max(1, height - 1);
+                final int b = (r + g) / 2;
+                pixels[y * width + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+
+        return pixels;
+    }
+
+    private static int[] randomPixels(final int count) {
+        final Random random = new Random(SEED + count);
+        final int[] pixels = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            pixels[i] = random.nextInt();
+        }
+
+        return pixels;
+    }
+
+    private static byte[] bytes(final int... values) {
+        final byte[] result = new byte[values.length];
+
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+
+        return result;
+    }
+
+    private static int clamp(final int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    private static final long SEED = 7;
+    // whole blocks, partial blocks at both edges, and images smaller than a block
+    private static final int[][] SIZES = {{4, 4}, {16, 8}, {13, 9}, {3, 2}, {1, 1}, {64, 40}};
+    // smooth images encode well; a regression in block selection drops far below this
+    private static final double MIN_GRADIENT_PSNR = 30;
+    // the modifier magnitudes of each table, for pixel index LSB 0 and 1, from the specification
+    private static final int[][] SPEC_TABLES = {
+            {2, 8}, {5, 17}, {9, 29}, {13, 42}, {18, 60}, {24, 80}, {33, 106}, {47, 183}
+    };
+}
@@ -0,0 +1,172 @@
+package com.floatlearning.fl3d;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks every conversion path against a per-pixel reference, for both row orders and for odd and even heights.
+ */
+public class PixelConverterTest {
+    @Test
+    public void swizzleSwapsRedAndBlue() {
+        assertEquals(0x80332211, PixelConverter.swizzle(0x80112233));
+        assertEquals(0xFF0000FF, PixelConverter.swizzle(0xFFFF0000));
+        assertEquals(0x00FF0000, PixelConverter.swizzle(0x000000FF));
+
+        final Random random = new Random(SEED);
+
+        for (int i = 0; i < 10000; i++) {
+            final int rgba = random.nextInt();
+            assertEquals(reference(rgba), PixelConverter.swizzle(rgba));
+        }
+    }
+
+    @Test
+    public void convertsFromBuffer() {
+        for (int[] size : SMALL_SIZES) {
+            checkFromBuffer(size[0], size[1], false);
+            checkFromBuffer(size[0], size[1], true);
+        }
+    }
+
+    @Test
+    public void convertsInPlace() {
+        for (int[] size : SMALL_SIZES) {
+            checkInPlace(size[0], size[1], false);
+            checkInPlace(size[0], size[1], true);
+        }
+    }
+
+    @Test
+    public void convertsLargeFramesInBands() {
+        // both sizes are over PARALLEL_THRESHOLD, so the automatic paths split them into bands when there are cores to use
+        assertTrue(LARGE_WIDTH * LARGE_EVEN_HEIGHT >= PixelConverter.PARALLEL_THRESHOLD);
+
+        for (int height : new int[]{LARGE_EVEN_HEIGHT, LARGE_EVEN_HEIGHT + 1}) {
+            checkFromBuffer(LARGE_WIDTH, height, true);
+            checkFromBuffer(LARGE_WIDTH, height, false);
+            checkInPlace(LARGE_WIDTH, height, true);
+            checkInPlace(LARGE_WIDTH, height, false);
+        }
+    }
+
+    @Test
+    public void convertsOnAnyExecutorAndBandCount() {
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+        try {
+            // more bands than rows, one band, and a count which doesn't divide the height
+            for (int bands : new int[]{1, 3, 7, 64}) {
+                final int width = 19;
+                final int height = 5;
+                final int[] rgba = randomPixels(width * height);
+                final int[] argb = new int[width * height];
+
+                PixelConverter.rgbaToArgb(asBuffer(rgba), argb, width, height, true, executor, bands);
+                assertArrayEquals(expected(rgba, width, height, true), argb);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void rejectsArraysTooSmallForTheFrame() {
+        PixelConverter.rgbaToArgbInPlace(new int[11], 4, 3, true);
+    }
+
+    @Test
+    public void reusesRecycledArrays() {
+        final int[] array = PixelConverter.obtain(1234);
+        assertTrue(array.length >= 1234);
+
+        PixelConverter.recycle(array);
+        assertSame(array, PixelConverter.obtain(1000));
+    }
+
+    /**
+     * Internal method to convert a frame from a direct native-order buffer, as glReadPixels fills, and check the result.
+     */
+    private static void checkFromBuffer(final int width, final int height, final boolean flip) {
+        final int[] rgba = randomPixels(width * height);
+        final int[] argb = new int[width * height];
+
+        PixelConverter.rgbaToArgb(asBuffer(rgba), argb, width, height, flip);
+        assertArrayEquals(width + "x" + height + " flip " + flip, expected(rgba, width, height, flip), argb);
+    }
+
+    /**
+     * Internal method to convert a frame in place and check the result.
+     */
+    private static void checkInPlace(final int width, final int height, final boolean flip) {
+        final int[] rgba = randomPixels(width * height);
+        final int[] pixels = rgba.clone();
+
+        PixelConverter.rgbaToArgbInPlace(pixels, width, height, flip);
+        assertArrayEquals(width + "x" + height + " flip " + flip, expected(rgba, width, height, flip), pixels);
+    }
+
+    /**
+     * Internal method to compute the expected output one pixel at a time.
+     */
+    private static int[] expected(final int[] rgba, final int width, final int height, final boolean flip) {
+        final int[] result = new int[width * height];
+
+        for (int y = 0; y < height; y++) {
+            final int sourceRow = flip ? height - 1 - y : y;
+
+            for (int x = 0; x < width; x++) {
+                result[y * width + x] = reference(rgba[sourceRow * width + x]);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Internal method to convert one pixel by unpacking its channels, independently of PixelConverter's bit tricks.
+     */
+    private static int reference(final int rgba) {
+        final int alpha = (rgba >>> 24) & 0xFF;
+        final int blue = (rgba >>> 16) & 0xFF;
+        final int green = (rgba >>> 8) & 0xFF;
+        final int red = rgba & 0xFF;
+
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+
+    private static int[] randomPixels(final int count) {
+        final Random random = new Random(SEED + count);
+        final int[] pixels = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            pixels[i] = random.nextInt();
+        }
+
+        return pixels;
+    }
+
+    private static IntBuffer asBuffer(final int[] pixels) {
+        final IntBuffer buffer = ByteBuffer.allocateDirect(pixels.length * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        buffer.put(pixels);
+        buffer.position(0);
+        return buffer;
+    }
+
+    private static final long SEED = 42;
+    // odd and even heights, including a single row and a single column
+    private static final int[][] SMALL_SIZES = {{1, 1}, {7, 1}, {1, 6}, {16, 8}, {13, 9}, {40, 31}};
+    private static final int LARGE_WIDTH = 640;
+    private static final int LARGE_EVEN_HEIGHT = 480;
+}
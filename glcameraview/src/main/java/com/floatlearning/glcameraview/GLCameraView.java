@@ -5,18 +5,32 @@ import android.graphics.Bitmap;
 import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
+import android.opengl.GLES20;
 
 import com.floatlearning.fileio.FileIO;
+import com.floatlearning.fileio.FileWriteQueue;
+import com.floatlearning.fl3d.BufferObject;
 import com.floatlearning.fl3d.Core;
 import com.floatlearning.fl3d.Disposer;
 import com.floatlearning.fl3d.ExternalTexturedMesh;
 import com.floatlearning.fl3d.FL3DSurfaceView;
+import com.floatlearning.fl3d.FilterFusion;
+import com.floatlearning.fl3d.FilterGraph;
+import com.floatlearning.fl3d.FilterStage;
 import com.floatlearning.fl3d.FrameBuffer;
 import com.floatlearning.fl3d.FrameProvider;
-import com.floatlearning.fl3d.Program;
+import com.floatlearning.fl3d.GLState;
+import com.floatlearning.fl3d.GaussianBlurFilter;
+import com.floatlearning.fl3d.PixelConverter;
+import com.floatlearning.fl3d.RenderTargetPool;
+import com.floatlearning.fl3d.ShaderRegistry;
 import com.floatlearning.fl3d.TextureFilter;
 import com.floatlearning.threadedcamera.ThreadedCamera;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
 import javax.microedition.khronos.opengles.GL10;
 
 /**
@@ -52,19 +66,30 @@ public class GLCameraView extends FL3DSurfaceView implements SurfaceTexture.OnFr
     private boolean pendingCapture = false;
     private String pendingCaptureFolder = "";
     private String pendingCaptureFilename = "";
+    /**
+     * Saves captured frames off the GL thread. Set on the GL thread and cleared by dispose() on the UI thread.
+     */
+    private volatile FileWriteQueue writeQueue;
     /**
      * The frame buffer that stores the camera preview.
      */
     private FrameBuffer imageCaptureFrameBuffer;
     /**
-     * The sobel filter performs simple edge detection.
+     * Lends the filter graph its targets each frame.
+     */
+    private RenderTargetPool renderTargets;
+    /**
+     * The edge detection pipeline: the camera image is gaussian blurred to remove noise, then the sobel filter performs simple edge detection,
+     * then edge directions feed text detection. The text pass is culled until its result is read.
      */
-    private TextureFilter blurFilter;
-    private TextureFilter sobelFilter;
+    private FilterGraph filterGraph;
     private TextureFilter edgeDirectionFilter;
-    private TextureFilter edgeToTextFilter;
     private boolean filtersEnabled = false;
-    private boolean postProcessFrameCallback = true;
+    /**
+     * Whether each frame is read back for postProcessFrame(). Off until something consumes the frames, since every read
+     * stalls the GL thread until the GPU has finished the frame.
+     */
+    private boolean postProcessFrameCallback = false;
     private FrameProvider frameProvider;
 
     /**
@@ -87,7 +112,6 @@ public class GLCameraView extends FL3DSurfaceView implements SurfaceTexture.OnFr
     public GLCameraView(final Context context, final int requestedCamera) {
         super(context);
         this.requestedCamera = requestedCamera;
-        frameProvider = new FrameProvider(getWidth(), getHeight());
     }
 
     public void enableFilters() {
@@ -155,10 +179,10 @@ public class GLCameraView extends FL3DSurfaceView implements SurfaceTexture.OnFr
     }
 
     /**
-     * Request that a frame from the camera feed is captured and saved to disk as a JPEG.
+     * Request that the next rendered frame is captured and saved to disk as a PNG, in the background.
      *
      * @param folder    The folder to save to in external storage.
-     * @param filename  The name of the file to save. The file extension will be `.jpg`
+     * @param filename  The name of the file to save; the time and date are appended, and the extension will be `.png`
      */
     public void requestFrameCapture(final String folder, final String filename) {
         pendingCaptureFolder = folder;
@@ -175,9 +199,10 @@ public class GLCameraView extends FL3DSurfaceView implements SurfaceTexture.OnFr
 
         program.dispose();
         program = null;
-        program = new Program(getResources(), R.raw.fragment_texture, R.raw.vertex_texture);
+        program = ShaderRegistry.acquireProgram(getResources(), R.raw.fragment_texture, R.raw.vertex_texture);
 
         ExternalTexturedMesh cameraRenderable = new ExternalTexturedMesh();
+        cameraRenderable.upload(BufferObject.Usage.STATIC);
         cameraRenderable.setOnFrameAvailableListener(this);
         add(cameraRenderable);
 
@@ -187,10 +212,48 @@ public class GLCameraView extends FL3DSurfaceView implements SurfaceTexture.OnFr
         final int w = getWidth();
         final int h = getHeight();
 
-        imageCaptureFrameBuffer = new FrameBuffer(w, h);
-        blurFilter = new TextureFilter(w, h, getResources(), R.raw.fragment_blur, R.raw.vertex_texture);
-        sobelFilter = new TextureFilter(w, h, getResources(), R.raw.fragment_sobel, R.raw.vertex_texture);
-        edgeDirectionFilter = new TextureFilter(w, h, getResources(), R.raw.fragment_direct, R.raw.vertex_texture);
+        // nothing here tests depth, so none of the frame buffers need a depth attachment
+        imageCaptureFrameBuffer = new FrameBuffer(w, h, GLES20.GL_RGBA, false);
+
+        // captures already queued by a previous surface are still saved
+        if (writeQueue != null) {
+            writeQueue.shutdown();
+        }
+
+        writeQueue = new FileWriteQueue();
+        renderTargets = new RenderTargetPool();
+        edgeDirectionFilter = new TextureFilter(getResources(), null, R.raw.fragment_direct, R.raw.vertex_texture);
+
+        // blurring and edge detection run at a quarter of the resolution; only the direction pass is full size
+        final GaussianBlurFilter blurFilter = new GaussianBlurFilter(getResources(), BLUR_SIGMA);
+        // grayscale conversion, sobel and direction quantization run as one generated pass instead of three
+        final TextureFilter[] sobelFilters = FilterFusion.build(getResources(), FilterFusion.DEFAULT_MAX_TAPS,
+                new FilterStage(FilterStage.Kind.POINT, R.raw.stage_grayscale, 1),
+                new FilterStage(FilterStage.Kind.KERNEL, R.raw.stage_sobel, 8),
+                new FilterStage(FilterStage.Kind.POINT, R.raw.stage_quantize_direction, 1));
+        final TextureFilter edgeToTextFilter = new TextureFilter(getResources(), null, R.raw.fragment_text, R.raw.vertex_texture);
+        blurFilter.setScale(TextureFilter.QUARTER_SCALE);
+
+        for (TextureFilter sobelFilter : sobelFilters) {
+            sobelFilter.setScale(TextureFilter.QUARTER_SCALE);
+        }
+
+        edgeToTextFilter.setScale(TextureFilter.QUARTER_SCALE);
+
+        filterGraph = new FilterGraph(renderTargets, getResources(), w, h);
+        filterGraph.addSource(NODE_CAMERA);
+        filterGraph.addPass(NODE_BLUR, blurFilter, NODE_CAMERA);
+        filterGraph.addChain(NODE_SOBEL, sobelFilters, NODE_BLUR);
+        filterGraph.addPass(NODE_DIRECTION, edgeDirectionFilter, NODE_SOBEL);
+        filterGraph.addPass(NODE_TEXT, edgeToTextFilter, NODE_DIRECTION);
+        filterGraph.setSource(NODE_CAMERA, imageCaptureFrameBuffer.texture);
+
+        // the view has no size until its surface exists, so frames can only be sized now
+        frameProvider = Disposer.dispose(frameProvider);
+        frameProvider = new FrameProvider(w, h);
+
+        // the text pass stays out of the outputs until something reads its result, so the graph culls it
+        filterGraph.setOutputs(NODE_DIRECTION);
 
         if (pendingAutoFocus) {
             requestAutoFocus();
@@ -213,9 +276,13 @@ public class GLCameraView extends FL3DSurfaceView implements SurfaceTexture.OnFr
             return;
         }
 
+        beginFrame();
+
         if (filtersEnabled) {
-            // capture drawn frames on the default frame buffer
+            // capture drawn frames on the default frame buffer; binding it sets the viewport to its size
             imageCaptureFrameBuffer.bind();
+        } else {
+            GLState.viewport(0, 0, width, height);
         }
 
         // render all drawables
@@ -225,20 +292,22 @@ public class GLCameraView extends FL3DSurfaceView implements SurfaceTexture.OnFr
         program.unbind();
 
         if (filtersEnabled) {
-            blurFilter.processTexture(imageCaptureFrameBuffer.texture);
-            sobelFilter.processTexture(blurFilter.target.texture);
-            edgeDirectionFilter.processTexture(sobelFilter.target.texture);
+            filterGraph.execute();
 
             imageCaptureFrameBuffer.unbind();
 
+            // the filter passes leave the viewport at the size of the last one, which may be a fraction of the screen
+            GLState.viewport(0, 0, width, height);
             edgeDirectionFilter.drawTo(this, false);
+            filterGraph.releaseOutputs();
         }
 
+        // anything submitted to the render queue is drawn over the frame, so captures include it
+        endFrame();
+
         // save the results of the edge detect filter to file, if requested
         if (pendingCapture) {
-            Bitmap bitmap = Core.getRenderedBitmap(0, 0, width, height);
-            FileIO.saveImageFromBitmapWithTimestamp(bitmap, pendingCaptureFolder, pendingCaptureFilename, true);
-            bitmap.recycle();
+            captureFrame(pendingCaptureFolder, FileIO.getTimestampedName(pendingCaptureFilename));
             pendingCapture = false;
         }
 
@@ -255,6 +324,51 @@ public class GLCameraView extends FL3DSurfaceView implements SurfaceTexture.OnFr
         }
     }
 
+    /**
+     * Reads the rendered frame and hands it to the write queue, which converts, compresses and saves it on a worker.
+     * Only the read happens on the GL thread.
+     *
+     * @param folder    The folder to save to in external storage.
+     * @param filename  The name of the file to save, without an extension.
+     */
+    private void captureFrame(final String folder, final String filename) {
+        // dispose() may clear the queue on the UI thread at any time
+        final FileWriteQueue queue = writeQueue;
+
+        if (queue == null) {
+            return;
+        }
+
+        final int w = width;
+        final int h = height;
+        final int[] pixels = PixelConverter.obtain(w * h);
+        Core.readRenderedPixels(0, 0, w, h, pixels);
+
+        queue.write(new FileWriteQueue.Encoder() {
+            @Override
+            public void encode(final OutputStream output) throws IOException {
+                // OpenGL returns RGBA with the bottom row first
+                PixelConverter.rgbaToArgbInPlace(pixels, w, h, true);
+
+                final Bitmap bitmap = Bitmap.createBitmap(pixels, 0, w, w, h, Bitmap.Config.ARGB_8888);
+
+                try {
+                    if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, output)) {
+                        throw new IOException("Unable to compress a " + w + "x" + h + " capture");
+                    }
+                } finally {
+                    bitmap.recycle();
+                }
+            }
+        }, folder, filename, FileIO.EXT_PNG, new FileWriteQueue.WriteListener() {
+            @Override
+            public void onWriteComplete(final File file, final boolean success) {
+                // called once whether the capture was saved, failed or dropped, so the array always goes back
+                PixelConverter.recycle(pixels);
+            }
+        });
+    }
+
     /**
      * A listener set by `cameraRenderable.setOnFrameAvailableListener`.
      * Requests a new render when the camera data is updated.
@@ -266,8 +380,9 @@ public class GLCameraView extends FL3DSurfaceView implements SurfaceTexture.OnFr
         requestRender();
     }
 
-    public void postProcessFrame(int[] pixels) {
-        //Log.wtf(TAG, "Got " + pixels.length + " pixels");
+    @Override
+    public void postProcessFrame(final FrameProvider.Frame frame) {
+        //Log.wtf(TAG, "Got frame " + frame.getSequence() + ", " + frame.width + "x" + frame.height);
     }
 
     @Override
@@ -281,12 +396,31 @@ public class GLCameraView extends FL3DSurfaceView implements SurfaceTexture.OnFr
         camera = null;
         pendingFaceListener = null;
         pendingTextListener = null;
-        frameProvider = null;
 
-        blurFilter = Disposer.dispose(blurFilter);
-        sobelFilter = Disposer.dispose(sobelFilter);
-        edgeDirectionFilter = Disposer.dispose(edgeDirectionFilter);
-        edgeToTextFilter = Disposer.dispose(edgeToTextFilter);
+        // the GL thread may still be requesting frames, so the provider is stopped but kept; it drops later requests
+        if (frameProvider != null) {
+            frameProvider.dispose();
+        }
+
+        // captures already queued are still saved
+        final FileWriteQueue queue = writeQueue;
+        writeQueue = null;
+
+        if (queue != null) {
+            queue.shutdown();
+        }
+    }
+
+    @Override
+    protected void disposeGL() {
+        super.disposeGL();
+
+        // the graph owns its filters
+        filterGraph = Disposer.dispose(filterGraph);
+        edgeDirectionFilter = null;
+        imageCaptureFrameBuffer = Disposer.dispose(imageCaptureFrameBuffer);
+        renderTargets = Disposer.dispose(renderTargets);
+        frameProvider = null;
     }
 
     /**
@@ -322,4 +456,12 @@ public class GLCameraView extends FL3DSurfaceView implements SurfaceTexture.OnFr
     }
 
     private static final String TAG = GLCameraView.class.getSimpleName();
+    // names of the filter graph's nodes
+    private static final String NODE_CAMERA = "camera";
+    private static final String NODE_BLUR = "blur";
+    private static final String NODE_SOBEL = "sobel";
+    private static final String NODE_DIRECTION = "direction";
+    private static final String NODE_TEXT = "text";
+    // how far the camera image is blurred before edge detection, in quarter-resolution pixels
+    private static final float BLUR_SIGMA = 1.0f;
 }
@@ -1,17 +1,10 @@
-// sets the precision for this GPU
-precision mediump float;
+#include "filter_header"
 
-// texture coordinate information from the vertex shader.
-varying vec2 v_TexCoord;
+// overall weight of the blur, which can be changed by defining SIZE when compiling
+#ifndef SIZE
+#define SIZE 1.0
+#endif
 
-// storage for texture data
-uniform sampler2D u_Texture;
-
-// width and height of a GPU pixel in screen space
-uniform float u_TexelWidth;
-uniform float u_TexelHeight;
-
-const float SIZE = 1.0;
 const float BLUR0 = 0.05 * SIZE;
 const float BLUR1 = 0.09 * SIZE;
 const float BLUR2 = 0.12 * SIZE;
@@ -1,15 +1,4 @@
-// sets the precision for this GPU
-precision mediump float;
-
-// texture coordinate information from the vertex shader.
-varying vec2 v_TexCoord;
-
-// storage for texture data
-uniform sampler2D u_Texture;
-
-// width and height of a GPU pixel in screen space
-uniform float u_TexelWidth;
-uniform float u_TexelHeight;
+#include "filter_header"
 
 const vec4 RED = vec4(1.0, 0.0, 0.0, 1.0);
 const vec4 BLU = vec4(0.0, 0.0, 1.0, 1.0);
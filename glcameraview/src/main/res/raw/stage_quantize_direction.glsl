@@ -0,0 +1,11 @@
+// A POINT FilterStage: snaps the gradient direction in green and blue, as output by stage_sobel, to the nearest of the
+// eight compass directions.
+
+vec4 apply(vec4 color) {
+    vec2 direction = color.gb * 2.0 - 1.0;
+
+    // offset by 1-sin(pi/8) to set to 0 if near axis, 1 if away
+    direction = sign(direction) * floor(abs(direction) + 0.617316);
+
+    return vec4(color.r, (direction + 1.0) * 0.5, color.a);
+}
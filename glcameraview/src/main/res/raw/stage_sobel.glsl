@@ -0,0 +1,36 @@
+// A KERNEL FilterStage with 8 taps: sobel edge detection on the red channel.
+// Outputs the gradient magnitude in red, and the normalized gradient direction mapped from -1.0 - 1.0 to 0.0 - 1.0 in
+// green and blue.
+
+/**
+ * Returns the weighted sum of the red channel of three colors across the gradient.
+ */
+float sobelSum(vec4 c1, vec4 c2, vec4 c3) {
+    return c1.r + 2.0 * c2.r + c3.r;
+}
+
+vec4 apply(vec2 coord) {
+    vec2 dx = vec2(u_TexelWidth, 0.0);
+    vec2 dy = vec2(0.0, u_TexelHeight);
+
+    // the 3x3 neighbourhood, row by row from the top left; sobel doesn't weight the center
+    vec4 c0 = SAMPLE(coord - dy - dx);
+    vec4 c1 = SAMPLE(coord - dy);
+    vec4 c2 = SAMPLE(coord - dy + dx);
+    vec4 c3 = SAMPLE(coord - dx);
+    vec4 c5 = SAMPLE(coord + dx);
+    vec4 c6 = SAMPLE(coord + dy - dx);
+    vec4 c7 = SAMPLE(coord + dy);
+    vec4 c8 = SAMPLE(coord + dy + dx);
+
+    // compute the horizontal and vertical magnitude of the "edginess"
+    vec2 gradientDirection;
+    gradientDirection.x = sobelSum(c6, c7, c8) - sobelSum(c0, c1, c2);
+    gradientDirection.y = sobelSum(c8, c5, c2) - sobelSum(c6, c3, c0);
+
+    float gradientMagnitude = length(gradientDirection);
+    vec2 normalizedDirection = normalize(gradientDirection);
+
+    // place -1.0 - 1.0 within 0.0 - 1.0
+    return vec4(gradientMagnitude, (normalizedDirection + 1.0) * 0.5, 1.0);
+}
@@ -0,0 +1,434 @@
+package com.floatlearning.threadedcamera;
+
+import android.graphics.ImageFormat;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts camera preview frames in NV21 or YV12 without going through YuvImage and JPEG, into arrays owned by the caller
+ * so that steady use allocates nothing.
+ *
+ * Both formats store a full resolution luma (Y) plane followed by chroma (U and V) at half resolution in each direction,
+ * so grayscale is a plain copy of the luma plane. Colors are computed with BT.601 integer coefficients scaled by 256,
+ * matching what the camera and YuvImage use, with no floating point. Frames of PARALLEL_THRESHOLD pixels or more are
+ * converted in bands of rows in parallel.
+ *
+ * Pure Java, so it can be used from any thread, such as straight from onPreviewFrame().
+ */
+public class YuvConverter {
+    /**
+     * Converts bands of large frames; created the first time it's needed.
+     */
+    private static ExecutorService executor;
+    /**
+     * Maps every value a color channel can take before clamping, offset by CLAMP_OFFSET, to the nearest of 0 - 255.
+     */
+    private static final int[] CLAMP = createClampTable();
+
+    /**
+     * Returns the number of bytes a preview frame of the given size and format takes, including any row padding.
+     *
+     * @param format    The layout of the frame.
+     * @param width     The width of the frame.
+     * @param height    The height of the frame.
+     */
+    public static int getFrameSize(final Format format, final int width, final int height) {
+        final int chromaPlanes = format == Format.NV21 ? 1 : 2;
+        return lumaStride(format, width) * height + chromaPlanes * chromaStride(format, width) * ((height + 1) / 2);
+    }
+
+    /**
+     * Copy the luma plane of a frame, one byte per pixel with rows packed, which is the frame in grayscale.
+     *
+     * @param yuv       The preview bytes.
+     * @param width     The width of the frame.
+     * @param height    The height of the frame.
+     * @param format    The layout of the preview bytes.
+     * @param luma      Receives the luma; must hold at least width * height.
+     */
+    public static void extractLuma(final byte[] yuv, final int width, final int height, final Format format,
+                                   final byte[] luma) {
+        checkSize(yuv, format, width, height);
+        checkSize(luma.length, width * height, width, height);
+
+        final int stride = lumaStride(format, width);
+
+        if (stride == width) {
+            System.arraycopy(yuv, 0, luma, 0, width * height);
+            return;
+        }
+
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(yuv, y * stride, luma, y * width, width);
+        }
+    }
+
+    /**
+     * Shrink the luma plane of a frame by a whole factor, averaging each factor x factor block into one byte, for analysis
+     * which doesn't need every pixel. Any pixels past the last whole block on the right or bottom are left out.
+     *
+     * @param yuv       The preview bytes.
+     * @param width     The width of the frame.
+     * @param height    The height of the frame.
+     * @param format    The layout of the preview bytes.
+     * @param factor    How many pixels across and down go into each output pixel, such as 2 or 4.
+     * @param gray      Receives (width / factor) * (height / factor) bytes, with rows packed.
+     */
+    public static void downsampleLuma(final byte[] yuv, final int width, final int height, final Format format,
+                                      final int factor, final byte[] gray) {
+        if (factor < 1) {
+            throw new RuntimeException("Tried to downsample by a factor of " + factor + ".");
+        }
+
+        checkSize(yuv, format, width, height);
+
+        final int outWidth = width / factor;
+        final int outHeight = height / factor;
+        checkSize(gray.length, outWidth * outHeight, outWidth, outHeight);
+
+        final int stride = lumaStride(format, width);
+        final int area = factor * factor;
+
+        // adding half the area rounds the average to the nearest value
+        for (int oy = 0; oy < outHeight; oy++) {
+            final int rowStart = oy * factor * stride;
+            final int outStart = oy * outWidth;
+
+            for (int ox = 0; ox < outWidth; ox++) {
+                int sum = area / 2;
+
+                for (int row = rowStart + ox * factor, end = row + factor * stride; row < end; row += stride) {
+                    for (int i = row, rowEnd = row + factor; i < rowEnd; i++) {
+                        sum += yuv[i] & 0xFF;
+                    }
+                }
+
+                gray[outStart + ox] = (byte) (sum / area);
+            }
+        }
+    }
+
+    /**
+     * Convert a frame to ARGB colors, as Bitmap expects. Frames of PARALLEL_THRESHOLD pixels or more are converted in
+     * parallel bands.
+     *
+     * @param yuv       The preview bytes.
+     * @param width     The width of the frame.
+     * @param height    The height of the frame.
+     * @param format    The layout of the preview bytes.
+     * @param argb      Receives the colors, 0xAARRGGBB; must hold at least width * height.
+     */
+    public static void toArgb(final byte[] yuv, final int width, final int height, final Format format, final int[] argb) {
+        checkSize(argb.length, width * height, width, height);
+
+        if (width * height >= PARALLEL_THRESHOLD && getCores() > 1) {
+            convert(yuv, width, height, format, argb, null, getExecutor(), getCores());
+        } else {
+            convert(yuv, width, height, format, argb, null, null, 1);
+        }
+    }
+
+    /**
+     * Convert a frame to ARGB colors in parallel bands of rows.
+     *
+     * @param yuv       The preview bytes.
+     * @param width     The width of the frame.
+     * @param height    The height of the frame.
+     * @param format    The layout of the preview bytes.
+     * @param argb      Receives the colors, 0xAARRGGBB; must hold at least width * height.
+     * @param executor  The executor to convert bands on.
+     * @param bands     The number of bands to split the rows into, such as the number of cores.
+     */
+    public static void toArgb(final byte[] yuv, final int width, final int height, final Format format, final int[] argb,
+                              final ExecutorService executor, final int bands) {
+        checkSize(argb.length, width * height, width, height);
+        convert(yuv, width, height, format, argb, null, executor, bands);
+    }
+
+    /**
+     * Convert a frame to packed RGB bytes, three per pixel. Frames of PARALLEL_THRESHOLD pixels or more are converted in
+     * parallel bands.
+     *
+     * @param yuv       The preview bytes.
+     * @param width     The width of the frame.
+     * @param height    The height of the frame.
+     * @param format    The layout of the preview bytes.
+     * @param rgb       Receives the colors; must hold at least width * height * 3.
+     */
+    public static void toRgb(final byte[] yuv, final int width, final int height, final Format format, final byte[] rgb) {
+        checkSize(rgb.length, width * height * 3, width, height);
+
+        if (width * height >= PARALLEL_THRESHOLD && getCores() > 1) {
+            convert(yuv, width, height, format, null, rgb, getExecutor(), getCores());
+        } else {
+            convert(yuv, width, height, format, null, rgb, null, 1);
+        }
+    }
+
+    /**
+     * Convert a frame to packed RGB bytes in parallel bands of rows.
+     *
+     * @param yuv       The preview bytes.
+     * @param width     The width of the frame.
+     * @param height    The height of the frame.
+     * @param format    The layout of the preview bytes.
+     * @param rgb       Receives the colors; must hold at least width * height * 3.
+     * @param executor  The executor to convert bands on.
+     * @param bands     The number of bands to split the rows into, such as the number of cores.
+     */
+    public static void toRgb(final byte[] yuv, final int width, final int height, final Format format, final byte[] rgb,
+                             final ExecutorService executor, final int bands) {
+        checkSize(rgb.length, width * height * 3, width, height);
+        convert(yuv, width, height, format, null, rgb, executor, bands);
+    }
+
+    /**
+     * Internal method to convert a frame into whichever of argb or rgb is given, in bands if an executor is given.
+     */
+    private static void convert(final byte[] yuv, final int width, final int height, final Format format,
+                                final int[] argb, final byte[] rgb, final ExecutorService executor, final int bands) {
+        checkSize(yuv, format, width, height);
+
+        // bands hold whole pairs of rows, since each row of chroma covers two rows of luma
+        final int pairs = (height + 1) / 2;
+        final int count = Math.max(1, Math.min(bands, pairs));
+
+        if (executor == null || count == 1) {
+            convertRows(yuv, width, height, format, argb, rgb, 0, height);
+            return;
+        }
+
+        final ArrayList<Future<Void>> results = new ArrayList<Future<Void>>(count);
+
+        for (int i = 0; i < count; i++) {
+            final int first = pairs * i / count * 2;
+            final int last = Math.min(height, pairs * (i + 1) / count * 2);
+
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    convertRows(yuv, width, height, format, argb, rgb, first, last);
+                    return null;
+                }
+            }));
+        }
+
+        await(results);
+    }
+
+    /**
+     * Internal method to convert rows [first, last) of a frame.
+     */
+    private static void convertRows(final byte[] yuv, final int width, final int height, final Format format,
+                                    final int[] argb, final byte[] rgb, final int first, final int last) {
+        final int lumaStride = lumaStride(format, width);
+        final int chromaStride = chromaStride(format, width);
+        final int chromaStart = lumaStride * height;
+
+        // NV21 interleaves V and U, one pair for every two pixels; YV12 has a V plane followed by a U plane
+        final int step = format == Format.NV21 ? 2 : 1;
+        final int uOffset = format == Format.NV21 ? 1 : chromaStride * ((height + 1) / 2);
+
+        for (int y = first; y < last; y++) {
+            int lumaIndex = y * lumaStride;
+            int chromaIndex = chromaStart + (y >> 1) * chromaStride;
+            int out = y * width;
+
+            for (int x = 0; x < width; x += 2, chromaIndex += step) {
+                final int v = (yuv[chromaIndex] & 0xFF) - 128;
+                final int u = (yuv[chromaIndex + uOffset] & 0xFF) - 128;
+
+                // the chroma terms are shared by both pixels of the pair
+                final int red = 409 * v + 128;
+                final int green = -100 * u - 208 * v + 128;
+                final int blue = 516 * u + 128;
+
+                if (argb != null) {
+                    argb[out] = packArgb(yuv[lumaIndex], red, green, blue);
+
+                    if (x + 1 < width) {
+                        argb[out + 1] = packArgb(yuv[lumaIndex + 1], red, green, blue);
+                    }
+                } else {
+                    packRgb(yuv[lumaIndex], red, green, blue, rgb, out * 3);
+
+                    if (x + 1 < width) {
+                        packRgb(yuv[lumaIndex + 1], red, green, blue, rgb, out * 3 + 3);
+                    }
+                }
+
+                out += 2;
+                lumaIndex += 2;
+            }
+        }
+    }
+
+    /**
+     * Internal method to combine a luma byte with the chroma terms of its pixel pair into an ARGB color.
+     */
+    private static int packArgb(final byte y, final int red, final int green, final int blue) {
+        final int luma = 298 * Math.max(0, (y & 0xFF) - 16);
+        return 0xFF000000 | (clamp((luma + red) >> 8) << 16) | (clamp((luma + green) >> 8) << 8)
+                | clamp((luma + blue) >> 8);
+    }
+
+    /**
+     * Internal method to combine a luma byte with the chroma terms of its pixel pair into three RGB bytes.
+     */
+    private static void packRgb(final byte y, final int red, final int green, final int blue, final byte[] rgb,
+                                final int offset) {
+        final int luma = 298 * Math.max(0, (y & 0xFF) - 16);
+        rgb[offset] = (byte) clamp((luma + red) >> 8);
+        rgb[offset + 1] = (byte) clamp((luma + green) >> 8);
+        rgb[offset + 2] = (byte) clamp((luma + blue) >> 8);
+    }
+
+    /**
+     * Internal method to limit a color channel to 0 - 255. A table lookup, since the comparisons of a branching clamp
+     * mispredict on noisy images, which made whole conversions several times slower.
+     */
+    private static int clamp(final int value) {
+        return CLAMP[value + CLAMP_OFFSET];
+    }
+
+    /**
+     * Internal method to fill the clamp table.
+     */
+    private static int[] createClampTable() {
+        final int[] table = new int[1024];
+
+        for (int i = 0; i < table.length; i++) {
+            table[i] = Math.min(255, Math.max(0, i - CLAMP_OFFSET));
+        }
+
+        return table;
+    }
+
+    /**
+     * Internal method to get the number of bytes between rows of the luma plane.
+     */
+    private static int lumaStride(final Format format, final int width) {
+        // YV12 rows are padded to multiples of 16 bytes, as ImageFormat.YV12 documents
+        return format == Format.YV12 ? align16(width) : width;
+    }
+
+    /**
+     * Internal method to get the number of bytes between rows of chroma; for NV21, that is a row of V and U pairs.
+     */
+    private static int chromaStride(final Format format, final int width) {
+        return format == Format.YV12 ? align16(align16(width) / 2) : (width + 1) / 2 * 2;
+    }
+
+    /**
+     * Internal method to round a size up to a multiple of 16.
+     */
+    private static int align16(final int size) {
+        return (size + 15) & ~15;
+    }
+
+    /**
+     * Internal method to verify the preview bytes hold a whole frame.
+     */
+    private static void checkSize(final byte[] yuv, final Format format, final int width, final int height) {
+        if (width < 1 || height < 1) {
+            throw new RuntimeException("Tried to convert a " + width + "x" + height + " frame.");
+        }
+
+        checkSize(yuv.length, getFrameSize(format, width, height), width, height);
+    }
+
+    /**
+     * Internal method to verify an array is big enough.
+     */
+    private static void checkSize(final int length, final int needed, final int width, final int height) {
+        if (length < needed) {
+            throw new RuntimeException("An array of " + length + " can't hold " + width + "x" + height + " pixels; "
+                    + needed + " are needed.");
+        }
+    }
+
+    /**
+     * Internal method to wait for every band to finish.
+     */
+    private static void await(final ArrayList<Future<Void>> results) {
+        try {
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while converting a preview frame");
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to convert a preview frame: " + e.getCause());
+        }
+    }
+
+    /**
+     * Internal method to get the number of cores to split large frames across.
+     */
+    private static int getCores() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Internal method to get the shared executor, creating it the first time.
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(getCores(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, TAG + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return executor;
+    }
+
+    /**
+     * The preview layouts this class can read.
+     */
+    public enum Format {
+        /**
+         * A luma plane, then rows of interleaved V and U bytes. The default camera preview format.
+         */
+        NV21,
+        /**
+         * A luma plane, then a V plane, then a U plane, with rows padded to multiples of 16 bytes.
+         */
+        YV12;
+
+        /**
+         * Returns the layout for a camera preview format.
+         *
+         * @param imageFormat   Either ImageFormat.NV21 or ImageFormat.YV12, such as from ThreadedCamera.getImageFormat().
+         */
+        public static Format fromImageFormat(final int imageFormat) {
+            if (imageFormat == ImageFormat.NV21) {
+                return NV21;
+            } else if (imageFormat == ImageFormat.YV12) {
+                return YV12;
+            }
+
+            throw new RuntimeException("Unsupported preview format: " + imageFormat);
+        }
+    }
+
+    // below this many pixels, handing bands to other threads costs more than it saves
+    public static final int PARALLEL_THRESHOLD = 256 * 256;
+    // channels range from about -260 to 540 before clamping
+    private static final int CLAMP_OFFSET = 384;
+    private static final String TAG = YuvConverter.class.getSimpleName();
+}
@@ -0,0 +1,245 @@
+package com.floatlearning.threadedcamera;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks both layouts against a floating point BT.601 reference, for odd widths and heights and YV12 widths which
+ * aren't multiples of 16, and that converting in bands gives the same result as converting in one pass.
+ */
+public class YuvConverterTest {
+    @Test
+    public void frameSizesIncludePadding() {
+        assertEquals(640 * 480 * 3 / 2, YuvConverter.getFrameSize(YuvConverter.Format.NV21, 640, 480));
+        assertEquals(640 * 480 * 3 / 2, YuvConverter.getFrameSize(YuvConverter.Format.YV12, 640, 480));
+        // a 33 pixel luma row pads to 48 bytes, and its 17 chroma bytes to 32
+        assertEquals(48 * 7 + 2 * 32 * 4, YuvConverter.getFrameSize(YuvConverter.Format.YV12, 33, 7));
+        // a 3 pixel row has 2 chroma pairs, 4 bytes of VU
+        assertEquals(3 * 5 + 4 * 3, YuvConverter.getFrameSize(YuvConverter.Format.NV21, 3, 5));
+
+        for (YuvConverter.Format format : YuvConverter.Format.values()) {
+            for (int[] size : SIZES) {
+                assertEquals(format + " " + size[0] + "x" + size[1], new Frame(format, size[0], size[1]).yuv.length,
+                        YuvConverter.getFrameSize(format, size[0], size[1]));
+            }
+        }
+    }
+
+    @Test
+    public void convertsNV21() {
+        for (int[] size : SIZES) {
+            checkConversion(new Frame(YuvConverter.Format.NV21, size[0], size[1]));
+        }
+    }
+
+    @Test
+    public void convertsYV12() {
+        for (int[] size : SIZES) {
+            checkConversion(new Frame(YuvConverter.Format.YV12, size[0], size[1]));
+        }
+    }
+
+    @Test
+    public void extractsLumaWithoutPadding() {
+        for (YuvConverter.Format format : YuvConverter.Format.values()) {
+            for (int[] size : SIZES) {
+                final Frame frame = new Frame(format, size[0], size[1]);
+                final byte[] luma = new byte[frame.width * frame.height];
+
+                YuvConverter.extractLuma(frame.yuv, frame.width, frame.height, format, luma);
+                assertArrayEquals(format + " " + frame.width + "x" + frame.height, frame.luma, luma);
+            }
+        }
+    }
+
+    @Test
+    public void convertsIdenticallyInBands() {
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+        try {
+            for (YuvConverter.Format format : YuvConverter.Format.values()) {
+                for (int[] size : SIZES) {
+                    final Frame frame = new Frame(format, size[0], size[1]);
+                    final int[] expectedArgb = new int[frame.width * frame.height];
+                    final byte[] expectedRgb = new byte[frame.width * frame.height * 3];
+
+                    YuvConverter.toArgb(frame.yuv, frame.width, frame.height, format, expectedArgb);
+                    YuvConverter.toRgb(frame.yuv, frame.width, frame.height, format, expectedRgb);
+
+                    // one band, counts which don't divide the row pairs, and more bands than row pairs
+                    for (int bands : new int[]{1, 2, 3, 64}) {
+                        final String message = format + " " + frame.width + "x" + frame.height + " in " + bands + " bands";
+                        final int[] argb = new int[frame.width * frame.height];
+                        final byte[] rgb = new byte[frame.width * frame.height * 3];
+
+                        YuvConverter.toArgb(frame.yuv, frame.width, frame.height, format, argb, executor, bands);
+                        YuvConverter.toRgb(frame.yuv, frame.width, frame.height, format, rgb, executor, bands);
+                        assertArrayEquals(message, expectedArgb, argb);
+                        assertArrayEquals(message, expectedRgb, rgb);
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void convertsLargeFramesInBands() {
+        // over PARALLEL_THRESHOLD with an odd height, so the automatic path splits it when there are cores to use
+        assertTrue(LARGE_WIDTH * LARGE_HEIGHT >= YuvConverter.PARALLEL_THRESHOLD);
+
+        checkConversion(new Frame(YuvConverter.Format.NV21, LARGE_WIDTH, LARGE_HEIGHT));
+        checkConversion(new Frame(YuvConverter.Format.YV12, LARGE_WIDTH, LARGE_HEIGHT));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void rejectsFramesTooSmallForTheSize() {
+        final int size = YuvConverter.getFrameSize(YuvConverter.Format.YV12, 17, 9);
+        YuvConverter.toArgb(new byte[size - 1], 17, 9, YuvConverter.Format.YV12, new int[17 * 9]);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void rejectsOutputsTooSmallForTheSize() {
+        final int size = YuvConverter.getFrameSize(YuvConverter.Format.NV21, 17, 9);
+        YuvConverter.toRgb(new byte[size], 17, 9, YuvConverter.Format.NV21, new byte[17 * 9 * 3 - 1]);
+    }
+
+    /**
+     * Internal method to convert a frame both ways and check every pixel against the reference.
+     */
+    private static void checkConversion(final Frame frame) {
+        final int[] argb = new int[frame.width * frame.height];
+        final byte[] rgb = new byte[frame.width * frame.height * 3];
+
+        YuvConverter.toArgb(frame.yuv, frame.width, frame.height, frame.format, argb);
+        YuvConverter.toRgb(frame.yuv, frame.width, frame.height, frame.format, rgb);
+
+        for (int y = 0; y < frame.height; y++) {
+            for (int x = 0; x < frame.width; x++) {
+                final int i = y * frame.width + x;
+                final int expected = frame.reference(x, y);
+                final String message = frame.format + " " + frame.width + "x" + frame.height + " at " + x + ", " + y
+                        + ": expected " + Integer.toHexString(expected);
+
+                assertEquals(message + " got " + Integer.toHexString(argb[i]), 0xFF, argb[i] >>> 24);
+
+                for (int channel = 0; channel < 3; channel++) {
+                    final int shift = 16 - 8 * channel;
+                    final int reference = (expected >> shift) & 0xFF;
+
+                    assertTrue(message + " got " + Integer.toHexString(argb[i]),
+                            Math.abs(((argb[i] >> shift) & 0xFF) - reference) <= TOLERANCE);
+                    assertTrue(message + " got rgb " + (rgb[i * 3 + channel] & 0xFF),
+                            Math.abs((rgb[i * 3 + channel] & 0xFF) - reference) <= TOLERANCE);
+                }
+            }
+        }
+    }
+
+    private static int clamp(final double value) {
+        return (int) Math.max(0, Math.min(255, Math.round(value)));
+    }
+
+    /**
+     * A random frame, with its planes kept unpadded alongside the preview bytes laid out as the camera delivers them.
+     * Row padding is filled with noise, so reading it shows up as wrong colors.
+     */
+    private static class Frame {
+        final YuvConverter.Format format;
+        final int width;
+        final int height;
+        final byte[] luma;
+        final byte[] u;
+        final byte[] v;
+        final byte[] yuv;
+
+        Frame(final YuvConverter.Format format, final int width, final int height) {
+            this.format = format;
+            this.width = width;
+            this.height = height;
+
+            final Random random = new Random(SEED + width * 31 + height);
+            final int chromaWidth = (width + 1) / 2;
+            final int chromaHeight = (height + 1) / 2;
+
+            // studio swing, as cameras deliver: luma 16 - 235 and chroma 16 - 240
+            luma = randomPlane(random, width * height, 16, 235);
+            u = randomPlane(random, chromaWidth * chromaHeight, 16, 240);
+            v = randomPlane(random, chromaWidth * chromaHeight, 16, 240);
+
+            // laid out independently of YuvConverter, from the ImageFormat.NV21 and ImageFormat.YV12 documentation
+            final int lumaStride = format == YuvConverter.Format.YV12 ? align16(width) : width;
+            final int chromaStride = format == YuvConverter.Format.YV12 ? align16(lumaStride / 2) : chromaWidth * 2;
+            final int chromaPlanes = format == YuvConverter.Format.YV12 ? 2 : 1;
+
+            yuv = new byte[lumaStride * height + chromaPlanes * chromaStride * chromaHeight];
+            random.nextBytes(yuv);
+
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(luma, y * width, yuv, y * lumaStride, width);
+            }
+
+            final int chromaStart = lumaStride * height;
+
+            for (int y = 0; y < chromaHeight; y++) {
+                for (int x = 0; x < chromaWidth; x++) {
+                    final int i = y * chromaWidth + x;
+
+                    if (format == YuvConverter.Format.YV12) {
+                        yuv[chromaStart + y * chromaStride + x] = v[i];
+                        yuv[chromaStart + chromaStride * chromaHeight + y * chromaStride + x] = u[i];
+                    } else {
+                        yuv[chromaStart + y * chromaStride + x * 2] = v[i];
+                        yuv[chromaStart + y * chromaStride + x * 2 + 1] = u[i];
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the color of one pixel as 0xFFRRGGBB, using the BT.601 coefficients in floating point.
+         */
+        int reference(final int x, final int y) {
+            final int chroma = (y / 2) * ((width + 1) / 2) + x / 2;
+            final double luminance = 1.164 * ((luma[y * width + x] & 0xFF) - 16);
+            final double blueDifference = (u[chroma] & 0xFF) - 128;
+            final double redDifference = (v[chroma] & 0xFF) - 128;
+
+            final int red = clamp(luminance + 1.596 * redDifference);
+            final int green = clamp(luminance - 0.391 * blueDifference - 0.813 * redDifference);
+            final int blue = clamp(luminance + 2.018 * blueDifference);
+
+            return 0xFF000000 | (red << 16) | (green << 8) | blue;
+        }
+
+        private static byte[] randomPlane(final Random random, final int count, final int min, final int max) {
+            final byte[] plane = new byte[count];
+
+            for (int i = 0; i < count; i++) {
+                plane[i] = (byte) (min + random.nextInt(max - min + 1));
+            }
+
+            return plane;
+        }
+
+        private static int align16(final int size) {
+            return (size + 15) / 16 * 16;
+        }
+    }
+
+    private static final long SEED = 601;
+    // a single pixel, odd widths and heights, YV12 widths which pad to 16 or 48 bytes, and an even size with no padding
+    private static final int[][] SIZES = {{1, 1}, {3, 5}, {2, 1}, {1, 4}, {17, 9}, {33, 7}, {20, 12}, {32, 16}};
+    private static final int LARGE_WIDTH = 640;
+    private static final int LARGE_HEIGHT = 481;
+    // the integer coefficients are within 0.3% of the floating point ones, and each step rounds
+    private static final int TOLERANCE = 2;
+}